@@ -0,0 +1,94 @@
+package com.example.aws.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Compare two JSON results of BenchmarkRunner and report benchmarks which got slower than the threshold. Exits with status 1 if there is
+ * any regression, so that it can be used as a build gate.
+ * 
+ * Usage: BenchmarkComparator baseline.json candidate.json [thresholdPercent]
+ */
+public class BenchmarkComparator {
+
+	private static final double DEFAULT_THRESHOLD_PERCENT = 5.0;
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("Usage: BenchmarkComparator baseline.json candidate.json [thresholdPercent]");
+			System.exit(2);
+		}
+		double thresholdPercent = args.length > 2 ? Double.parseDouble(args[2]) : DEFAULT_THRESHOLD_PERCENT;
+
+		Map<String, JsonNode> baseline = load(new File(args[0]));
+		Map<String, JsonNode> candidate = load(new File(args[1]));
+
+		int regressions = 0;
+		for (Entry<String, JsonNode> entry : candidate.entrySet()) {
+			JsonNode before = baseline.get(entry.getKey());
+			if (before == null) {
+				System.out.println(String.format("NEW        %s: %s", entry.getKey(), format(entry.getValue())));
+				continue;
+			}
+			JsonNode after = entry.getValue();
+			double beforeScore = before.path("primaryMetric").path("score").asDouble();
+			double afterScore = after.path("primaryMetric").path("score").asDouble();
+
+			// Throughput is better when higher, and time per operation is better when lower.
+			boolean higherIsBetter = "thrpt".equals(after.path("mode").asText());
+			double changePercent = beforeScore == 0.0 ? 0.0 : (afterScore - beforeScore) / beforeScore * 100.0;
+			double improvementPercent = higherIsBetter ? changePercent : -changePercent;
+
+			String status;
+			if (improvementPercent < -thresholdPercent) {
+				status = "REGRESSION";
+				regressions++;
+			} else if (improvementPercent > thresholdPercent) {
+				status = "IMPROVED";
+			} else {
+				status = "SAME";
+			}
+			System.out.println(String.format("%-10s %s: %s -> %s (%+.1f%%)", status, entry.getKey(), format(before), format(after),
+					changePercent));
+		}
+		for (String key : baseline.keySet()) {
+			if (!candidate.containsKey(key)) {
+				System.out.println(String.format("MISSING    %s", key));
+			}
+		}
+
+		System.out.println(regressions + " regression(s) over " + thresholdPercent + "%");
+		System.exit(regressions > 0 ? 1 : 0);
+	}
+
+	// Index results by benchmark name and parameters
+	private static Map<String, JsonNode> load(File file) throws IOException {
+		Map<String, JsonNode> results = new LinkedHashMap<>();
+		for (JsonNode result : new ObjectMapper().readTree(file)) {
+			StringBuilder key = new StringBuilder(result.path("benchmark").asText());
+			Iterator<Entry<String, JsonNode>> params = result.path("params").fields();
+			while (params.hasNext()) {
+				Entry<String, JsonNode> param = params.next();
+				key.append(key.indexOf("{") < 0 ? " {" : ", ").append(param.getKey()).append('=').append(param.getValue().asText());
+			}
+			if (key.indexOf("{") >= 0) {
+				key.append('}');
+			}
+			results.put(key.toString(), result);
+		}
+		return results;
+	}
+
+	private static String format(JsonNode result) {
+		JsonNode primaryMetric = result.path("primaryMetric");
+		return String.format("%.3f ± %.3f %s", primaryMetric.path("score").asDouble(), primaryMetric.path("scoreError").asDouble(),
+				primaryMetric.path("scoreUnit").asText());
+	}
+}
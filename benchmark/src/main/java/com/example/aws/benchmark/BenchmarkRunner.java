@@ -0,0 +1,33 @@
+package com.example.aws.benchmark;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Run the benchmarks and save the results as JSON under results directory, so that runs can be compared with BenchmarkComparator. Takes
+ * the same arguments as the JMH command line, e.g. "DisplayConsumer -p payloadSize=1024".
+ */
+public class BenchmarkRunner {
+
+	private static final String RESULTS_DIR = System.getProperty("benchmark.results.dir", "results");
+
+	public static void main(String[] args) throws Exception {
+		File resultsDir = new File(RESULTS_DIR);
+		if (!resultsDir.isDirectory() && !resultsDir.mkdirs()) {
+			throw new IllegalStateException("Couldn't create results directory: " + resultsDir.getAbsolutePath());
+		}
+		String resultFile = new File(resultsDir, "jmh-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ".json").getPath();
+
+		Options options = new OptionsBuilder().parent(new CommandLineOptions(args)).resultFormat(ResultFormatType.JSON).result(resultFile)
+				.build();
+		new Runner(options).run();
+		System.out.println("Saved benchmark results to " + resultFile);
+	}
+}
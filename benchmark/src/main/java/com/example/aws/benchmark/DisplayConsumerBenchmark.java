@@ -0,0 +1,76 @@
+package com.example.aws.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.amazonaws.services.kinesis.model.Record;
+
+import software.amazon.kinesis.lifecycle.events.InitializationInput;
+import software.amazon.kinesis.lifecycle.events.ProcessRecordsInput;
+import software.amazon.kinesis.processor.RecordProcessorCheckpointer;
+import software.amazon.kinesis.retrieval.KinesisClientRecord;
+
+/**
+ * Throughput of DisplayConsumer handling a batch of records, including reading the time field and writing to the sink. Output is
+ * discarded so that the benchmark measures record handling rather than the terminal.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Doutput.sink=discard", "-Dlatency.report.interval.millis=0", "-Dlag.report.interval.millis=0",
+		"-Dif.time.field.enabled=true", "-Dtime.field.name=" + SyntheticRecords.TIME_FIELD_NAME })
+public class DisplayConsumerBenchmark {
+
+	@Param({ "100", "500" })
+	public int recordCount;
+
+	@Param({ "256", "4096" })
+	public int payloadSize;
+
+	private com.example.aws.v1.kinesis.consumer.DisplayConsumer v1Consumer;
+	private com.amazonaws.services.kinesis.clientlibrary.types.ProcessRecordsInput v1Input;
+
+	private com.example.aws.v2.kinesis.consumer.DisplayConsumer v2Consumer;
+	private ProcessRecordsInput v2Input;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		v1Consumer = new com.example.aws.v1.kinesis.consumer.DisplayConsumer();
+		v1Consumer.initialize(
+				new com.amazonaws.services.kinesis.clientlibrary.types.InitializationInput().withShardId("shardId-000000000000"));
+		List<Record> v1Records = SyntheticRecords.v1Records(recordCount, payloadSize);
+		v1Input = new com.amazonaws.services.kinesis.clientlibrary.types.ProcessRecordsInput().withRecords(v1Records)
+				.withCheckpointer(new NoopCheckpointer()).withMillisBehindLatest(0L);
+
+		v2Consumer = new com.example.aws.v2.kinesis.consumer.DisplayConsumer();
+		v2Consumer.initialize(InitializationInput.builder().shardId("shardId-000000000001").build());
+		List<KinesisClientRecord> v2Records = SyntheticRecords.v2Records(recordCount, payloadSize);
+		RecordProcessorCheckpointer v2Checkpointer = NoopCheckpointer.forKcl2();
+		v2Input = ProcessRecordsInput.builder().records(v2Records).checkpointer(v2Checkpointer).millisBehindLatest(0L).build();
+	}
+
+	@Benchmark
+	public void v1ProcessRecords() {
+		v1Consumer.processRecords(v1Input);
+	}
+
+	@Benchmark
+	public void v2ProcessRecords() {
+		v2Consumer.processRecords(v2Input);
+	}
+}
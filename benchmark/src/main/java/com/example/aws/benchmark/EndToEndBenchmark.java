@@ -0,0 +1,165 @@
+package com.example.aws.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Sweep end-to-end trials of the producers and the display consumers over shard counts, payload sizes, GetRecords batch sizes and
+ * processor modes, running each trial in a JVM of its own against an in-memory stream, and save the results as JSON under results
+ * directory. The results take the shape of JMH results, with records/s as the score and CPU, allocation rate and latency as secondary
+ * metrics, so that runs of two releases can be compared with BenchmarkComparator.
+ */
+public class EndToEndBenchmark {
+
+	private static final String RESULTS_DIR = System.getProperty("benchmark.results.dir", "results");
+
+	// Values to sweep, separated by commas
+	private static final String SHARDS = System.getProperty("e2e.shards", "1,4,16");
+	private static final String PAYLOAD_SIZES = System.getProperty("e2e.payload.sizes", "256,4096");
+	private static final String BATCH_SIZES = System.getProperty("e2e.batch.sizes", "100,1000,10000");
+	// "v1" for the DisplayConsumer of KCL 1.x, "v2" for the DisplayConsumer of KCL 2.x
+	private static final String PROCESSOR_MODES = System.getProperty("e2e.processor.modes", "v1,v2");
+
+	// Records/s offered by the producer, or 0 to produce as fast as it can and measure the most the consumers can take
+	private static final String RATE_RECORDS_PER_SECOND = System.getProperty("e2e.rate.records.per.second", "0");
+	// Whether the shards enforce the limits of a real shard, which would cap every trial at the shard limits if enabled
+	private static final String LIMITS_ENABLED = System.getProperty("e2e.limits.enabled", "false");
+	// Bytes of records kept in each shard of a trial, which bounds its heap whatever the payload size, but at least two batches
+	private static final long RETENTION_BYTES_PER_SHARD = Long.parseLong(System.getProperty("e2e.retention.bytes.per.shard", "16777216"));
+	private static final long WARMUP_SECONDS = Long.parseLong(System.getProperty("e2e.warmup.seconds", "10"));
+	private static final long MEASUREMENT_SECONDS = Long.parseLong(System.getProperty("e2e.measurement.seconds", "30"));
+	// Extra JVM options of the trials, separated by spaces, e.g. "-Xmx2g -XX:+UseG1GC"
+	private static final String JVM_ARGS = System.getProperty("e2e.jvm.args", "");
+
+	private static final String BENCHMARK_NAME = EndToEndBenchmark.class.getName() + ".displayConsumer";
+
+	public static void main(String[] args) throws Exception {
+		File resultsDir = new File(RESULTS_DIR);
+		if (!resultsDir.isDirectory() && !resultsDir.mkdirs()) {
+			throw new IllegalStateException("Couldn't create results directory: " + resultsDir.getAbsolutePath());
+		}
+		String runName = "e2e-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+		File runDir = new File(resultsDir, runName);
+		if (!runDir.mkdirs()) {
+			throw new IllegalStateException("Couldn't create trial directory: " + runDir.getAbsolutePath());
+		}
+		File resultFile = new File(resultsDir, runName + ".json");
+
+		ObjectMapper objectMapper = new ObjectMapper();
+		ArrayNode results = objectMapper.createArrayNode();
+		int trial = 0;
+		for (String shards : split(SHARDS)) {
+			for (String payloadSize : split(PAYLOAD_SIZES)) {
+				for (String batchSize : split(BATCH_SIZES)) {
+					for (String processorMode : split(PROCESSOR_MODES)) {
+						trial++;
+						System.out.printf("Trial %d: shards=%s, payloadSize=%s, batchSize=%s, processorMode=%s\n", trial, shards,
+								payloadSize, batchSize, processorMode);
+						File trialResultFile = new File(runDir, "trial-" + trial + ".json");
+						File trialLogFile = new File(runDir, "trial-" + trial + ".log");
+						int exitCode = runTrial(shards, payloadSize, batchSize, processorMode, trialResultFile, trialLogFile);
+						if (exitCode != 0 || !trialResultFile.isFile()) {
+							System.out.println("Trial " + trial + " failed with exit code " + exitCode + ", see " + trialLogFile);
+							continue;
+						}
+						JsonNode metrics = objectMapper.readTree(trialResultFile);
+						System.out.println("  " + metrics);
+						results.add(toResult(objectMapper, shards, payloadSize, batchSize, processorMode, metrics));
+						// Save after every trial, so that a long sweep which is stopped keeps what it has measured.
+						objectMapper.writerWithDefaultPrettyPrinter().writeValue(resultFile, results);
+					}
+				}
+			}
+		}
+		System.out.println("Saved benchmark results to " + resultFile.getPath());
+	}
+
+	// Run a trial in a JVM of its own, since the configuration of the producers and consumers is fixed when their classes load
+	private static int runTrial(String shards, String payloadSize, String batchSize, String processorMode, File trialResultFile,
+			File trialLogFile) throws IOException, InterruptedException {
+		List<String> command = new ArrayList<>();
+		command.add(new File(System.getProperty("java.home"), "bin" + File.separator + "java").getPath());
+		command.addAll(split(JVM_ARGS, " "));
+		command.add("-Dkinesis.local=true");
+		command.add("-Dkinesis.local.shards=" + shards);
+		command.add("-Dkinesis.local.limits.enabled=" + LIMITS_ENABLED);
+		command.add("-Dkinesis.local.retention.records="
+				+ Math.max(2L * Long.parseLong(batchSize), RETENTION_BYTES_PER_SHARD / Math.max(1L, Long.parseLong(payloadSize))));
+		command.add("-Dload.payload.size=fixed:" + payloadSize);
+		command.add("-Dload.rate.records.per.second=" + RATE_RECORDS_PER_SECOND);
+		command.add("-Doutput.sink=discard");
+		command.add("-Dlatency.report.interval.millis=0");
+		command.add("-Dlag.report.interval.millis=0");
+		command.add("-Dif.time.field.enabled=true");
+		command.add("-Dtime.field.name=" + SyntheticRecords.TIME_FIELD_NAME);
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(EndToEndTrial.class.getName());
+		command.add(processorMode);
+		command.add(batchSize);
+		command.add(String.valueOf(WARMUP_SECONDS));
+		command.add(String.valueOf(MEASUREMENT_SECONDS));
+		command.add(trialResultFile.getPath());
+		Process process = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(trialLogFile).start();
+		return process.waitFor();
+	}
+
+	// A result in the shape of a JMH result
+	private static ObjectNode toResult(ObjectMapper objectMapper, String shards, String payloadSize, String batchSize, String processorMode,
+			JsonNode metrics) {
+		ObjectNode result = objectMapper.createObjectNode();
+		result.put("benchmark", BENCHMARK_NAME);
+		result.put("mode", "thrpt");
+		result.put("warmupTime", WARMUP_SECONDS + " s");
+		result.put("measurementTime", MEASUREMENT_SECONDS + " s");
+		ObjectNode params = result.putObject("params");
+		params.put("shards", shards);
+		params.put("payloadSize", payloadSize);
+		params.put("batchSize", batchSize);
+		params.put("processorMode", processorMode);
+		params.put("rateRecordsPerSecond", RATE_RECORDS_PER_SECOND);
+		metric(result.putObject("primaryMetric"), metrics.path("recordsPerSecond").asDouble(), "records/s");
+		ObjectNode secondaryMetrics = result.putObject("secondaryMetrics");
+		metric(secondaryMetrics.putObject("bytesPerSecond"), metrics.path("bytesPerSecond").asDouble(), "B/s");
+		metric(secondaryMetrics.putObject("processCpu"), metrics.path("processCpuCores").asDouble(), "cores");
+		metric(secondaryMetrics.putObject("consumerCpu"), metrics.path("consumerCpuCores").asDouble(), "cores");
+		metric(secondaryMetrics.putObject("allocationRate"), metrics.path("allocationMBPerSecond").asDouble(), "MB/s");
+		metric(secondaryMetrics.putObject("consumerAllocationRate"), metrics.path("consumerAllocationMBPerSecond").asDouble(), "MB/s");
+		metric(secondaryMetrics.putObject("p50Latency"), metrics.path("p50LatencyMillis").asDouble(), "ms");
+		metric(secondaryMetrics.putObject("p99Latency"), metrics.path("p99LatencyMillis").asDouble(), "ms");
+		metric(secondaryMetrics.putObject("maxLatency"), metrics.path("maxLatencyMillis").asDouble(), "ms");
+		metric(secondaryMetrics.putObject("millisBehindLatest"), metrics.path("millisBehindLatest").asDouble(), "ms");
+		return result;
+	}
+
+	// A single measurement has no error, unlike the score of JMH iterations.
+	private static void metric(ObjectNode metric, double score, String unit) {
+		metric.put("score", score);
+		metric.put("scoreError", 0.0);
+		metric.put("scoreUnit", unit);
+	}
+
+	private static List<String> split(String values) {
+		return split(values, ",");
+	}
+
+	private static List<String> split(String values, String separator) {
+		List<String> list = new ArrayList<>();
+		for (String value : values.split(Pattern.quote(separator))) {
+			if (!value.trim().isEmpty()) {
+				list.add(value.trim());
+			}
+		}
+		return list;
+	}
+}
@@ -0,0 +1,345 @@
+package com.example.aws.benchmark;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.amazonaws.services.kinesis.model.GetRecordsRequest;
+import com.amazonaws.services.kinesis.model.GetRecordsResult;
+import com.amazonaws.services.kinesis.model.GetShardIteratorRequest;
+import com.amazonaws.services.kinesis.model.Record;
+import com.example.aws.util.Config;
+import com.example.aws.util.RetryPolicy;
+import com.example.aws.util.local.LocalKinesisStream;
+import com.example.aws.util.local.LocalKinesisStream.LocalShard;
+import com.example.aws.util.metrics.LatencyHistogram;
+import com.example.aws.util.metrics.LatencyTracker;
+import com.example.aws.v1.kinesis.local.LocalAmazonKinesis;
+import com.example.aws.v2.kinesis.Util;
+import com.example.aws.v2.kinesis.local.LocalKinesisAsyncClient;
+import com.example.aws.v2.kinesis.producer.LoadGenerator;
+import com.example.aws.v2.kinesis.producer.PartitionKeySampler;
+import com.example.aws.v2.kinesis.producer.PayloadSizeDistribution;
+import com.example.aws.v2.kinesis.producer.PipelinedPutRecordsSender;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import software.amazon.awssdk.services.kinesis.model.GetRecordsResponse;
+import software.amazon.awssdk.services.kinesis.model.ShardIteratorType;
+import software.amazon.kinesis.lifecycle.events.InitializationInput;
+import software.amazon.kinesis.lifecycle.events.ProcessRecordsInput;
+import software.amazon.kinesis.processor.RecordProcessorCheckpointer;
+import software.amazon.kinesis.retrieval.KinesisClientRecord;
+
+/**
+ * One trial of EndToEndBenchmark, run in a JVM of its own with kinesis.local=true. LoadGenerator threads put records to an in-memory
+ * stream, and a thread for each shard reads them with GetRecords and hands them to the DisplayConsumer of KCL 1.x or 2.x, as the KCL does
+ * with a lease of the shard. The KCL itself is left out, since its leases would need DynamoDB. After the warmup, throughput, CPU time,
+ * allocated bytes and producer-to-processor latency are measured over the measurement time and written to the result file as JSON.
+ * 
+ * Usage: EndToEndTrial processorMode(v1|v2) batchSize warmupSeconds measurementSeconds resultFile
+ */
+public class EndToEndTrial {
+
+	// Time to wait before reading again when a read returned no records, like the idle time between reads of the KCL
+	private static final long IDLE_MILLIS = Long.parseLong(System.getProperty("e2e.idle.millis", "100"));
+	// Time to wait before reading again when a read was throttled
+	private static final long THROTTLE_BACKOFF_MILLIS = 200L;
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 5) {
+			System.err.println("Usage: EndToEndTrial processorMode(v1|v2) batchSize warmupSeconds measurementSeconds resultFile");
+			System.exit(2);
+		}
+		if (!Config.KINESIS_LOCAL) {
+			throw new IllegalStateException("Set -Dkinesis.local=true to run a trial against an in-memory stream");
+		}
+		String processorMode = args[0];
+		int batchSize = Integer.parseInt(args[1]);
+		long warmupMillis = TimeUnit.SECONDS.toMillis(Long.parseLong(args[2]));
+		long measurementMillis = TimeUnit.SECONDS.toMillis(Long.parseLong(args[3]));
+		File resultFile = new File(args[4]);
+
+		// Consumers, started first so that they read from the beginning of the stream
+		AtomicBoolean stopped = new AtomicBoolean(false);
+		LongAdder recordsProcessed = new LongAdder();
+		LongAdder bytesProcessed = new LongAdder();
+		List<ShardPoller> pollers = new ArrayList<>();
+		List<Thread> pollerThreads = new ArrayList<>();
+		for (LocalShard shard : LocalKinesisStream.get(Config.STREAM_NAME).getShards()) {
+			ShardPoller poller = "v1".equals(processorMode)
+					? new V1ShardPoller(shard.getShardId(), batchSize, stopped, recordsProcessed, bytesProcessed)
+					: new V2ShardPoller(shard.getShardId(), batchSize, stopped, recordsProcessed, bytesProcessed);
+			pollers.add(poller);
+			Thread thread = new Thread(poller, "poller-" + shard.getShardId());
+			pollerThreads.add(thread);
+			thread.start();
+		}
+
+		// Producer
+		PipelinedPutRecordsSender sender = new PipelinedPutRecordsSender(Util.kinesisClient(), Config.STREAM_NAME,
+				Config.PRODUCER_MAX_IN_FLIGHT.get(), Config.PRODUCER_QUEUE_SIZE, new RetryPolicy(1, 0L, 0L), 0L);
+		PayloadSizeDistribution payloadSizes = PayloadSizeDistribution.parse(Config.LOAD_PAYLOAD_SIZE);
+		PartitionKeySampler partitionKeys = new PartitionKeySampler(Config.LOAD_PARTITION_KEYS, Config.LOAD_PARTITION_KEY_SKEW);
+		int threads = Math.max(1, Config.LOAD_THREADS);
+		List<Thread> generatorThreads = new ArrayList<>();
+		for (int i = 0; i < threads; i++) {
+			Thread thread = new Thread(new LoadGenerator(sender, payloadSizes, partitionKeys,
+					Config.LOAD_RATE_RECORDS_PER_SECOND.get() / threads, 0.0, Long.MAX_VALUE, stopped), "load-generator-" + i);
+			generatorThreads.add(thread);
+			thread.start();
+		}
+
+		Thread.sleep(warmupMillis);
+		Sample start = Sample.take(pollerThreads, recordsProcessed, bytesProcessed);
+		Thread.sleep(measurementMillis);
+		Sample end = Sample.take(pollerThreads, recordsProcessed, bytesProcessed);
+
+		stopped.set(true);
+		for (Thread thread : generatorThreads) {
+			thread.join();
+		}
+		for (Thread thread : pollerThreads) {
+			thread.join();
+		}
+		sender.close();
+		for (ShardPoller poller : pollers) {
+			if (poller.failure != null) {
+				throw new IllegalStateException("Failed to read shard " + poller.shardId, poller.failure);
+			}
+		}
+
+		double seconds = (end.timeInNanos - start.timeInNanos) / 1e9;
+		long millisBehindLatest = 0L;
+		for (ShardPoller poller : pollers) {
+			millisBehindLatest = Math.max(millisBehindLatest, poller.millisBehindLatest);
+		}
+		ObjectNode result = new ObjectMapper().createObjectNode();
+		result.put("recordsPerSecond", (end.recordsProcessed - start.recordsProcessed) / seconds);
+		result.put("bytesPerSecond", (end.bytesProcessed - start.bytesProcessed) / seconds);
+		result.put("processCpuCores", (end.processCpuNanos - start.processCpuNanos) / 1e9 / seconds);
+		result.put("consumerCpuCores", (end.consumerCpuNanos - start.consumerCpuNanos) / 1e9 / seconds);
+		result.put("allocationMBPerSecond", (end.allocatedBytes - start.allocatedBytes) / 1048576.0 / seconds);
+		result.put("consumerAllocationMBPerSecond", (end.consumerAllocatedBytes - start.consumerAllocatedBytes) / 1048576.0 / seconds);
+		result.put("p50LatencyMillis", end.latency.getPercentile(50.0));
+		result.put("p99LatencyMillis", end.latency.getPercentile(99.0));
+		result.put("maxLatencyMillis", end.latency.getMax());
+		result.put("millisBehindLatest", millisBehindLatest);
+		new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(resultFile, result);
+		System.out.println("Trial result: " + result);
+		// Stop the sink writers and reporters of the consumers as well.
+		System.exit(0);
+	}
+
+	// Counters of the process and the consumer threads at a point in time
+	private static class Sample {
+		private long timeInNanos;
+		private long recordsProcessed;
+		private long bytesProcessed;
+		private long processCpuNanos;
+		private long consumerCpuNanos;
+		private long allocatedBytes;
+		private long consumerAllocatedBytes;
+		// Producer-to-processor latencies of all the shards since the previous sample
+		private LatencyHistogram.Snapshot latency;
+
+		private static Sample take(List<Thread> consumerThreads, LongAdder recordsProcessed, LongAdder bytesProcessed) {
+			com.sun.management.OperatingSystemMXBean os = (com.sun.management.OperatingSystemMXBean) ManagementFactory
+					.getOperatingSystemMXBean();
+			com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+			Sample sample = new Sample();
+			sample.timeInNanos = System.nanoTime();
+			sample.recordsProcessed = recordsProcessed.sum();
+			sample.bytesProcessed = bytesProcessed.sum();
+			sample.processCpuNanos = os.getProcessCpuTime();
+			// Bytes allocated by threads which have ended are not counted, which leaves out little since the trial threads live throughout.
+			for (long allocated : threadMXBean.getThreadAllocatedBytes(threadMXBean.getAllThreadIds())) {
+				sample.allocatedBytes += Math.max(0L, allocated);
+			}
+			for (Thread thread : consumerThreads) {
+				sample.consumerCpuNanos += Math.max(0L, threadMXBean.getThreadCpuTime(thread.getId()));
+				sample.consumerAllocatedBytes += Math.max(0L, threadMXBean.getThreadAllocatedBytes(thread.getId()));
+			}
+			sample.latency = new LatencyHistogram().snapshot();
+			for (LatencyTracker.ShardLatency shardLatency : LatencyTracker.shardLatencies().values()) {
+				sample.latency = sample.latency.merge(shardLatency.getProducerToConsumer().snapshotAndReset());
+			}
+			return sample;
+		}
+	}
+
+	// Reads a shard and hands the records to a processor until stopped
+	private abstract static class ShardPoller implements Runnable {
+		protected final String shardId;
+		protected final int batchSize;
+		private final AtomicBoolean stopped;
+		private final LongAdder recordsProcessed;
+		private final LongAdder bytesProcessed;
+		private int lastCount = 0;
+		private volatile long millisBehindLatest = 0L;
+		private volatile Exception failure = null;
+
+		private ShardPoller(String shardId, int batchSize, AtomicBoolean stopped, LongAdder recordsProcessed, LongAdder bytesProcessed) {
+			this.shardId = shardId;
+			this.batchSize = batchSize;
+			this.stopped = stopped;
+			this.recordsProcessed = recordsProcessed;
+			this.bytesProcessed = bytesProcessed;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void run() {
+			String shardIterator = initialize();
+			while (!stopped.get()) {
+				try {
+					shardIterator = pollAndProcess(shardIterator);
+				} catch (Exception e) {
+					if (!isThrottling(e)) {
+						System.err.println("Failed to read shard " + shardId + ", failing the trial");
+						e.printStackTrace();
+						failure = e;
+						return;
+					}
+					// Throttled by the limits of the shard, if they are enabled
+					sleep(THROTTLE_BACKOFF_MILLIS);
+					continue;
+				}
+				if (lastCount == 0) {
+					sleep(IDLE_MILLIS);
+				}
+			}
+		}
+
+		/**
+		 * Initialize the processor and get an iterator at the beginning of the shard.
+		 * 
+		 * @return shard iterator
+		 */
+		protected abstract String initialize();
+
+		/**
+		 * Read a batch of records, process them and call processed.
+		 * 
+		 * @param shardIterator
+		 * @return next shard iterator
+		 * @throws Exception
+		 *             if the read failed
+		 */
+		protected abstract String pollAndProcess(String shardIterator) throws Exception;
+
+		protected void processed(int count, long bytes, long millisBehindLatest) {
+			recordsProcessed.add(count);
+			bytesProcessed.add(bytes);
+			this.lastCount = count;
+			this.millisBehindLatest = millisBehindLatest;
+		}
+
+		// ProvisionedThroughputExceededException of either SDK, as thrown by the local clients or the future of the asynchronous one
+		private static boolean isThrottling(Exception e) {
+			Throwable t = e instanceof ExecutionException ? e.getCause() : e;
+			return t instanceof com.amazonaws.services.kinesis.model.ProvisionedThroughputExceededException
+					|| t instanceof software.amazon.awssdk.services.kinesis.model.ProvisionedThroughputExceededException;
+		}
+
+		private static void sleep(long millis) {
+			try {
+				Thread.sleep(millis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private static class V1ShardPoller extends ShardPoller {
+		private final LocalAmazonKinesis kinesisClient = new LocalAmazonKinesis();
+		private final com.example.aws.v1.kinesis.consumer.DisplayConsumer consumer =
+				new com.example.aws.v1.kinesis.consumer.DisplayConsumer();
+		private final NoopCheckpointer checkpointer = new NoopCheckpointer();
+
+		private V1ShardPoller(String shardId, int batchSize, AtomicBoolean stopped, LongAdder recordsProcessed, LongAdder bytesProcessed) {
+			super(shardId, batchSize, stopped, recordsProcessed, bytesProcessed);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		protected String initialize() {
+			consumer.initialize(new com.amazonaws.services.kinesis.clientlibrary.types.InitializationInput().withShardId(shardId));
+			return kinesisClient.getShardIterator(new GetShardIteratorRequest().withStreamName(Config.STREAM_NAME).withShardId(shardId)
+					.withShardIteratorType("TRIM_HORIZON")).getShardIterator();
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		protected String pollAndProcess(String shardIterator) {
+			GetRecordsResult result = kinesisClient
+					.getRecords(new GetRecordsRequest().withShardIterator(shardIterator).withLimit(batchSize));
+			long bytes = 0L;
+			for (Record record : result.getRecords()) {
+				bytes += record.getData().remaining();
+			}
+			if (!result.getRecords().isEmpty()) {
+				consumer.processRecords(new com.amazonaws.services.kinesis.clientlibrary.types.ProcessRecordsInput()
+						.withRecords(result.getRecords()).withCheckpointer(checkpointer)
+						.withMillisBehindLatest(result.getMillisBehindLatest()));
+			}
+			processed(result.getRecords().size(), bytes, result.getMillisBehindLatest());
+			return result.getNextShardIterator();
+		}
+	}
+
+	private static class V2ShardPoller extends ShardPoller {
+		private final LocalKinesisAsyncClient kinesisClient = new LocalKinesisAsyncClient();
+		private final com.example.aws.v2.kinesis.consumer.DisplayConsumer consumer =
+				new com.example.aws.v2.kinesis.consumer.DisplayConsumer();
+		private final RecordProcessorCheckpointer checkpointer = NoopCheckpointer.forKcl2();
+
+		private V2ShardPoller(String shardId, int batchSize, AtomicBoolean stopped, LongAdder recordsProcessed, LongAdder bytesProcessed) {
+			super(shardId, batchSize, stopped, recordsProcessed, bytesProcessed);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		protected String initialize() {
+			consumer.initialize(InitializationInput.builder().shardId(shardId).build());
+			return kinesisClient.getShardIterator(software.amazon.awssdk.services.kinesis.model.GetShardIteratorRequest.builder()
+					.streamName(Config.STREAM_NAME).shardId(shardId).shardIteratorType(ShardIteratorType.TRIM_HORIZON).build()).join()
+					.shardIterator();
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		protected String pollAndProcess(String shardIterator) throws Exception {
+			GetRecordsResponse response = kinesisClient.getRecords(software.amazon.awssdk.services.kinesis.model.GetRecordsRequest.builder()
+					.shardIterator(shardIterator).limit(batchSize).build()).get();
+			List<KinesisClientRecord> records = new ArrayList<>(response.records().size());
+			long bytes = 0L;
+			for (software.amazon.awssdk.services.kinesis.model.Record record : response.records()) {
+				KinesisClientRecord kinesisClientRecord = KinesisClientRecord.fromRecord(record);
+				bytes += kinesisClientRecord.data().remaining();
+				records.add(kinesisClientRecord);
+			}
+			if (!records.isEmpty()) {
+				consumer.processRecords(ProcessRecordsInput.builder().records(records).checkpointer(checkpointer)
+						.millisBehindLatest(response.millisBehindLatest()).build());
+			}
+			processed(records.size(), bytes, response.millisBehindLatest());
+			return response.nextShardIterator();
+		}
+	}
+}
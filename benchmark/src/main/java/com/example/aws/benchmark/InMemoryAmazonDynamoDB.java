@@ -0,0 +1,91 @@
+package com.example.aws.benchmark;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.amazonaws.services.dynamodbv2.AbstractAmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemResult;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemResult;
+import com.amazonaws.services.dynamodbv2.model.DescribeTableResult;
+import com.amazonaws.services.dynamodbv2.model.KeySchemaElement;
+import com.amazonaws.services.dynamodbv2.model.KeyType;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutItemResult;
+import com.amazonaws.services.dynamodbv2.model.TableDescription;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
+
+/**
+ * Fake AmazonDynamoDB of a single table with a hash key, holding items in memory. Supports the calls ReplicationConsumer makes.
+ */
+public class InMemoryAmazonDynamoDB extends AbstractAmazonDynamoDB {
+
+	private final String keyAttribute;
+	private final Map<AttributeValue, Map<String, AttributeValue>> items = new ConcurrentHashMap<>();
+
+	/**
+	 * Constructor using keyAttribute field
+	 * 
+	 * @param keyAttribute
+	 *            Name of the hash key attribute
+	 */
+	public InMemoryAmazonDynamoDB(String keyAttribute) {
+		super();
+		this.keyAttribute = keyAttribute;
+	}
+
+	/**
+	 * @return number of items in the table
+	 */
+	public int size() {
+		return items.size();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public DescribeTableResult describeTable(String tableName) {
+		return new DescribeTableResult().withTable(new TableDescription().withTableName(tableName)
+				.withKeySchema(new KeySchemaElement().withAttributeName(keyAttribute).withKeyType(KeyType.HASH)));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public PutItemResult putItem(PutItemRequest request) {
+		items.put(request.getItem().get(keyAttribute), request.getItem());
+		return new PutItemResult();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public DeleteItemResult deleteItem(DeleteItemRequest request) {
+		items.remove(request.getKey().get(keyAttribute));
+		return new DeleteItemResult();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public BatchWriteItemResult batchWriteItem(BatchWriteItemRequest request) {
+		for (List<WriteRequest> writeRequests : request.getRequestItems().values()) {
+			for (WriteRequest writeRequest : writeRequests) {
+				if (writeRequest.getPutRequest() != null) {
+					items.put(writeRequest.getPutRequest().getItem().get(keyAttribute), writeRequest.getPutRequest().getItem());
+				} else {
+					items.remove(writeRequest.getDeleteRequest().getKey().get(keyAttribute));
+				}
+			}
+		}
+		return new BatchWriteItemResult().withUnprocessedItems(Collections.emptyMap());
+	}
+}
@@ -0,0 +1,126 @@
+package com.example.aws.benchmark;
+
+import java.lang.reflect.Proxy;
+
+import com.amazonaws.services.kinesis.clientlibrary.interfaces.IPreparedCheckpointer;
+import com.amazonaws.services.kinesis.clientlibrary.interfaces.IRecordProcessorCheckpointer;
+import com.amazonaws.services.kinesis.clientlibrary.types.ExtendedSequenceNumber;
+import com.amazonaws.services.kinesis.model.Record;
+
+import software.amazon.kinesis.processor.RecordProcessorCheckpointer;
+
+/**
+ * Checkpointer for the KCL 1.x processors which only counts checkpoints. Use forKcl2() for the KCL 2.x processors.
+ */
+public class NoopCheckpointer implements IRecordProcessorCheckpointer {
+
+	private long checkpoints = 0L;
+
+	/**
+	 * Create a checkpointer for the KCL 2.x processors which ignores every call.
+	 * 
+	 * @return checkpointer
+	 */
+	public static RecordProcessorCheckpointer forKcl2() {
+		return (RecordProcessorCheckpointer) Proxy.newProxyInstance(RecordProcessorCheckpointer.class.getClassLoader(),
+				new Class<?>[] { RecordProcessorCheckpointer.class }, (proxy, method, args) -> null);
+	}
+
+	/**
+	 * @return number of checkpoints
+	 */
+	public long getCheckpoints() {
+		return checkpoints;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void checkpoint() {
+		checkpoints++;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void checkpoint(Record record) {
+		checkpoints++;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void checkpoint(String sequenceNumber) {
+		checkpoints++;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void checkpoint(String sequenceNumber, long subSequenceNumber) {
+		checkpoints++;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public IPreparedCheckpointer prepareCheckpoint() {
+		return new PreparedCheckpoint(null);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public IPreparedCheckpointer prepareCheckpoint(Record record) {
+		return new PreparedCheckpoint(new ExtendedSequenceNumber(record.getSequenceNumber()));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public IPreparedCheckpointer prepareCheckpoint(String sequenceNumber) {
+		return new PreparedCheckpoint(new ExtendedSequenceNumber(sequenceNumber));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public IPreparedCheckpointer prepareCheckpoint(String sequenceNumber, long subSequenceNumber) {
+		return new PreparedCheckpoint(new ExtendedSequenceNumber(sequenceNumber, subSequenceNumber));
+	}
+
+	/**
+	 * Prepared checkpoint which only counts a checkpoint on the checkpointer when it is committed.
+	 */
+	private class PreparedCheckpoint implements IPreparedCheckpointer {
+		private final ExtendedSequenceNumber pendingCheckpoint;
+
+		private PreparedCheckpoint(ExtendedSequenceNumber pendingCheckpoint) {
+			this.pendingCheckpoint = pendingCheckpoint;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public ExtendedSequenceNumber getPendingCheckpoint() {
+			return pendingCheckpoint;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void checkpoint() {
+			checkpoints++;
+		}
+	}
+}
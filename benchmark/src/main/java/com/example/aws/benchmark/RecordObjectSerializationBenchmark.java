@@ -0,0 +1,80 @@
+package com.example.aws.benchmark;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.example.aws.util.RecordObject;
+import com.example.aws.util.RecordObjectSerializer;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Cost of building the payload of a record in the producers, which stamp the time field and serialize RecordObject to JSON bytes. The
+ * writeValueAsStringGetBytes and formatInstantNow benchmarks keep the path the producers used before RecordObjectSerializer and the shared
+ * formatter of RecordObject, as the baseline to compare them with.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RecordObjectSerializationBenchmark {
+
+	private final ObjectMapper mapper = new ObjectMapper();
+	private final RecordObjectSerializer serializer = new RecordObjectSerializer();
+	private final DateTimeFormatter dtf = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSxxxxx").withZone(ZoneId.of("UTC"));
+	private RecordObject recordObject;
+
+	@Setup
+	public void setUp() {
+		recordObject = new RecordObject("partitionKey-0");
+	}
+
+	@Benchmark
+	public String setTimestampToNow() {
+		return recordObject.setTimestampToNow();
+	}
+
+	// Baseline of setTimestampToNow: format Instant.now() for every record
+	@Benchmark
+	public String formatInstantNow() {
+		return dtf.format(Instant.now());
+	}
+
+	// Baseline of serialize: mapper.writeValueAsString(recordObject).getBytes()
+	@Benchmark
+	public byte[] writeValueAsStringGetBytes() throws JsonProcessingException {
+		recordObject.incrementRecordCount();
+		recordObject.setTimestampToNow();
+		return mapper.writeValueAsString(recordObject).getBytes();
+	}
+
+	@Benchmark
+	public byte[] writeValueAsBytes() throws JsonProcessingException {
+		recordObject.incrementRecordCount();
+		recordObject.setTimestampToNow();
+		return mapper.writeValueAsBytes(recordObject);
+	}
+
+	// Same as the producers: precompiled ObjectWriter into a reusable buffer
+	@Benchmark
+	public byte[] serialize() throws JsonProcessingException {
+		recordObject.incrementRecordCount();
+		recordObject.setTimestampToNow();
+		return serializer.serialize(recordObject);
+	}
+}
@@ -0,0 +1,72 @@
+package com.example.aws.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.amazonaws.services.kinesis.clientlibrary.lib.worker.ShutdownReason;
+import com.amazonaws.services.kinesis.model.Record;
+import com.example.aws.v1.dynamodb.streams.consumer.ReplicationConsumer;
+
+/**
+ * Throughput of the KCL 1.x ReplicationConsumer writing a batch of DynamoDB Streams records to an in-memory table, for each replication
+ * mode. Since the table has no latency, this measures the overhead of the consumer itself.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Doutput.sink=discard", "-Dlatency.report.interval.millis=0" })
+public class ReplicationConsumerBenchmark {
+
+	private static final String KEY_ATTRIBUTE = "id";
+
+	@Param({ "single", "batch", "parallel" })
+	public String replicationMode;
+
+	@Param({ "100", "1000" })
+	public int recordCount;
+
+	@Param({ "512" })
+	public int payloadSize;
+
+	// Number of distinct items the records write to
+	@Param({ "50" })
+	public int keyCardinality;
+
+	private ReplicationConsumer consumer;
+	private List<Record> records;
+	private NoopCheckpointer checkpointer;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		consumer = new ReplicationConsumer(new InMemoryAmazonDynamoDB(KEY_ATTRIBUTE), "benchmark-table", replicationMode, 8);
+		consumer.initialize("shardId-000000000000");
+		records = SyntheticRecords.dynamoDBRecords(recordCount, payloadSize, keyCardinality, KEY_ATTRIBUTE);
+		checkpointer = new NoopCheckpointer();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		consumer.shutdown(checkpointer, ShutdownReason.ZOMBIE);
+	}
+
+	@Benchmark
+	public void processRecords() {
+		consumer.processRecords(records, checkpointer);
+	}
+}
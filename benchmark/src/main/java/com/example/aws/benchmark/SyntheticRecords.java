@@ -0,0 +1,114 @@
+package com.example.aws.benchmark;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.OperationType;
+import com.amazonaws.services.dynamodbv2.model.StreamRecord;
+import com.amazonaws.services.dynamodbv2.streamsadapter.model.RecordAdapter;
+import com.amazonaws.services.kinesis.model.Record;
+import com.example.aws.util.TimestampParser;
+
+import software.amazon.kinesis.retrieval.KinesisClientRecord;
+
+/**
+ * Synthetic record batches shaped like the output of the sample producers, with configurable payload size and count.
+ */
+public class SyntheticRecords {
+
+	// Name of the time field in RecordObject, passed to the consumers as time.field.name
+	public static final String TIME_FIELD_NAME = "timestampString";
+
+	private static final DateTimeFormatter DTF = DateTimeFormatter.ofPattern(TimestampParser.DEFAULT_FORMAT).withZone(ZoneId.of("UTC"));
+
+	/**
+	 * Build a JSON payload of RecordObject fields padded to about payloadSize bytes.
+	 * 
+	 * @param index
+	 *            Index of the record, used as partition key and record count
+	 * @param payloadSize
+	 *            Approximate size of the payload in bytes
+	 * @return UTF-8 payload
+	 */
+	public static byte[] payload(int index, int payloadSize) {
+		StringBuilder json = new StringBuilder(payloadSize + 64);
+		json.append("{\"partitionKey\":\"").append(index).append("\",\"recordCount\":").append(index).append(",\"")
+				.append(TIME_FIELD_NAME).append("\":\"").append(DTF.format(Instant.now())).append("\",\"padding\":\"");
+		while (json.length() < payloadSize - 2) {
+			json.append('x');
+		}
+		json.append("\"}");
+		return json.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @param count
+	 * @param payloadSize
+	 * @return records for the KCL 1.x processors
+	 */
+	public static List<Record> v1Records(int count, int payloadSize) {
+		List<Record> records = new ArrayList<>(count);
+		Date arrival = new Date();
+		for (int i = 0; i < count; i++) {
+			records.add(new Record().withData(ByteBuffer.wrap(payload(i, payloadSize))).withPartitionKey(String.valueOf(i))
+					.withSequenceNumber(sequenceNumber(i)).withApproximateArrivalTimestamp(arrival));
+		}
+		return records;
+	}
+
+	/**
+	 * @param count
+	 * @param payloadSize
+	 * @return records for the KCL 2.x processors
+	 */
+	public static List<KinesisClientRecord> v2Records(int count, int payloadSize) {
+		List<KinesisClientRecord> records = new ArrayList<>(count);
+		Instant arrival = Instant.now();
+		for (int i = 0; i < count; i++) {
+			records.add(KinesisClientRecord.builder().data(ByteBuffer.wrap(payload(i, payloadSize)).asReadOnlyBuffer())
+					.partitionKey(String.valueOf(i)).sequenceNumber(sequenceNumber(i)).approximateArrivalTimestamp(arrival).build());
+		}
+		return records;
+	}
+
+	/**
+	 * Build DynamoDB Streams INSERT records wrapped for the KCL 1.x processors.
+	 * 
+	 * @param count
+	 * @param payloadSize
+	 *            Approximate size of the item in bytes
+	 * @param keyCardinality
+	 *            Number of distinct items the records write to
+	 * @param keyAttribute
+	 *            Name of the hash key attribute
+	 * @return records for ReplicationConsumer
+	 */
+	public static List<Record> dynamoDBRecords(int count, int payloadSize, int keyCardinality, String keyAttribute) {
+		List<Record> records = new ArrayList<>(count);
+		Date creation = new Date();
+		for (int i = 0; i < count; i++) {
+			Map<String, AttributeValue> keys = new HashMap<>();
+			keys.put(keyAttribute, new AttributeValue().withN(String.valueOf(i % keyCardinality)));
+			Map<String, AttributeValue> newImage = new HashMap<>(keys);
+			newImage.put("payload", new AttributeValue().withS(new String(payload(i, payloadSize), StandardCharsets.UTF_8)));
+			StreamRecord streamRecord = new StreamRecord().withKeys(keys).withNewImage(newImage).withSequenceNumber(sequenceNumber(i))
+					.withApproximateCreationDateTime(creation).withSizeBytes((long) payloadSize);
+			records.add(new RecordAdapter(new com.amazonaws.services.dynamodbv2.model.Record().withEventName(OperationType.INSERT)
+					.withDynamodb(streamRecord)));
+		}
+		return records;
+	}
+
+	private static String sequenceNumber(int index) {
+		return String.format("%056d", index);
+	}
+}
@@ -0,0 +1,114 @@
+package com.example.aws.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.ToLongFunction;
+
+/**
+ * Pack entries into batches up to the limits of a batch call, e.g. 500 records and 5 MiB for PutRecords or 500 records and 4 MiB for
+ * PutRecordBatch. A batch is ready when the next entry does not fit in it, or when lingerMillis has passed since its first entry, so that
+ * high rates produce full requests while low rates still meet a latency bound. An instance is not thread safe.
+ * 
+ * @param <E>
+ *            Type of the entries, e.g. PutRecordsRequestEntry
+ */
+public class BatchBuilder<E> {
+
+	private final int maxRecords;
+	private final long maxBytes;
+	private final long lingerMillis;
+	private final ToLongFunction<E> sizeOf;
+
+	// Full batches waiting to be sent, and the batch being filled
+	private final Deque<List<E>> ready = new ArrayDeque<>();
+	private List<E> batch = new ArrayList<>();
+	private long batchBytes = 0L;
+	private long batchStartTimeInMillis = 0L;
+
+	/**
+	 * Constructor using maxRecords, maxBytes, lingerMillis and sizeOf fields
+	 * 
+	 * @param maxRecords
+	 *            Maximum number of entries of a batch
+	 * @param maxBytes
+	 *            Maximum total size of the entries of a batch
+	 * @param lingerMillis
+	 *            Milliseconds to wait for more entries after the first entry of a batch
+	 * @param sizeOf
+	 *            Size of an entry counted toward maxBytes
+	 */
+	public BatchBuilder(int maxRecords, long maxBytes, long lingerMillis, ToLongFunction<E> sizeOf) {
+		super();
+		this.maxRecords = Math.max(1, maxRecords);
+		this.maxBytes = maxBytes;
+		this.lingerMillis = Math.max(0L, lingerMillis);
+		this.sizeOf = sizeOf;
+	}
+
+	/**
+	 * Add an entry, closing the current batch first if the entry does not fit in it. An entry larger than maxBytes gets a batch of its own,
+	 * so that the service reports the error for it.
+	 * 
+	 * @param entry
+	 */
+	public void add(E entry) {
+		long bytes = sizeOf.applyAsLong(entry);
+		if (!batch.isEmpty() && (batch.size() >= maxRecords || batchBytes + bytes > maxBytes)) {
+			flush();
+		}
+		if (batch.isEmpty()) {
+			batchStartTimeInMillis = System.currentTimeMillis();
+		}
+		batch.add(entry);
+		batchBytes += bytes;
+		if (batch.size() >= maxRecords || batchBytes >= maxBytes) {
+			flush();
+		}
+	}
+
+	/**
+	 * Close the current batch so that it is ready to be sent without waiting for the linger time, e.g. before shutdown.
+	 */
+	public void flush() {
+		if (batch.isEmpty()) {
+			return;
+		}
+		ready.addLast(batch);
+		batch = new ArrayList<>();
+		batchBytes = 0L;
+	}
+
+	/**
+	 * Take the next batch which is ready to be sent.
+	 * 
+	 * @return full batch, the current batch if its linger time has passed, or null if no batch is ready
+	 */
+	public List<E> poll() {
+		if (ready.isEmpty() && !batch.isEmpty() && millisUntilReady() == 0L) {
+			flush();
+		}
+		return ready.pollFirst();
+	}
+
+	/**
+	 * @return milliseconds until a batch is ready, or Long.MAX_VALUE if there are no entries
+	 */
+	public long millisUntilReady() {
+		if (!ready.isEmpty()) {
+			return 0L;
+		}
+		if (batch.isEmpty()) {
+			return Long.MAX_VALUE;
+		}
+		return Math.max(0L, batchStartTimeInMillis + lingerMillis - System.currentTimeMillis());
+	}
+
+	/**
+	 * @return true if there are no entries to send
+	 */
+	public boolean isEmpty() {
+		return ready.isEmpty() && batch.isEmpty();
+	}
+}
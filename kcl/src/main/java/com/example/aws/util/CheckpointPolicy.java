@@ -0,0 +1,251 @@
+package com.example.aws.util;
+
+import java.util.function.LongSupplier;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.amazonaws.services.kinesis.clientlibrary.exceptions.ShutdownException;
+import com.amazonaws.services.kinesis.clientlibrary.exceptions.ThrottlingException;
+
+/**
+ * Decide when a record processor checkpoints. A checkpoint is due when whichever comes first of a number of records, a number of bytes or
+ * an interval has passed since the last checkpoint. When the lease table throttles a checkpoint, further attempts are deferred with
+ * exponential backoff while progress keeps accumulating, so that one later checkpoint covers all of it instead of blocking the processor
+ * with retries. The triggers are read on every check, so that a policy from fromConfig() follows changes of the tunables. An instance is
+ * not thread safe, so use one for each record processor.
+ */
+public class CheckpointPolicy {
+
+	private static final Log LOG = LogFactory.getLog(CheckpointPolicy.class);
+
+	// Backoff of checkpoint attempts after the lease table throttled
+	private static final long THROTTLE_BACKOFF_BASE_MILLIS = 1000L;
+	private static final long THROTTLE_BACKOFF_MAX_MILLIS = 60000L;
+
+	private final LongSupplier maxRecords;
+	private final LongSupplier maxBytes;
+	private final LongSupplier intervalMillis;
+
+	// Progress since the last checkpoint
+	private String sequenceNumber = null;
+	private long subSequenceNumber = 0L;
+	private String checkpointedSequenceNumber = null;
+	private long pendingRecords = 0L;
+	private long pendingBytes = 0L;
+	private long lastCheckpointTimeInMillis;
+
+	// Throttling state
+	private int consecutiveThrottles = 0;
+	private long deferredUntilMillis = 0L;
+
+	/**
+	 * Constructor using maxRecords, maxBytes and intervalMillis fields. A value of 0 or less disables the trigger.
+	 * 
+	 * @param maxRecords
+	 *            Number of records processed since the last checkpoint which makes a checkpoint due
+	 * @param maxBytes
+	 *            Number of payload bytes processed since the last checkpoint which makes a checkpoint due
+	 * @param intervalMillis
+	 *            Milliseconds since the last checkpoint which make a checkpoint due
+	 */
+	public CheckpointPolicy(long maxRecords, long maxBytes, long intervalMillis) {
+		this(() -> maxRecords, () -> maxBytes, () -> intervalMillis);
+	}
+
+	/**
+	 * Constructor using maxRecords, maxBytes and intervalMillis fields, whose current values are read on every check.
+	 * 
+	 * @param maxRecords
+	 *            Number of records processed since the last checkpoint which makes a checkpoint due
+	 * @param maxBytes
+	 *            Number of payload bytes processed since the last checkpoint which makes a checkpoint due
+	 * @param intervalMillis
+	 *            Milliseconds since the last checkpoint which make a checkpoint due
+	 */
+	public CheckpointPolicy(LongSupplier maxRecords, LongSupplier maxBytes, LongSupplier intervalMillis) {
+		super();
+		this.maxRecords = maxRecords;
+		this.maxBytes = maxBytes;
+		this.intervalMillis = intervalMillis;
+		this.lastCheckpointTimeInMillis = System.currentTimeMillis();
+	}
+
+	/**
+	 * Create a policy from checkpoint.max.records, checkpoint.max.bytes and checkpoint.interval.millis.
+	 * 
+	 * @return checkpoint policy
+	 */
+	public static CheckpointPolicy fromConfig() {
+		return new CheckpointPolicy(Config.CHECKPOINT_MAX_RECORDS::get, Config.CHECKPOINT_MAX_BYTES::get,
+				Config.CHECKPOINT_INTERVAL_MILLIS::get);
+	}
+
+	/**
+	 * Record that a record has been processed, so that the next checkpoint may advance to it.
+	 * 
+	 * @param sequenceNumber
+	 *            Sequence number of the record
+	 * @param bytes
+	 *            Payload size of the record
+	 */
+	public void recordProcessed(String sequenceNumber, long bytes) {
+		recordProcessed(sequenceNumber, 0L, bytes);
+	}
+
+	/**
+	 * Record that a user record of an aggregated record has been processed, so that the next checkpoint may advance to it.
+	 * 
+	 * @param sequenceNumber
+	 *            Sequence number of the aggregated record
+	 * @param subSequenceNumber
+	 *            Position of the user record in the aggregated record, or 0 if the record is not aggregated
+	 * @param bytes
+	 *            Payload size of the user record
+	 */
+	public void recordProcessed(String sequenceNumber, long subSequenceNumber, long bytes) {
+		this.sequenceNumber = sequenceNumber;
+		this.subSequenceNumber = subSequenceNumber;
+		pendingRecords++;
+		pendingBytes += bytes;
+	}
+
+	/**
+	 * @return true if there is progress to checkpoint, a trigger has been reached and attempts are not deferred by throttling
+	 */
+	public boolean shouldCheckpoint() {
+		if (pendingRecords == 0L) {
+			return false;
+		}
+		long now = System.currentTimeMillis();
+		if (now < deferredUntilMillis) {
+			return false;
+		}
+		long currentMaxRecords = maxRecords.getAsLong();
+		long currentMaxBytes = maxBytes.getAsLong();
+		long currentIntervalMillis = intervalMillis.getAsLong();
+		return (currentMaxRecords > 0 && pendingRecords >= currentMaxRecords) || (currentMaxBytes > 0 && pendingBytes >= currentMaxBytes)
+				|| (currentIntervalMillis > 0 && now - lastCheckpointTimeInMillis >= currentIntervalMillis);
+	}
+
+	/**
+	 * Checkpoint at the last processed record if it is due. When the lease table throttles, the checkpoint is deferred rather than retried,
+	 * so that processing goes on and a later checkpoint covers the progress. Failures are logged rather than thrown.
+	 * 
+	 * @param shardId
+	 *            Shard of the record processor, for logging
+	 * @param checkpointer
+	 *            Saves the checkpoint, e.g. the checkpoint method of the checkpointer of the KCL 1.x or 2.x
+	 */
+	public void checkpointIfDue(String shardId, Checkpointer checkpointer) {
+		if (!shouldCheckpoint()) {
+			return;
+		}
+		LOG.info("Checkpointing shard " + shardId + " after " + pendingRecords + " records");
+		try {
+			checkpointer.checkpoint(sequenceNumber, subSequenceNumber);
+			checkpointed();
+		} catch (ThrottlingException | software.amazon.kinesis.exceptions.ThrottlingException e) {
+			long backoff = throttled();
+			LOG.info("Checkpoint throttled, deferring for " + backoff + " milliseconds. Shard " + shardId + " would replay "
+					+ describeReplay(), e);
+		} catch (ShutdownException | software.amazon.kinesis.exceptions.ShutdownException e) {
+			// Ignore checkpoint if the processor instance has been shutdown (fail over).
+			LOG.info("Caught shutdown exception, skipping checkpoint.", e);
+		} catch (Exception e) {
+			// InvalidStateException indicates an issue with the DynamoDB table (check for table, provisioned IOPS).
+			LOG.error("Cannot save checkpoint to the DynamoDB table used by the Amazon Kinesis Client Library.", e);
+		}
+	}
+
+	/**
+	 * Record that the checkpoint has been saved at the last processed record.
+	 */
+	public void checkpointed() {
+		checkpointedSequenceNumber = sequenceNumber;
+		pendingRecords = 0L;
+		pendingBytes = 0L;
+		lastCheckpointTimeInMillis = System.currentTimeMillis();
+		consecutiveThrottles = 0;
+		deferredUntilMillis = 0L;
+	}
+
+	/**
+	 * Record that the lease table throttled the checkpoint, and defer the next attempt.
+	 * 
+	 * @return milliseconds until the next attempt
+	 */
+	public long throttled() {
+		consecutiveThrottles++;
+		long backoff = Math.min(THROTTLE_BACKOFF_BASE_MILLIS << Math.min(consecutiveThrottles - 1, 16), THROTTLE_BACKOFF_MAX_MILLIS);
+		deferredUntilMillis = System.currentTimeMillis() + backoff;
+		return backoff;
+	}
+
+	/**
+	 * @return sequence number of the last processed record, or null if no record has been processed
+	 */
+	public String getSequenceNumber() {
+		return sequenceNumber;
+	}
+
+	/**
+	 * @return sub-sequence number of the last processed record, which is 0 unless the record is a user record of an aggregated record
+	 */
+	public long getSubSequenceNumber() {
+		return subSequenceNumber;
+	}
+
+	/**
+	 * @return sequence number of the last checkpoint saved by this processor, or null if it has not checkpointed
+	 */
+	public String getCheckpointedSequenceNumber() {
+		return checkpointedSequenceNumber;
+	}
+
+	/**
+	 * @return number of records which would be replayed if the processor restarted now
+	 */
+	public long getPendingRecords() {
+		return pendingRecords;
+	}
+
+	/**
+	 * @return number of payload bytes which would be replayed if the processor restarted now
+	 */
+	public long getPendingBytes() {
+		return pendingBytes;
+	}
+
+	/**
+	 * @return milliseconds since the last checkpoint
+	 */
+	public long getMillisSinceCheckpoint() {
+		return System.currentTimeMillis() - lastCheckpointTimeInMillis;
+	}
+
+	/**
+	 * @return description of the replay a restart would cause, for logging
+	 */
+	public String describeReplay() {
+		return pendingRecords + " records (" + pendingBytes + " bytes) processed over " + getMillisSinceCheckpoint()
+				+ " milliseconds after checkpoint " + (checkpointedSequenceNumber == null ? "at initial position" : checkpointedSequenceNumber);
+	}
+
+	/**
+	 * Saves a checkpoint at a position of the shard.
+	 */
+	@FunctionalInterface
+	public interface Checkpointer {
+
+		/**
+		 * Save a checkpoint.
+		 * 
+		 * @param sequenceNumber
+		 * @param subSequenceNumber
+		 * @throws Exception
+		 *             the checkpoint exceptions of the KCL
+		 */
+		void checkpoint(String sequenceNumber, long subSequenceNumber) throws Exception;
+	}
+}
@@ -1,24 +1,159 @@
 package com.example.aws.util;
 
+import com.example.aws.util.config.ConfigSource;
+import com.example.aws.util.config.Tunable;
+
+/**
+ * Settings of the producers and consumers, looked up by ConfigSource from system properties, environment variables and the config file.
+ * Plain values are fixed at startup. Tunable values are the performance knobs, which are reloaded when the config file changes and are
+ * applied without restarting the Worker or Scheduler.
+ */
 public class Config {
 
 	// Common Configuration
-	public static final String REGION = System.getProperty("region", "ap-northeast-1");
+	public static final String REGION = ConfigSource.get("region", "ap-northeast-1");
 
 	// Amazon Kinesis Data Streams Configuration
-	public static final String STREAM_NAME = System.getProperty("stream.name", "tokyo-stream-1");
-	public static final String KCL_APPLICATION_NAME = System.getProperty("kcl.app.name", STREAM_NAME + "-display-consumer-application");
+	public static final String STREAM_NAME = ConfigSource.get("stream.name", "tokyo-stream-1");
+	public static final String KCL_APPLICATION_NAME = ConfigSource.get("kcl.app.name", STREAM_NAME + "-display-consumer-application");
+
+	// Local Kinesis Configuration
+	// Run the producers and consumers against an in-memory stream of this JVM instead of Kinesis Data Streams
+	public static final boolean KINESIS_LOCAL = Boolean.parseBoolean(ConfigSource.get("kinesis.local", "false"));
+	public static final int KINESIS_LOCAL_SHARDS = Integer.parseInt(ConfigSource.get("kinesis.local.shards", "4"));
+	// Records kept in each local shard, and whether each local shard enforces the read and write limits of a real shard
+	public static final int KINESIS_LOCAL_RETENTION_RECORDS = Integer
+			.parseInt(ConfigSource.get("kinesis.local.retention.records", "10000"));
+	public static final boolean KINESIS_LOCAL_LIMITS_ENABLED = Boolean
+			.parseBoolean(ConfigSource.get("kinesis.local.limits.enabled", "true"));
+	// Endpoint of DynamoDB Local for the lease tables of the KCL, e.g. http://localhost:8000, or empty for DynamoDB
+	public static final String DYNAMODB_ENDPOINT = ConfigSource.get("dynamodb.endpoint", "");
 
 	// Amazon Kinesis Data Firehose Configuration
-	public static final String DELIVERY_STREAM_NAME = System.getProperty("delivery.stream.name", "tokyo-stream-1");
+	public static final String DELIVERY_STREAM_NAME = ConfigSource.get("delivery.stream.name", "tokyo-stream-1");
 
 	// Amazon DynamoDB Streams Configuration
-	public static final String SRC_TABLE_NAME = System.getProperty("src.table.name", "access-log");
-	public static final String DEST_TABLE_NAME = System.getProperty("dest.table.name", "access-log-replica");
-	public static final String DDB_APPLICATION_NAME = System.getProperty("kcl.app.name", SRC_TABLE_NAME + "-dynamodbstreams-replication-consumer-application");
+	public static final String SRC_TABLE_NAME = ConfigSource.get("src.table.name", "access-log");
+	public static final String DEST_TABLE_NAME = ConfigSource.get("dest.table.name", "access-log-replica");
+	public static final String DDB_APPLICATION_NAME = ConfigSource.get("kcl.app.name", SRC_TABLE_NAME + "-dynamodbstreams-replication-consumer-application");
+	// Replication mode: "single" (PutItem/DeleteItem per record), "batch" (BatchWriteItem per up to 25 records)
+	// or "parallel" (records hashed by key onto REPLICATION_LANES ordered lanes)
+	public static final String REPLICATION_MODE = ConfigSource.get("replication.mode", "single");
+	public static final int REPLICATION_LANES = Integer.parseInt(ConfigSource.get("replication.lanes", "8"));
+	// Kinesis data stream which the source table streams its changes to, and maximum writes in flight per shard (KCL 2.x)
+	public static final String SRC_STREAM_NAME = ConfigSource.get("src.stream.name", SRC_TABLE_NAME + "-stream");
+	public static final Tunable<Integer> REPLICATION_MAX_IN_FLIGHT = Tunable.ofInt("replication.max.in.flight", 64, 1, 10000);
+
+	// Checkpoint Configuration
+	// Checkpoint when whichever comes first of these records, payload bytes or milliseconds since the last checkpoint
+	// has been reached, or 0 to disable each trigger
+	public static final Tunable<Long> CHECKPOINT_MAX_RECORDS = Tunable.ofLong("checkpoint.max.records", 10000L, 0L, Long.MAX_VALUE);
+	public static final Tunable<Long> CHECKPOINT_MAX_BYTES = Tunable.ofLong("checkpoint.max.bytes", 16777216L, 0L, Long.MAX_VALUE);
+	public static final Tunable<Long> CHECKPOINT_INTERVAL_MILLIS = Tunable.ofLong("checkpoint.interval.millis", 60000L, 0L, Long.MAX_VALUE);
+
+	// Retry Configuration
+	// Attempts to process a record, with backoff chosen at random up to retry.base.millis doubled on each attempt
+	// and capped at retry.max.millis
+	public static final Tunable<Integer> RETRY_MAX_ATTEMPTS = Tunable.ofInt("retry.max.attempts", 10, 1, 1000);
+	public static final Tunable<Long> RETRY_BASE_MILLIS = Tunable.ofLong("retry.base.millis", 100L, 1L, 3600000L);
+	public static final Tunable<Long> RETRY_MAX_MILLIS = Tunable.ofLong("retry.max.millis", 5000L, 1L, 3600000L)
+			.atLeast(RETRY_BASE_MILLIS);
+	// Time which the retries of a batch of records may take on the processing thread before the records left to retry are set aside
+	// to the dead-letter log, so that one poison record cannot stall its shard, or 0 for no limit
+	public static final Tunable<Long> RETRY_BATCH_BUDGET_MILLIS = Tunable.ofLong("retry.batch.budget.millis", 5000L, 0L, 3600000L);
+	// Append-only file of records which failed permanently or exhausted their retries
+	public static final String DEAD_LETTER_FILE_PATH = ConfigSource.get("dead.letter.file.path", "dead-letter.log");
 
 	// Producer Configuration
-	public static final long RECORD_INTERVAL_MILLIS = Long.parseLong(System.getProperty("record.interval.millis", "1000"));
-	public static final int RECORD_COUNT = Integer.parseInt(System.getProperty("record.count", "3"));
+	public static final Tunable<Long> RECORD_INTERVAL_MILLIS = Tunable.ofLong("record.interval.millis", 1000L, 0L, 3600000L);
+	public static final int RECORD_COUNT = Integer.parseInt(ConfigSource.get("record.count", "3"));
+	// Producer mode of the KCL 2.x producers: "simple" (one PutRecords request at a time) or "pipelined" (requests kept in flight)
+	public static final String PRODUCER_MODE = ConfigSource.get("producer.mode", "simple");
+	public static final Tunable<Integer> PRODUCER_MAX_IN_FLIGHT = Tunable.ofInt("producer.max.in.flight", 16, 1, 10000);
+	public static final int PRODUCER_QUEUE_SIZE = Integer.parseInt(ConfigSource.get("producer.queue.size", "10000"));
+	public static final long PRODUCER_REPORT_INTERVAL_MILLIS = Long.parseLong(ConfigSource.get("producer.report.interval.millis", "10000"));
+	// Pack records for the same shard into KPL aggregated records of up to these bytes and records (KCL 2.x producers)
+	public static final boolean AGGREGATION_ENABLED = Boolean.parseBoolean(ConfigSource.get("aggregation.enabled", "false"));
+	public static final int AGGREGATION_MAX_BYTES = Integer.parseInt(ConfigSource.get("aggregation.max.bytes", "51200"));
+	public static final int AGGREGATION_MAX_RECORDS = Integer.parseInt(ConfigSource.get("aggregation.max.records", "1000"));
+	// Milliseconds to wait for more records before sending a request which is not full
+	public static final long PRODUCER_LINGER_MILLIS = Long.parseLong(ConfigSource.get("producer.linger.millis", "100"));
+	// Resubmit only the failed records of PutRecords and PutRecordBatch, at most one record of each partition key in a call if
+	// producer.retry.keep.order is true so that a retried record is never overtaken. Attempts and backoff follow retry.*.
+	public static final boolean PRODUCER_RETRY_KEEP_ORDER = Boolean.parseBoolean(ConfigSource.get("producer.retry.keep.order", "false"));
+	// Records waiting to be sent or resubmitted, beyond which new records are dropped while the stream keeps failing
+	public static final int PRODUCER_RETRY_QUEUE_SIZE = Integer.parseInt(ConfigSource.get("producer.retry.queue.size", "10000"));
+	// Records and bytes per second put to each shard by the explicit hash key producers, or 0 to disable each limit
+	public static final Tunable<Long> PRODUCER_SHARD_RECORDS_PER_SECOND = Tunable
+			.ofLong("producer.shard.records.per.second", 1000L, 0L, Long.MAX_VALUE);
+	public static final Tunable<Long> PRODUCER_SHARD_BYTES_PER_SECOND = Tunable
+			.ofLong("producer.shard.bytes.per.second", 1048576L, 0L, Long.MAX_VALUE);
+	// Interval to refresh the open shards from ListShards, which is also done as soon as writes fail
+	public static final long PRODUCER_SHARD_MAP_REFRESH_MILLIS = Long
+			.parseLong(ConfigSource.get("producer.shard.map.refresh.millis", "60000"));
+
+	// Load Generator Configuration
+	// Target rate in records/s and MB/s, whichever is reached first, or 0 for no limit
+	public static final Tunable<Double> LOAD_RATE_RECORDS_PER_SECOND = Tunable
+			.ofDouble("load.rate.records.per.second", 1000.0, 0.0, Double.MAX_VALUE);
+	public static final Tunable<Double> LOAD_RATE_MB_PER_SECOND = Tunable.ofDouble("load.rate.mb.per.second", 0.0, 0.0, Double.MAX_VALUE);
+	// Payload sizes: "fixed:SIZE", "uniform:MIN-MAX", "normal:MEAN,STDDEV" or "exponential:MEAN" in bytes
+	public static final String LOAD_PAYLOAD_SIZE = ConfigSource.get("load.payload.size", "fixed:1024");
+	// Number of distinct partition keys, and Zipf exponent of their popularity (0 for uniform, around 1 for hot keys)
+	public static final int LOAD_PARTITION_KEYS = Integer.parseInt(ConfigSource.get("load.partition.keys", "1000"));
+	public static final double LOAD_PARTITION_KEY_SKEW = Double.parseDouble(ConfigSource.get("load.partition.key.skew", "0"));
+	public static final int LOAD_THREADS = Integer.parseInt(ConfigSource.get("load.threads", "4"));
+	// Seconds to generate load, or 0 to run until stopped
+	public static final long LOAD_DURATION_SECONDS = Long.parseLong(ConfigSource.get("load.duration.seconds", "0"));
+
+	// Payload Codec Configuration
+	// Codec which the producers compress payloads with: "none" or "gzip". Consumers accept payloads of any codec and uncompressed ones.
+	public static final String PAYLOAD_CODEC = ConfigSource.get("payload.codec", "none");
+	// Smallest payload to compress
+	public static final int PAYLOAD_CODEC_MIN_BYTES = Integer.parseInt(ConfigSource.get("payload.codec.min.bytes", "256"));
+
+	// Output Configuration
+	// Sink of consumer output: "stdout", "file" (rolling file) or "discard"
+	public static final String OUTPUT_SINK = ConfigSource.get("output.sink", "stdout");
+	public static final Tunable<Integer> OUTPUT_SINK_QUEUE_SIZE = Tunable.ofInt("output.sink.queue.size", 10000, 1, Integer.MAX_VALUE);
+	public static final String OUTPUT_SINK_FILE_PATH = ConfigSource.get("output.sink.file.path", "consumer-output.log");
+	public static final long OUTPUT_SINK_FILE_MAX_BYTES = Long.parseLong(ConfigSource.get("output.sink.file.max.bytes", "104857600"));
+	// Read the creation time of each record from its JSON field time.field.name, formatted as time.field.format, to report end-to-end
+	// latency. The producers stamp records in the same format.
+	public static final boolean IF_TIME_FIELD_ENABLED = Boolean.parseBoolean(ConfigSource.get("if.time.field.enabled", "false"));
+	public static final String TIME_FIELD_NAME = ConfigSource.get("time.field.name", "time");
+	public static final String TIME_FIELD_FORMAT = ConfigSource.get("time.field.format", "yyyy-MM-dd'T'HH:mm:ss.SSSxxxxx");
+	// Interval to report per-shard latency percentiles, or 0 to disable reporting
+	public static final long LATENCY_REPORT_INTERVAL_MILLIS = Long.parseLong(ConfigSource.get("latency.report.interval.millis", "60000"));
+
+	// Lag Configuration
+	// Raise a lag event when a shard or the whole worker falls more than lag.alert.threshold.millis behind the tip of the stream, and
+	// clear it when the lag is back under lag.alert.clear.millis, or 0 to disable the events
+	public static final long LAG_ALERT_THRESHOLD_MILLIS = Long.parseLong(ConfigSource.get("lag.alert.threshold.millis", "60000"));
+	public static final long LAG_ALERT_CLEAR_MILLIS = atMost("lag.alert.clear.millis",
+			Long.parseLong(ConfigSource.get("lag.alert.clear.millis", String.valueOf(LAG_ALERT_THRESHOLD_MILLIS / 2))),
+			"lag.alert.threshold.millis", LAG_ALERT_THRESHOLD_MILLIS);
+	// Interval to report per-shard and worker-wide lag and its trend, or 0 to disable reporting
+	public static final long LAG_REPORT_INTERVAL_MILLIS = Long.parseLong(ConfigSource.get("lag.report.interval.millis", "60000"));
+
+	// Metrics Configuration
+	// Metrics factory of the consumers: "local" (aggregated in this JVM and exposed via JMX and the scrape endpoint),
+	// "cloudwatch" or "none"
+	public static final String METRICS_FACTORY = ConfigSource.get("metrics.factory", "local");
+	// Port of the plain-text scrape endpoint of the local metrics at /metrics, or 0 to disable it
+	public static final int METRICS_HTTP_PORT = Integer.parseInt(ConfigSource.get("metrics.http.port", "0"));
+	// Address which the scrape endpoint binds to, loopback by default. Set e.g. 0.0.0.0 to let other hosts scrape the metrics.
+	public static final String METRICS_HTTP_HOST = ConfigSource.get("metrics.http.host", "127.0.0.1");
+	// Names of the local metrics to also publish to CloudWatch, separated by commas, e.g. "MillisBehindLatest,RecordsProcessed"
+	public static final String METRICS_CLOUDWATCH_FORWARD = ConfigSource.get("metrics.cloudwatch.forward", "");
+	// Most metrics kept by name and dimensions, beyond which values of new metrics are dropped
+	public static final int METRICS_MAX_SERIES = Integer.parseInt(ConfigSource.get("metrics.max.series", "10000"));
 
+	// Fail at startup if a setting is above the setting which bounds it, unless the bound is 0 to disable the feature
+	private static long atMost(String key, long value, String boundKey, long bound) {
+		if (bound > 0L && value > bound) {
+			throw new IllegalArgumentException(key + " must be at most " + boundKey + "=" + bound + " but was " + value);
+		}
+		return value;
+	}
 }
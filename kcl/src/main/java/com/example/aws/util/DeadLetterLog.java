@@ -0,0 +1,120 @@
+package com.example.aws.util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Base64;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Append-only file of records which could not be processed, one JSON object per line, so that the shard can move on and the records can
+ * be replayed later. Each line has time, shardId, sequenceNumber, partitionKey, attempts, error and the payload as base64 in data.
+ */
+public class DeadLetterLog {
+
+	private static final Log LOG = LogFactory.getLog(DeadLetterLog.class);
+
+	private static DeadLetterLog defaultLog = null;
+
+	private final Path path;
+	private final ObjectMapper mapper = new ObjectMapper();
+	private FileChannel channel = null;
+
+	/**
+	 * Constructor using path field. The file is opened on the first record.
+	 * 
+	 * @param path
+	 *            Path of the dead-letter file
+	 */
+	public DeadLetterLog(String path) {
+		super();
+		this.path = Paths.get(path);
+	}
+
+	/**
+	 * Get the dead-letter log at dead.letter.file.path shared by the record processors of this application.
+	 * 
+	 * @return shared dead-letter log
+	 */
+	public static synchronized DeadLetterLog defaultLog() {
+		if (defaultLog == null) {
+			defaultLog = new DeadLetterLog(Config.DEAD_LETTER_FILE_PATH);
+			Runtime.getRuntime().addShutdownHook(new Thread(defaultLog::close, "dead-letter-log-shutdown"));
+		}
+		return defaultLog;
+	}
+
+	/**
+	 * Append a record to the file. The position of data is not changed.
+	 * 
+	 * @param shardId
+	 * @param sequenceNumber
+	 * @param partitionKey
+	 * @param data
+	 *            Record payload
+	 * @param attempts
+	 *            Number of attempts made to process the record
+	 * @param cause
+	 *            Last failure
+	 */
+	public void write(String shardId, String sequenceNumber, String partitionKey, ByteBuffer data, int attempts, Throwable cause) {
+		ObjectNode entry = mapper.createObjectNode();
+		entry.put("time", System.currentTimeMillis());
+		entry.put("shardId", shardId);
+		entry.put("sequenceNumber", sequenceNumber);
+		entry.put("partitionKey", partitionKey);
+		entry.put("attempts", attempts);
+		entry.put("error", String.valueOf(cause));
+		if (data != null) {
+			ByteBuffer payload = data.duplicate();
+			byte[] bytes = new byte[payload.remaining()];
+			payload.get(bytes);
+			entry.put("data", Base64.getEncoder().encodeToString(bytes));
+		}
+		try {
+			append(mapper.writeValueAsString(entry) + "\n");
+		} catch (JsonProcessingException e) {
+			LOG.error("Couldn't write record " + sequenceNumber + " of " + shardId + " to dead-letter log " + path, e);
+		}
+	}
+
+	/**
+	 * Close the file.
+	 */
+	public synchronized void close() {
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				LOG.warn("Couldn't close dead-letter log " + path, e);
+			}
+			channel = null;
+		}
+	}
+
+	private synchronized void append(String line) {
+		try {
+			if (channel == null) {
+				channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+			}
+			ByteBuffer buffer = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		} catch (IOException e) {
+			// Losing the record silently would hide data loss, so make the caller see it.
+			throw new UncheckedIOException("Couldn't write to dead-letter log " + path, e);
+		}
+	}
+}
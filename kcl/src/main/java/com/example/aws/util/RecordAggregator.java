@@ -0,0 +1,287 @@
+package com.example.aws.util;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pack user records into one Kinesis record in the aggregated format of the Kinesis Producer Library, which the KCL deaggregates before
+ * passing records to the record processor. The format is the magic bytes F3 89 9A C2, an AggregatedRecord protobuf message and the MD5
+ * digest of the message.
+ * 
+ * All the user records of an aggregated record go to the shard of the aggregated record, so only add records which should go to the same
+ * shard. Every user record gets the explicit hash key of the aggregated record, so that the KCL, which drops user records whose hash key is
+ * out of the range of the shard, keeps them. An instance is not thread safe.
+ */
+public class RecordAggregator {
+
+	private static final byte[] MAGIC = { (byte) 0xF3, (byte) 0x89, (byte) 0x9A, (byte) 0xC2 };
+	private static final int DIGEST_LENGTH = 16;
+
+	// Kinesis accepts up to 1 MiB of data and partition key in a record
+	public static final int MAX_RECORD_BYTES = 1024 * 1024;
+
+	// Field tags of AggregatedRecord: partition_key_table = 1, explicit_hash_key_table = 2, records = 3 (all length delimited)
+	private static final int TAG_PARTITION_KEY_TABLE = 0x0A;
+	private static final int TAG_EXPLICIT_HASH_KEY_TABLE = 0x12;
+	private static final int TAG_RECORDS = 0x1A;
+	// Field tags of Record: partition_key_index = 1, explicit_hash_key_index = 2 (varint), data = 3 (length delimited)
+	private static final int TAG_PARTITION_KEY_INDEX = 0x08;
+	private static final int TAG_EXPLICIT_HASH_KEY_INDEX = 0x10;
+	private static final int TAG_DATA = 0x1A;
+
+	// MessageDigest is not thread safe, so keep one for each thread to hash partition keys.
+	private static final ThreadLocal<MessageDigest> HASH_KEY_MD5 = ThreadLocal.withInitial(RecordAggregator::newMd5);
+
+	private final int maxBytes;
+	private final int maxRecords;
+	private final MessageDigest md5;
+
+	// Aggregated record being built
+	private final Map<String, Integer> partitionKeyTable = new LinkedHashMap<>();
+	private final List<byte[]> records = new ArrayList<>();
+	private String partitionKey = null;
+	private String explicitHashKey = null;
+	private byte[] explicitHashKeyBytes = null;
+	private byte[] firstData = null;
+	private String firstExplicitHashKey = null;
+	private int messageSize = 0;
+
+	/**
+	 * Constructor using maxBytes and maxRecords fields
+	 * 
+	 * @param maxBytes
+	 *            Maximum size of an aggregated record including its partition key, capped at 1 MiB
+	 * @param maxRecords
+	 *            Maximum number of user records in an aggregated record
+	 */
+	public RecordAggregator(int maxBytes, int maxRecords) {
+		super();
+		this.maxBytes = Math.min(maxBytes, MAX_RECORD_BYTES);
+		this.maxRecords = Math.max(1, maxRecords);
+		this.md5 = newMd5();
+	}
+
+	/**
+	 * Add a user record if it fits in the aggregated record. The first record is always added, so that a record which is too large on its
+	 * own is sent as it is.
+	 * 
+	 * @param partitionKey
+	 *            Partition key of the user record
+	 * @param explicitHashKey
+	 *            Explicit hash key of the user record, or null. Only the one of the first record is used.
+	 * @param data
+	 *            Payload of the user record
+	 * @return false if the aggregated record is full, so build it and add the record again
+	 */
+	public boolean add(String partitionKey, String explicitHashKey, byte[] data) {
+		if (records.isEmpty()) {
+			this.partitionKey = partitionKey;
+			this.explicitHashKey = explicitHashKey != null ? explicitHashKey : hashKey(partitionKey).toString();
+			this.explicitHashKeyBytes = this.explicitHashKey.getBytes(StandardCharsets.UTF_8);
+			this.firstData = data;
+			this.firstExplicitHashKey = explicitHashKey;
+			this.messageSize = lengthDelimitedSize(explicitHashKeyBytes.length);
+		} else if (records.size() >= maxRecords) {
+			return false;
+		}
+
+		Integer partitionKeyIndex = partitionKeyTable.get(partitionKey);
+		int tableGrowth = 0;
+		byte[] partitionKeyBytes = null;
+		if (partitionKeyIndex == null) {
+			partitionKeyBytes = partitionKey.getBytes(StandardCharsets.UTF_8);
+			partitionKeyIndex = partitionKeyTable.size();
+			tableGrowth = lengthDelimitedSize(partitionKeyBytes.length);
+		}
+		byte[] record = encodeRecord(partitionKeyIndex, data);
+		int growth = tableGrowth + lengthDelimitedSize(record.length);
+		if (!records.isEmpty() && aggregatedSize(messageSize + growth) > maxBytes) {
+			return false;
+		}
+
+		if (partitionKeyBytes != null) {
+			partitionKeyTable.put(partitionKey, partitionKeyIndex);
+		}
+		records.add(record);
+		messageSize += growth;
+		return true;
+	}
+
+	/**
+	 * @return true if no record has been added since the last build
+	 */
+	public boolean isEmpty() {
+		return records.isEmpty();
+	}
+
+	/**
+	 * @return number of user records added since the last build
+	 */
+	public int size() {
+		return records.size();
+	}
+
+	/**
+	 * Build the aggregated record and start a new one. A single user record is returned as it is, as the KPL does.
+	 * 
+	 * @return aggregated record, or null if no record has been added
+	 */
+	public AggregatedRecord build() {
+		if (records.isEmpty()) {
+			return null;
+		}
+		AggregatedRecord aggregatedRecord;
+		if (records.size() == 1) {
+			aggregatedRecord = new AggregatedRecord(partitionKey, firstExplicitHashKey, firstData, 1);
+		} else {
+			aggregatedRecord = new AggregatedRecord(partitionKey, explicitHashKey, encodeMessage(), records.size());
+		}
+		partitionKeyTable.clear();
+		records.clear();
+		firstData = null;
+		messageSize = 0;
+		return aggregatedRecord;
+	}
+
+	/**
+	 * Hash key of a partition key, which Kinesis uses to map a record to a shard.
+	 * 
+	 * @param partitionKey
+	 * @return MD5 digest of the UTF-8 partition key as an unsigned 128 bit integer
+	 */
+	public static BigInteger hashKey(String partitionKey) {
+		return new BigInteger(1, HASH_KEY_MD5.get().digest(partitionKey.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	private static MessageDigest newMd5() {
+		try {
+			return MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("MD5 is not available", e);
+		}
+	}
+
+	private byte[] encodeMessage() {
+		byte[] message = new byte[MAGIC.length + messageSize + DIGEST_LENGTH];
+		int position = MAGIC.length;
+		System.arraycopy(MAGIC, 0, message, 0, MAGIC.length);
+		for (String key : partitionKeyTable.keySet()) {
+			position = writeLengthDelimited(message, position, TAG_PARTITION_KEY_TABLE, key.getBytes(StandardCharsets.UTF_8));
+		}
+		position = writeLengthDelimited(message, position, TAG_EXPLICIT_HASH_KEY_TABLE, explicitHashKeyBytes);
+		for (byte[] record : records) {
+			position = writeLengthDelimited(message, position, TAG_RECORDS, record);
+		}
+		md5.reset();
+		md5.update(message, MAGIC.length, position - MAGIC.length);
+		byte[] digest = md5.digest();
+		System.arraycopy(digest, 0, message, position, DIGEST_LENGTH);
+		return message;
+	}
+
+	private static byte[] encodeRecord(int partitionKeyIndex, byte[] data) {
+		byte[] record = new byte[1 + varintSize(partitionKeyIndex) + 2 + lengthDelimitedSize(data.length)];
+		int position = 0;
+		record[position++] = TAG_PARTITION_KEY_INDEX;
+		position = writeVarint(record, position, partitionKeyIndex);
+		// Every user record refers to the only explicit hash key, the one of the aggregated record.
+		record[position++] = TAG_EXPLICIT_HASH_KEY_INDEX;
+		record[position++] = 0;
+		writeLengthDelimited(record, position, TAG_DATA, data);
+		return record;
+	}
+
+	private int aggregatedSize(int messageSize) {
+		return partitionKey.getBytes(StandardCharsets.UTF_8).length + MAGIC.length + messageSize + DIGEST_LENGTH;
+	}
+
+	// Size of a length delimited field with a one byte tag
+	private static int lengthDelimitedSize(int length) {
+		return 1 + varintSize(length) + length;
+	}
+
+	private static int varintSize(long value) {
+		int size = 1;
+		while ((value & ~0x7FL) != 0L) {
+			value >>>= 7;
+			size++;
+		}
+		return size;
+	}
+
+	private static int writeLengthDelimited(byte[] buffer, int position, int tag, byte[] value) {
+		buffer[position++] = (byte) tag;
+		position = writeVarint(buffer, position, value.length);
+		System.arraycopy(value, 0, buffer, position, value.length);
+		return position + value.length;
+	}
+
+	private static int writeVarint(byte[] buffer, int position, long value) {
+		while ((value & ~0x7FL) != 0L) {
+			buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buffer[position++] = (byte) value;
+		return position;
+	}
+
+	/**
+	 * Kinesis record built by RecordAggregator.
+	 */
+	public static class AggregatedRecord {
+		private final String partitionKey;
+		private final String explicitHashKey;
+		private final byte[] data;
+		private final int userRecordCount;
+
+		AggregatedRecord(String partitionKey, String explicitHashKey, byte[] data, int userRecordCount) {
+			this.partitionKey = partitionKey;
+			this.explicitHashKey = explicitHashKey;
+			this.data = data;
+			this.userRecordCount = userRecordCount;
+		}
+
+		/**
+		 * @return partition key of the Kinesis record
+		 */
+		public String getPartitionKey() {
+			return partitionKey;
+		}
+
+		/**
+		 * @return explicit hash key of the Kinesis record, or null to use the hash of the partition key
+		 */
+		public String getExplicitHashKey() {
+			return explicitHashKey;
+		}
+
+		/**
+		 * @return data of the Kinesis record
+		 */
+		public byte[] getData() {
+			return data;
+		}
+
+		/**
+		 * @return number of user records in the Kinesis record
+		 */
+		public int getUserRecordCount() {
+			return userRecordCount;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public String toString() {
+			return "AggregatedRecord [partitionKey=" + partitionKey + ", explicitHashKey=" + explicitHashKey + ", bytes=" + data.length
+					+ ", userRecordCount=" + userRecordCount + "]";
+		}
+	}
+}
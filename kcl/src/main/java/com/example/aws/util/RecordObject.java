@@ -5,10 +5,13 @@ import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 
 public class RecordObject {
-	private static final String TIME_FIELD_FORMAT = System.getProperty("time.field.format", "yyyy-MM-dd'T'HH:mm:ss.SSSxxxxx");
+	// DateTimeFormatter is immutable and thread safe, so build it once for all records.
+	static final DateTimeFormatter dtf = DateTimeFormatter.ofPattern(Config.TIME_FIELD_FORMAT).withZone(ZoneId.of("UTC"));
+	// static final DateTimeFormatter dtf = DateTimeFormatter.ofPattern(Config.TIME_FIELD_FORMAT).withZone(ZoneId.of("Asia/Tokyo"));
+
+	// Last formatted time, since the records of a cycle are stamped within the same millisecond
+	private static volatile FormattedTime lastFormattedTime = new FormattedTime(Long.MIN_VALUE, "");
 
-	final DateTimeFormatter dtf = DateTimeFormatter.ofPattern(TIME_FIELD_FORMAT).withZone(ZoneId.of("UTC"));
-	// final DateTimeFormatter dtf = DateTimeFormatter.ofPattern(TIME_FIELD_FORMAT).withZone(ZoneId.of("Asia/Tokyo"));
 	public String partitionKey = "";
 	public long recordCount = 0L;
 	public String timestampString = "";
@@ -24,7 +27,24 @@ public class RecordObject {
 	}
 
 	public String setTimestampToNow() {
-		timestampString = dtf.format(Instant.now());
+		long now = System.currentTimeMillis();
+		FormattedTime formattedTime = lastFormattedTime;
+		if (formattedTime.epochMillis != now) {
+			formattedTime = new FormattedTime(now, dtf.format(Instant.ofEpochMilli(now)));
+			lastFormattedTime = formattedTime;
+		}
+		timestampString = formattedTime.text;
 		return timestampString;
 	}
+
+	// Time value with its text, replaced as a whole so that threads never see a mismatched pair
+	private static class FormattedTime {
+		private final long epochMillis;
+		private final String text;
+
+		FormattedTime(long epochMillis, String text) {
+			this.epochMillis = epochMillis;
+			this.text = text;
+		}
+	}
 }
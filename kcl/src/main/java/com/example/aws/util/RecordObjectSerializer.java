@@ -0,0 +1,61 @@
+package com.example.aws.util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+/**
+ * Serialize RecordObject to UTF-8 JSON bytes for record payloads. The ObjectWriter is resolved once for RecordObject and writes straight
+ * into a reusable byte buffer, instead of building an intermediate String and encoding it with the platform default charset as
+ * mapper.writeValueAsString(recordObject).getBytes() does. An instance is not thread safe, so use one for each producer thread.
+ */
+public class RecordObjectSerializer {
+
+	private static final int INITIAL_BUFFER_SIZE = 256;
+
+	private final ObjectWriter writer;
+	private final ByteArrayBuilder buffer = new ByteArrayBuilder(INITIAL_BUFFER_SIZE);
+
+	/**
+	 * Constructor with a default ObjectMapper
+	 */
+	public RecordObjectSerializer() {
+		this(new ObjectMapper());
+	}
+
+	/**
+	 * Constructor using mapper field
+	 * 
+	 * @param mapper
+	 *            ObjectMapper to resolve the writer of RecordObject from
+	 */
+	public RecordObjectSerializer(ObjectMapper mapper) {
+		super();
+		this.writer = mapper.writerFor(RecordObject.class);
+	}
+
+	/**
+	 * Serialize a record object.
+	 * 
+	 * @param recordObject
+	 * @return UTF-8 JSON bytes
+	 * @throws JsonProcessingException
+	 *             if the record object cannot be serialized
+	 */
+	public byte[] serialize(RecordObject recordObject) throws JsonProcessingException {
+		buffer.reset();
+		try {
+			writer.writeValue(buffer, recordObject);
+		} catch (JsonProcessingException e) {
+			throw e;
+		} catch (IOException e) {
+			// ByteArrayBuilder never throws IOException.
+			throw new UncheckedIOException(e);
+		}
+		return buffer.toByteArray();
+	}
+}
@@ -0,0 +1,47 @@
+package com.example.aws.util;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * Semaphore whose number of permits can be changed while it is in use, e.g. to follow a tunable limit of requests in flight. Shrinking
+ * it does not wait for the permits in use, which are taken away as they are released.
+ */
+public class ResizableSemaphore extends Semaphore {
+
+	private static final long serialVersionUID = 1L;
+
+	private volatile int maxPermits;
+
+	/**
+	 * Constructor using maxPermits field
+	 * 
+	 * @param maxPermits
+	 *            Initial number of permits
+	 */
+	public ResizableSemaphore(int maxPermits) {
+		super(maxPermits);
+		this.maxPermits = maxPermits;
+	}
+
+	/**
+	 * Change the number of permits, doing nothing if it has not changed.
+	 * 
+	 * @param newMaxPermits
+	 */
+	public synchronized void resize(int newMaxPermits) {
+		int delta = newMaxPermits - maxPermits;
+		if (delta > 0) {
+			release(delta);
+		} else if (delta < 0) {
+			reducePermits(-delta);
+		}
+		maxPermits = newMaxPermits;
+	}
+
+	/**
+	 * @return current number of permits, including the ones in use
+	 */
+	public int getMaxPermits() {
+		return maxPermits;
+	}
+}
@@ -0,0 +1,300 @@
+package com.example.aws.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Resubmit only the entries which failed in a batch call such as PutRecords or PutRecordBatch, which report failures per entry in the
+ * result instead of failing the call. Failed entries are queued ahead of new entries, so that they go out with the next batch, and the
+ * caller backs off by the error codes: exponentially with jitter while throttled, and briefly on other failures. An entry which fails
+ * retry.max.attempts times is dropped. The queue holds at most maxQueued entries, and entries which do not fit in it are dropped too, so
+ * that a stream which keeps failing does not make the queue grow without bound.
+ * 
+ * When ordering is kept, a batch holds at most one entry for each partition key, and the other entries of the key wait in the queue behind
+ * it, since an entry which succeeds after one with the same key failed in the same call would overtake it. An instance is not thread safe
+ * and expects one batch to be completed before the next one is taken.
+ * 
+ * @param <E>
+ *            Type of the entries, e.g. PutRecordsRequestEntry
+ */
+public class Resubmitter<E> {
+
+	private static final Log LOG = LogFactory.getLog(Resubmitter.class);
+
+	private final RetryPolicy retryPolicy;
+	private final Function<E, String> partitionKeyOf;
+	private final ToLongFunction<E> sizeOf;
+	private final int maxQueued;
+
+	// Entries to send, failed entries first
+	private final Deque<Attempt<E>> queue = new ArrayDeque<>();
+	private List<Attempt<E>> inFlight = new ArrayList<>();
+	private int consecutiveThrottledBatches = 0;
+
+	private final LongAdder delivered = new LongAdder();
+	private final LongAdder retried = new LongAdder();
+	private final LongAdder dropped = new LongAdder();
+	private final LongAdder overflowed = new LongAdder();
+
+	/**
+	 * Constructor using retryPolicy, partitionKeyOf and sizeOf fields, which queues at most producer.retry.queue.size entries
+	 * 
+	 * @param retryPolicy
+	 *            Number of attempts for each entry and backoff between batches with failures
+	 * @param partitionKeyOf
+	 *            Partition key of an entry to keep the order of entries with the same key, or null not to keep the order
+	 * @param sizeOf
+	 *            Size of an entry counted toward the size limit of a batch
+	 */
+	public Resubmitter(RetryPolicy retryPolicy, Function<E, String> partitionKeyOf, ToLongFunction<E> sizeOf) {
+		this(retryPolicy, partitionKeyOf, sizeOf, Config.PRODUCER_RETRY_QUEUE_SIZE);
+	}
+
+	/**
+	 * Constructor using all fields
+	 * 
+	 * @param retryPolicy
+	 *            Number of attempts for each entry and backoff between batches with failures
+	 * @param partitionKeyOf
+	 *            Partition key of an entry to keep the order of entries with the same key, or null not to keep the order
+	 * @param sizeOf
+	 *            Size of an entry counted toward the size limit of a batch
+	 * @param maxQueued
+	 *            Maximum number of entries waiting to be sent
+	 */
+	public Resubmitter(RetryPolicy retryPolicy, Function<E, String> partitionKeyOf, ToLongFunction<E> sizeOf, int maxQueued) {
+		super();
+		this.retryPolicy = retryPolicy;
+		this.partitionKeyOf = partitionKeyOf;
+		this.sizeOf = sizeOf;
+		this.maxQueued = maxQueued;
+	}
+
+	/**
+	 * Create a resubmitter with retry.max.attempts, retry.base.millis and retry.max.millis, which keeps the order of entries with the same
+	 * partition key if producer.retry.keep.order is true.
+	 * 
+	 * @param partitionKeyOf
+	 *            Partition key of an entry
+	 * @param sizeOf
+	 *            Size of an entry counted toward the size limit of a batch
+	 * @return resubmitter
+	 */
+	public static <E> Resubmitter<E> fromConfig(Function<E, String> partitionKeyOf, ToLongFunction<E> sizeOf) {
+		return new Resubmitter<>(RetryPolicy.fromConfig(), Config.PRODUCER_RETRY_KEEP_ORDER ? partitionKeyOf : null, sizeOf);
+	}
+
+	/**
+	 * Take the next batch, failed entries first and then new entries, up to maxEntries and maxBytes. Entries which do not fit stay queued
+	 * for the following batches, and new entries which do not fit in the queue are dropped.
+	 * 
+	 * @param newEntries
+	 *            Entries to send for the first time
+	 * @param maxEntries
+	 *            Maximum number of entries of a call
+	 * @param maxBytes
+	 *            Maximum total size of the entries of a call
+	 * @return entries to send
+	 */
+	public List<E> nextBatch(List<E> newEntries, int maxEntries, long maxBytes) {
+		if (!inFlight.isEmpty()) {
+			throw new IllegalStateException("The previous batch of " + inFlight.size() + " entries has not been completed");
+		}
+		int overflow = 0;
+		for (E entry : newEntries) {
+			if (queue.size() >= maxQueued) {
+				overflow++;
+				continue;
+			}
+			queue.addLast(new Attempt<>(entry));
+		}
+		if (overflow > 0) {
+			overflowed.add(overflow);
+			dropped.add(overflow);
+			LOG.error("Dropping " + overflow + " new records since " + queue.size() + " records are already waiting to be sent");
+		}
+
+		Set<String> partitionKeys = new HashSet<>();
+		List<E> batch = new ArrayList<>(Math.min(maxEntries, queue.size()));
+		long bytes = 0L;
+		for (Iterator<Attempt<E>> iterator = queue.iterator(); iterator.hasNext() && inFlight.size() < maxEntries;) {
+			Attempt<E> attempt = iterator.next();
+			long size = sizeOf.applyAsLong(attempt.entry);
+			if (!inFlight.isEmpty() && bytes + size > maxBytes) {
+				break;
+			}
+			if (partitionKeyOf != null && !partitionKeys.add(partitionKeyOf.apply(attempt.entry))) {
+				continue;
+			}
+			bytes += size;
+			iterator.remove();
+			inFlight.add(attempt);
+			batch.add(attempt.entry);
+		}
+		return batch;
+	}
+
+	/**
+	 * Complete the last batch with the result of each entry, queueing the failed entries.
+	 * 
+	 * @param errorCodes
+	 *            Error code of each entry of the batch in order, null for the entries which succeeded
+	 * @return milliseconds to wait before the next batch
+	 */
+	public long completed(List<String> errorCodes) {
+		List<Attempt<E>> failed = new ArrayList<>();
+		boolean throttled = false;
+		for (int i = 0; i < inFlight.size(); i++) {
+			String errorCode = errorCodes.get(i);
+			if (errorCode == null) {
+				delivered.increment();
+				continue;
+			}
+			Attempt<E> attempt = inFlight.get(i);
+			attempt.lastError = errorCode;
+			attempt.permanent = isPermanent(errorCode);
+			throttled |= isThrottling(errorCode);
+			failed.add(attempt);
+		}
+		inFlight = new ArrayList<>();
+		if (failed.isEmpty()) {
+			consecutiveThrottledBatches = 0;
+			return 0L;
+		}
+
+		requeue(failed);
+		return backoffMillis(throttled);
+	}
+
+	/**
+	 * Complete the last batch with a failure of the whole call, queueing all the entries unless the failure is permanent.
+	 * 
+	 * @param cause
+	 *            Failure of the call
+	 * @param retryable
+	 *            true if the call may succeed when repeated
+	 * @param throttled
+	 *            true if the service throttled the call
+	 * @return milliseconds to wait before the next batch
+	 */
+	public long failed(Throwable cause, boolean retryable, boolean throttled) {
+		List<Attempt<E>> failed = inFlight;
+		inFlight = new ArrayList<>();
+		for (Attempt<E> attempt : failed) {
+			attempt.lastError = String.valueOf(cause);
+			attempt.permanent = !retryable;
+		}
+		requeue(failed);
+		return backoffMillis(throttled);
+	}
+
+	/**
+	 * @return number of entries delivered
+	 */
+	public long getDeliveredCount() {
+		return delivered.sum();
+	}
+
+	/**
+	 * @return number of times entries were queued again after a failure
+	 */
+	public long getRetriedCount() {
+		return retried.sum();
+	}
+
+	/**
+	 * @return number of entries dropped after a permanent failure or the last attempt, or since the queue was full
+	 */
+	public long getDroppedCount() {
+		return dropped.sum();
+	}
+
+	/**
+	 * @return number of entries dropped since the queue was full, which are included in the dropped count
+	 */
+	public long getOverflowedCount() {
+		return overflowed.sum();
+	}
+
+	/**
+	 * @return number of entries waiting to be sent
+	 */
+	public int getQueuedCount() {
+		return queue.size();
+	}
+
+	/**
+	 * @return description of the counters, for logging
+	 */
+	public String describe() {
+		return "delivered " + getDeliveredCount() + ", retried " + getRetriedCount() + ", dropped " + getDroppedCount() + " (overflowed "
+				+ getOverflowedCount() + "), queued " + getQueuedCount() + " records";
+	}
+
+	// Put the failed entries back at the head of the queue in their original order.
+	private void requeue(List<Attempt<E>> failed) {
+		for (int i = failed.size() - 1; i >= 0; i--) {
+			Attempt<E> attempt = failed.get(i);
+			attempt.attempts++;
+			if (attempt.permanent || attempt.attempts >= retryPolicy.getMaxAttempts()) {
+				dropped.increment();
+				LOG.error("Dropping a record after " + attempt.attempts + " attempts: " + attempt.lastError);
+				continue;
+			}
+			retried.increment();
+			queue.addFirst(attempt);
+		}
+	}
+
+	private long backoffMillis(boolean throttled) {
+		if (!throttled) {
+			// Other failures, e.g. InternalFailure, are transient, so retry soon.
+			consecutiveThrottledBatches = 0;
+			return retryPolicy.backoffMillis(1);
+		}
+		consecutiveThrottledBatches++;
+		return retryPolicy.backoffMillis(consecutiveThrottledBatches);
+	}
+
+	// ProvisionedThroughputExceededException and KMSThrottlingException of Kinesis, ServiceUnavailableException of Firehose
+	private static boolean isThrottling(String errorCode) {
+		return errorCode.contains("Throughput") || errorCode.contains("Throttling") || errorCode.contains("ServiceUnavailable");
+	}
+
+	/**
+	 * Classify the error code of an entry of PutRecords or PutRecordBatch. KMS errors other than throttling, e.g. KMSAccessDeniedException
+	 * or KMSDisabledException, do not go away by retrying.
+	 * 
+	 * @param errorCode
+	 *            Error code of the entry
+	 * @return true if the entry fails the same way on every attempt
+	 */
+	public static boolean isPermanent(String errorCode) {
+		return errorCode.startsWith("KMS") && !isThrottling(errorCode);
+	}
+
+	/**
+	 * Entry with the number of attempts made to send it and its last failure.
+	 */
+	private static class Attempt<E> {
+		private final E entry;
+		private int attempts = 0;
+		private String lastError = null;
+		private boolean permanent = false;
+
+		Attempt(E entry) {
+			this.entry = entry;
+		}
+	}
+}
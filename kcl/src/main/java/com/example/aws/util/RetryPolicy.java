@@ -0,0 +1,143 @@
+package com.example.aws.util;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Capped exponential backoff with full jitter for retrying failed records. Jitter spreads the retries of processors which failed at the
+ * same time, e.g. on throttling, so that they do not hit the service again all at once. The settings are read on every attempt, so that a
+ * policy from fromConfig() follows changes of the tunables. A record processor which retries on its own thread bounds the retries of each
+ * batch with a deadline from batchDeadline(), so that the shard keeps moving.
+ */
+public class RetryPolicy {
+
+	private final IntSupplier maxAttempts;
+	private final LongSupplier baseMillis;
+	private final LongSupplier maxMillis;
+	private final LongSupplier batchBudgetMillis;
+
+	/**
+	 * Constructor using maxAttempts, baseMillis and maxMillis fields
+	 * 
+	 * @param maxAttempts
+	 *            Number of attempts including the first one
+	 * @param baseMillis
+	 *            Upper bound of the backoff after the first attempt, doubled on each attempt
+	 * @param maxMillis
+	 *            Cap of the upper bound of the backoff
+	 */
+	public RetryPolicy(int maxAttempts, long baseMillis, long maxMillis) {
+		this(() -> maxAttempts, () -> baseMillis, () -> maxMillis);
+	}
+
+	/**
+	 * Constructor using maxAttempts, baseMillis and maxMillis fields, whose current values are read on every attempt.
+	 * 
+	 * @param maxAttempts
+	 *            Number of attempts including the first one
+	 * @param baseMillis
+	 *            Upper bound of the backoff after the first attempt, doubled on each attempt
+	 * @param maxMillis
+	 *            Cap of the upper bound of the backoff
+	 */
+	public RetryPolicy(IntSupplier maxAttempts, LongSupplier baseMillis, LongSupplier maxMillis) {
+		this(maxAttempts, baseMillis, maxMillis, () -> 0L);
+	}
+
+	/**
+	 * Constructor using all fields, whose current values are read on every attempt.
+	 * 
+	 * @param maxAttempts
+	 *            Number of attempts including the first one
+	 * @param baseMillis
+	 *            Upper bound of the backoff after the first attempt, doubled on each attempt
+	 * @param maxMillis
+	 *            Cap of the upper bound of the backoff
+	 * @param batchBudgetMillis
+	 *            Time which the retries of a batch may take, or 0 for no limit
+	 */
+	public RetryPolicy(IntSupplier maxAttempts, LongSupplier baseMillis, LongSupplier maxMillis, LongSupplier batchBudgetMillis) {
+		super();
+		this.maxAttempts = maxAttempts;
+		this.baseMillis = baseMillis;
+		this.maxMillis = maxMillis;
+		this.batchBudgetMillis = batchBudgetMillis;
+	}
+
+	/**
+	 * Create a policy from retry.max.attempts, retry.base.millis, retry.max.millis and retry.batch.budget.millis.
+	 * 
+	 * @return retry policy
+	 */
+	public static RetryPolicy fromConfig() {
+		return new RetryPolicy(Config.RETRY_MAX_ATTEMPTS::get, Config.RETRY_BASE_MILLIS::get, Config.RETRY_MAX_MILLIS::get,
+				Config.RETRY_BATCH_BUDGET_MILLIS::get);
+	}
+
+	/**
+	 * Get the deadline of the retries of a batch which starts now.
+	 * 
+	 * @return deadline in epoch milliseconds, or Long.MAX_VALUE if the retries of a batch are not limited
+	 */
+	public long batchDeadline() {
+		long budgetMillis = batchBudgetMillis.getAsLong();
+		return budgetMillis > 0L ? System.currentTimeMillis() + budgetMillis : Long.MAX_VALUE;
+	}
+
+	/**
+	 * @return number of attempts including the first one
+	 */
+	public int getMaxAttempts() {
+		return Math.max(1, maxAttempts.getAsInt());
+	}
+
+	/**
+	 * Backoff before the next attempt, chosen at random between 0 and min(maxMillis, baseMillis * 2^(attempt - 1)).
+	 * 
+	 * @param attempt
+	 *            Number of the attempt which has just failed, starting from 1
+	 * @return milliseconds to wait
+	 */
+	public long backoffMillis(int attempt) {
+		long currentBaseMillis = Math.max(1L, baseMillis.getAsLong());
+		long currentMaxMillis = Math.max(currentBaseMillis, maxMillis.getAsLong());
+		long ceiling = Math.min(currentMaxMillis, currentBaseMillis << Math.min(Math.max(attempt - 1, 0), 30));
+		return ThreadLocalRandom.current().nextLong(ceiling + 1);
+	}
+
+	/**
+	 * Wait before the next attempt. Returns early if the thread is interrupted, keeping its interrupt status.
+	 * 
+	 * @param attempt
+	 *            Number of the attempt which has just failed, starting from 1
+	 * @return false if interrupted
+	 */
+	public boolean backoff(int attempt) {
+		return backoff(attempt, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Wait before the next attempt unless the next attempt would start after the deadline. Returns early if the thread is interrupted,
+	 * keeping its interrupt status.
+	 * 
+	 * @param attempt
+	 *            Number of the attempt which has just failed, starting from 1
+	 * @param deadlineInMillis
+	 *            Deadline from batchDeadline()
+	 * @return false if the deadline would be passed or if interrupted
+	 */
+	public boolean backoff(int attempt, long deadlineInMillis) {
+		long backoffMillis = backoffMillis(attempt);
+		if (System.currentTimeMillis() + backoffMillis > deadlineInMillis) {
+			return false;
+		}
+		try {
+			Thread.sleep(backoffMillis);
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+}
@@ -0,0 +1,290 @@
+package com.example.aws.util;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Map of the open shards of a stream by their hash key ranges, refreshed from ListShards every producer.shard.map.refresh.millis, or on
+ * the next call after it is invalidated because writes failed. Closed shards, which are left behind by a split or a merge, are skipped, so
+ * that records are never aimed at their ranges. When a refresh fails, the previous map is kept and the refresh is tried again soon.
+ * Refreshes brought forward by invalidation or a failed refresh are at least MIN_REFRESH_INTERVAL_MILLIS apart, so that a stream which
+ * keeps throttling writes is not listed on every request. Any producer which can list the shards of a stream can use it. An instance is
+ * thread safe.
+ */
+public class ShardMap {
+
+	private static final Log LOG = LogFactory.getLog(ShardMap.class);
+
+	// Size of the whole hash key space, 2^128
+	private static final BigInteger HASH_KEY_SPACE = BigInteger.ONE.shiftLeft(128);
+
+	// Least interval between refreshes brought forward by invalidate() or a failed refresh
+	private static final long MIN_REFRESH_INTERVAL_MILLIS = 5000L;
+
+	private final Callable<List<ShardRange>> shardLister;
+	private final long refreshIntervalMillis;
+
+	private volatile Snapshot snapshot = new Snapshot(Collections.emptyList());
+	private volatile long lastRefreshTimeInMillis = 0L;
+	private volatile long nextRefreshTimeInMillis = 0L;
+
+	/**
+	 * Constructor using shardLister and refreshIntervalMillis fields. The map is empty until the first refresh.
+	 * 
+	 * @param shardLister
+	 *            Lists all the shards of the stream, e.g. by paging through ListShards
+	 * @param refreshIntervalMillis
+	 *            Interval between refreshes
+	 */
+	public ShardMap(Callable<List<ShardRange>> shardLister, long refreshIntervalMillis) {
+		super();
+		this.shardLister = shardLister;
+		this.refreshIntervalMillis = refreshIntervalMillis;
+	}
+
+	/**
+	 * Create a map refreshed every producer.shard.map.refresh.millis, and refresh it.
+	 * 
+	 * @param shardLister
+	 *            Lists all the shards of the stream
+	 * @return shard map
+	 */
+	public static ShardMap fromConfig(Callable<List<ShardRange>> shardLister) {
+		ShardMap shardMap = new ShardMap(shardLister, Config.PRODUCER_SHARD_MAP_REFRESH_MILLIS);
+		shardMap.refreshIfStale();
+		return shardMap;
+	}
+
+	/**
+	 * Refresh the map if the refresh interval has passed or the map has been invalidated.
+	 * 
+	 * @return true if the open shards have changed
+	 */
+	public synchronized boolean refreshIfStale() {
+		long now = System.currentTimeMillis();
+		if (now < nextRefreshTimeInMillis) {
+			return false;
+		}
+		lastRefreshTimeInMillis = now;
+		nextRefreshTimeInMillis = now + refreshIntervalMillis;
+		List<ShardRange> openShards = new ArrayList<>();
+		try {
+			for (ShardRange shard : shardLister.call()) {
+				if (shard.isOpen()) {
+					openShards.add(shard);
+				}
+			}
+		} catch (Exception e) {
+			LOG.error("Failed to list shards, keeping " + snapshot.openShards.size() + " open shards", e);
+			// Try again soon rather than waiting for the whole interval.
+			nextRefreshTimeInMillis = now + minRefreshIntervalMillis();
+			return false;
+		}
+		openShards.sort(Comparator.comparing(ShardRange::getStartingHashKey));
+		if (openShards.equals(snapshot.openShards)) {
+			return false;
+		}
+		LOG.info("Open shards changed from " + snapshot.openShards + " to " + openShards);
+		snapshot = new Snapshot(openShards);
+		return true;
+	}
+
+	/**
+	 * Refresh the map on the next call to refreshIfStale, e.g. after writes failed, since the stream may have been resharded, but not
+	 * within MIN_REFRESH_INTERVAL_MILLIS of the last refresh.
+	 */
+	public void invalidate() {
+		nextRefreshTimeInMillis = Math.min(nextRefreshTimeInMillis, lastRefreshTimeInMillis + minRefreshIntervalMillis());
+	}
+
+	private long minRefreshIntervalMillis() {
+		return Math.min(MIN_REFRESH_INTERVAL_MILLIS, refreshIntervalMillis);
+	}
+
+	/**
+	 * @return open shards in the order of their hash key ranges
+	 */
+	public List<ShardRange> getOpenShards() {
+		return snapshot.openShards;
+	}
+
+	/**
+	 * Find the open shard which a hash key belongs to.
+	 * 
+	 * @param hashKey
+	 *            Explicit hash key, or the MD5 hash of a partition key
+	 * @return shard ID, or null if no open shard is known for the hash key
+	 */
+	public String shardIdOf(BigInteger hashKey) {
+		Entry<BigInteger, ShardRange> shard = snapshot.shardsByStartingHashKey.floorEntry(hashKey);
+		return shard != null && shard.getValue().getEndingHashKey().compareTo(hashKey) >= 0 ? shard.getValue().getShardId() : null;
+	}
+
+	/**
+	 * Find the open shard which an explicit hash key belongs to.
+	 * 
+	 * @param explicitHashKey
+	 *            Explicit hash key in decimal
+	 * @return shard ID, or null if no open shard is known for the hash key
+	 */
+	public String shardIdOf(String explicitHashKey) {
+		return shardIdOf(new BigInteger(explicitHashKey));
+	}
+
+	/**
+	 * Spread explicit hash keys evenly across the open shards, so that each shard takes a share of the keys in proportion to its hash key
+	 * range, and the keys of a shard are spread within its range rather than piled on its starting hash key. The key at each index stays
+	 * the same until the open shards change, so that the records put with it keep their order. Without open shards, the keys are spread
+	 * across the whole hash key space.
+	 * 
+	 * @param count
+	 *            Number of keys
+	 * @return explicit hash keys in decimal
+	 */
+	public List<String> explicitHashKeys(int count) {
+		return snapshot.explicitHashKeys(count);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		return snapshot.openShards.toString();
+	}
+
+	// Immutable state of the map, replaced as a whole on refresh
+	private static class Snapshot {
+		private final List<ShardRange> openShards;
+		private final NavigableMap<BigInteger, ShardRange> shardsByStartingHashKey = new TreeMap<>();
+		// Sum of the widths of the hash key ranges of the open shards up to and including each shard
+		private final BigInteger[] cumulativeWidths;
+		private volatile List<String> explicitHashKeys = Collections.emptyList();
+
+		private Snapshot(List<ShardRange> openShards) {
+			this.openShards = Collections.unmodifiableList(openShards);
+			this.cumulativeWidths = new BigInteger[openShards.size()];
+			BigInteger totalWidth = BigInteger.ZERO;
+			for (int i = 0; i < openShards.size(); i++) {
+				ShardRange shard = openShards.get(i);
+				shardsByStartingHashKey.put(shard.getStartingHashKey(), shard);
+				totalWidth = totalWidth.add(shard.getWidth());
+				cumulativeWidths[i] = totalWidth;
+			}
+		}
+
+		private List<String> explicitHashKeys(int count) {
+			List<String> keys = explicitHashKeys;
+			if (keys.size() == count) {
+				return keys;
+			}
+			BigInteger totalWidth = openShards.isEmpty() ? HASH_KEY_SPACE : cumulativeWidths[cumulativeWidths.length - 1];
+			keys = new ArrayList<>(count);
+			int shardIndex = 0;
+			for (int i = 0; i < count; i++) {
+				// Offset of the middle of the i-th of count equal slices of the open ranges laid end to end
+				BigInteger offset = totalWidth.multiply(BigInteger.valueOf(2L * i + 1)).divide(BigInteger.valueOf(2L * count));
+				if (openShards.isEmpty()) {
+					keys.add(offset.toString());
+					continue;
+				}
+				while (cumulativeWidths[shardIndex].compareTo(offset) <= 0) {
+					shardIndex++;
+				}
+				BigInteger shardOffset = shardIndex == 0 ? offset : offset.subtract(cumulativeWidths[shardIndex - 1]);
+				keys.add(openShards.get(shardIndex).getStartingHashKey().add(shardOffset).toString());
+			}
+			keys = Collections.unmodifiableList(keys);
+			explicitHashKeys = keys;
+			return keys;
+		}
+	}
+
+	/**
+	 * Hash key range of a shard, independent of the SDK version which listed it
+	 */
+	public static class ShardRange {
+		private final String shardId;
+		private final BigInteger startingHashKey;
+		private final BigInteger endingHashKey;
+		private final boolean open;
+
+		/**
+		 * Constructor using all fields
+		 * 
+		 * @param shardId
+		 * @param startingHashKey
+		 *            Starting hash key in decimal
+		 * @param endingHashKey
+		 *            Ending hash key in decimal, inclusive
+		 * @param open
+		 *            false if the shard has an ending sequence number, i.e. it has been closed by a split or a merge
+		 */
+		public ShardRange(String shardId, String startingHashKey, String endingHashKey, boolean open) {
+			super();
+			this.shardId = shardId;
+			this.startingHashKey = new BigInteger(startingHashKey);
+			this.endingHashKey = new BigInteger(endingHashKey);
+			this.open = open;
+		}
+
+		public String getShardId() {
+			return shardId;
+		}
+
+		public BigInteger getStartingHashKey() {
+			return startingHashKey;
+		}
+
+		public BigInteger getEndingHashKey() {
+			return endingHashKey;
+		}
+
+		public boolean isOpen() {
+			return open;
+		}
+
+		private BigInteger getWidth() {
+			return endingHashKey.subtract(startingHashKey).add(BigInteger.ONE);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof ShardRange)) {
+				return false;
+			}
+			ShardRange other = (ShardRange) obj;
+			return shardId.equals(other.shardId) && startingHashKey.equals(other.startingHashKey)
+					&& endingHashKey.equals(other.endingHashKey) && open == other.open;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public int hashCode() {
+			return shardId.hashCode();
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public String toString() {
+			return shardId;
+		}
+	}
+}
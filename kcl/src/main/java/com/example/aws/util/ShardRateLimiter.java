@@ -0,0 +1,166 @@
+package com.example.aws.util;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Keep the records put to each shard within the write limits of a shard, 1000 records/s and 1 MiB/s, with a token bucket on records and
+ * another on bytes for each shard. Tokens refill continuously up to one second worth of the rate, so that a shard which has been idle can
+ * take a burst. A reservation takes its tokens at once and tells how long to wait before sending, so that a batch larger than the burst is
+ * delayed rather than refused. Any producer which can tell the target shard of a record can use it. The rates are read on every
+ * reservation, so that a limiter from fromConfig() follows changes of the tunables. An instance is thread safe.
+ */
+public class ShardRateLimiter {
+
+	// Write limits of a shard
+	public static final long SHARD_MAX_RECORDS_PER_SECOND = 1000L;
+	public static final long SHARD_MAX_BYTES_PER_SECOND = 1024L * 1024L;
+
+	private final LongSupplier recordsPerSecond;
+	private final LongSupplier bytesPerSecond;
+	private final ConcurrentMap<String, Buckets> bucketsByShardId = new ConcurrentHashMap<>();
+
+	/**
+	 * Constructor using recordsPerSecond and bytesPerSecond fields. A value of 0 or less disables the limit.
+	 * 
+	 * @param recordsPerSecond
+	 *            Records per second allowed for each shard
+	 * @param bytesPerSecond
+	 *            Bytes of data and partition keys per second allowed for each shard
+	 */
+	public ShardRateLimiter(long recordsPerSecond, long bytesPerSecond) {
+		this(() -> recordsPerSecond, () -> bytesPerSecond);
+	}
+
+	/**
+	 * Constructor using recordsPerSecond and bytesPerSecond fields, whose current values are read on every reservation. A value of 0 or
+	 * less disables the limit.
+	 * 
+	 * @param recordsPerSecond
+	 *            Records per second allowed for each shard
+	 * @param bytesPerSecond
+	 *            Bytes of data and partition keys per second allowed for each shard
+	 */
+	public ShardRateLimiter(LongSupplier recordsPerSecond, LongSupplier bytesPerSecond) {
+		super();
+		this.recordsPerSecond = recordsPerSecond;
+		this.bytesPerSecond = bytesPerSecond;
+	}
+
+	/**
+	 * Create a limiter from producer.shard.records.per.second and producer.shard.bytes.per.second.
+	 * 
+	 * @return shard rate limiter
+	 */
+	public static ShardRateLimiter fromConfig() {
+		return new ShardRateLimiter(Config.PRODUCER_SHARD_RECORDS_PER_SECOND::get, Config.PRODUCER_SHARD_BYTES_PER_SECOND::get);
+	}
+
+	/**
+	 * Take tokens for records to be put to a shard without waiting.
+	 * 
+	 * @param shardId
+	 *            Target shard, or null if it is not known yet, in which case the records are not limited
+	 * @param records
+	 *            Number of records
+	 * @param bytes
+	 *            Size of the data and partition keys of the records
+	 * @return milliseconds to wait before putting the records
+	 */
+	public long reserve(String shardId, long records, long bytes) {
+		if (shardId == null) {
+			return 0L;
+		}
+		return bucketsByShardId.computeIfAbsent(shardId, id -> new Buckets()).reserve(records, bytes);
+	}
+
+	/**
+	 * Take tokens for records to be put to a shard, and wait until they may be put.
+	 * 
+	 * @param shardId
+	 *            Target shard
+	 * @param records
+	 *            Number of records
+	 * @param bytes
+	 *            Size of the data and partition keys of the records
+	 * @return milliseconds waited
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	public long acquire(String shardId, long records, long bytes) throws InterruptedException {
+		long waitMillis = reserve(shardId, records, bytes);
+		if (waitMillis > 0L) {
+			Thread.sleep(waitMillis);
+		}
+		return waitMillis;
+	}
+
+	/**
+	 * Take tokens for the records of a request for each shard which they go to, and wait until all the shards can take them.
+	 * 
+	 * @param entries
+	 *            Records of the request
+	 * @param shardIdOf
+	 *            Target shard of a record, or null if it is not known yet, in which case the record is not limited
+	 * @param sizeOf
+	 *            Size of the data and partition key of a record
+	 * @return milliseconds waited
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	public <E> long acquireAll(List<E> entries, Function<E, String> shardIdOf, ToLongFunction<E> sizeOf) throws InterruptedException {
+		Map<String, long[]> usageByShardId = new HashMap<>();
+		for (E entry : entries) {
+			String shardId = shardIdOf.apply(entry);
+			if (shardId == null) {
+				continue;
+			}
+			long[] usage = usageByShardId.computeIfAbsent(shardId, id -> new long[2]);
+			usage[0]++;
+			usage[1] += sizeOf.applyAsLong(entry);
+		}
+		long waitMillis = 0L;
+		for (Map.Entry<String, long[]> usage : usageByShardId.entrySet()) {
+			waitMillis = Math.max(waitMillis, reserve(usage.getKey(), usage.getValue()[0], usage.getValue()[1]));
+		}
+		if (waitMillis > 0L) {
+			Thread.sleep(waitMillis);
+		}
+		return waitMillis;
+	}
+
+	/**
+	 * Token buckets of a shard. Tokens may go negative by a reservation, which is paid back by the refill while the caller waits.
+	 */
+	private class Buckets {
+		private double recordTokens = recordsPerSecond.getAsLong();
+		private double byteTokens = bytesPerSecond.getAsLong();
+		private long lastRefillNanos = System.nanoTime();
+
+		synchronized long reserve(long records, long bytes) {
+			long now = System.nanoTime();
+			double seconds = (now - lastRefillNanos) / (double) TimeUnit.SECONDS.toNanos(1L);
+			lastRefillNanos = now;
+
+			double waitSeconds = 0.0;
+			long currentRecordsPerSecond = recordsPerSecond.getAsLong();
+			if (currentRecordsPerSecond > 0L) {
+				recordTokens = Math.min(currentRecordsPerSecond, recordTokens + seconds * currentRecordsPerSecond) - records;
+				waitSeconds = Math.max(waitSeconds, -recordTokens / currentRecordsPerSecond);
+			}
+			long currentBytesPerSecond = bytesPerSecond.getAsLong();
+			if (currentBytesPerSecond > 0L) {
+				byteTokens = Math.min(currentBytesPerSecond, byteTokens + seconds * currentBytesPerSecond) - bytes;
+				waitSeconds = Math.max(waitSeconds, -byteTokens / currentBytesPerSecond);
+			}
+			return (long) Math.ceil(waitSeconds * 1000.0);
+		}
+	}
+}
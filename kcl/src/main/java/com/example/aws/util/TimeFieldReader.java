@@ -0,0 +1,124 @@
+package com.example.aws.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Read a top level time field from a JSON record payload with the streaming parser, without decoding the whole payload into a String or
+ * building a tree. An instance is not thread safe, so use one for each record processor.
+ */
+public class TimeFieldReader {
+
+	// Returned by readEpochMillis when the payload has no time field
+	public static final long NO_TIME_FIELD = Long.MIN_VALUE;
+
+	// JsonFactory is thread safe and expensive to create, so share it.
+	private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+	private final String fieldName;
+
+	// Scratch buffer to parse payloads which are not backed by an array
+	private byte[] scratch = new byte[1024];
+
+	/**
+	 * Constructor using fieldName field
+	 * 
+	 * @param fieldName
+	 *            Name of the top level time field
+	 */
+	public TimeFieldReader(String fieldName) {
+		super();
+		this.fieldName = fieldName;
+	}
+
+	/**
+	 * Read the time field from a JSON payload. The position of the buffer is not changed.
+	 * 
+	 * @param data
+	 *            Record payload
+	 * @return text of the time field, or null if the payload has no scalar time field
+	 * @throws IOException
+	 *             if the payload is not a JSON object
+	 */
+	public String read(ByteBuffer data) throws IOException {
+		try (JsonParser parser = createParser(data)) {
+			if (parser.nextToken() != JsonToken.START_OBJECT) {
+				throw new JsonParseException(parser, "Record payload is not a JSON object");
+			}
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				boolean isTimeField = fieldName.equals(parser.getCurrentName());
+				JsonToken value = parser.nextToken();
+				if (isTimeField) {
+					return value.isScalarValue() ? parser.getText() : null;
+				}
+				// Skip nested objects and arrays without parsing their values.
+				parser.skipChildren();
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Read the time field from a JSON payload and parse it to epoch millis straight from the parser's chars. The position of the buffer is
+	 * not changed.
+	 * 
+	 * @param data
+	 *            Record payload
+	 * @param timestampParser
+	 *            Parser for time field values
+	 * @return epoch millis of the time field, or NO_TIME_FIELD if the payload has no string time field
+	 * @throws IOException
+	 *             if the payload is not a JSON object
+	 */
+	public long readEpochMillis(ByteBuffer data, TimestampParser timestampParser) throws IOException {
+		try (JsonParser parser = createParser(data)) {
+			if (parser.nextToken() != JsonToken.START_OBJECT) {
+				throw new JsonParseException(parser, "Record payload is not a JSON object");
+			}
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				boolean isTimeField = fieldName.equals(parser.getCurrentName());
+				JsonToken value = parser.nextToken();
+				if (isTimeField) {
+					if (value != JsonToken.VALUE_STRING) {
+						return NO_TIME_FIELD;
+					}
+					return timestampParser.parse(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+				}
+				parser.skipChildren();
+			}
+			return NO_TIME_FIELD;
+		}
+	}
+
+	/**
+	 * Decode a record payload as UTF-8 chars. The position of the buffer is not changed.
+	 * 
+	 * @param data
+	 *            Record payload
+	 * @return payload string
+	 */
+	public static String toString(ByteBuffer data) {
+		if (data.hasArray()) {
+			return new String(data.array(), data.arrayOffset() + data.position(), data.remaining(), StandardCharsets.UTF_8);
+		}
+		return StandardCharsets.UTF_8.decode(data.duplicate()).toString();
+	}
+
+	private JsonParser createParser(ByteBuffer data) throws IOException {
+		if (data.hasArray()) {
+			return JSON_FACTORY.createParser(data.array(), data.arrayOffset() + data.position(), data.remaining());
+		}
+		int length = data.remaining();
+		if (scratch.length < length) {
+			scratch = new byte[Math.max(length, scratch.length * 2)];
+		}
+		data.duplicate().get(scratch, 0, length);
+		return JSON_FACTORY.createParser(scratch, 0, length);
+	}
+}
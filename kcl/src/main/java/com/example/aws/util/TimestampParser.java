@@ -0,0 +1,186 @@
+package com.example.aws.util;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Parse time field values to epoch millis. Values in the layout which RecordObject produces (e.g. "2018-08-01T12:34:56.789+09:00") are
+ * parsed directly from their chars without intermediate objects, and anything else falls back to the DateTimeFormatter of the configured
+ * format. An instance is not thread safe, so use one for each record processor.
+ */
+public class TimestampParser {
+
+	// Default time.field.format, which is the layout the fast path accepts
+	public static final String DEFAULT_FORMAT = "yyyy-MM-dd'T'HH:mm:ss.SSSxxxxx";
+
+	// "yyyy-MM-ddTHH:mm:ss.SSS" followed by "+HH:MM" or "+HH:MM:ss"
+	private static final int DATE_TIME_LENGTH = 23;
+	private static final int MIN_LENGTH = DATE_TIME_LENGTH + 6;
+	private static final int MAX_LENGTH = DATE_TIME_LENGTH + 9;
+	private static final long INVALID = Long.MIN_VALUE;
+
+	private final DateTimeFormatter dtf;
+	private final boolean fastPathEnabled;
+
+	// Zone offset of the last parsed value, since records of a producer share the same offset
+	private final char[] cachedOffset = new char[MAX_LENGTH - DATE_TIME_LENGTH];
+	private int cachedOffsetLength = -1;
+	private int cachedOffsetSeconds;
+
+	// Scratch chars to parse CharSequence values
+	private final char[] scratch = new char[MAX_LENGTH];
+
+	/**
+	 * Constructor using format field
+	 * 
+	 * @param format
+	 *            Pattern of time field values for DateTimeFormatter
+	 */
+	public TimestampParser(String format) {
+		super();
+		this.dtf = DateTimeFormatter.ofPattern(format);
+		this.fastPathEnabled = DEFAULT_FORMAT.equals(format);
+	}
+
+	/**
+	 * Parse a time field value to epoch millis.
+	 * 
+	 * @param text
+	 *            Time field value
+	 * @return epoch millis
+	 * @throws java.time.format.DateTimeParseException
+	 *             if the value does not match the format
+	 */
+	public long parse(CharSequence text) {
+		if (fastPathEnabled && text.length() >= MIN_LENGTH && text.length() <= MAX_LENGTH) {
+			int length = text.length();
+			for (int i = 0; i < length; i++) {
+				scratch[i] = text.charAt(i);
+			}
+			long epochMillis = parseFast(scratch, 0, length);
+			if (epochMillis != INVALID) {
+				return epochMillis;
+			}
+		}
+		return ZonedDateTime.parse(text, dtf).toInstant().toEpochMilli();
+	}
+
+	/**
+	 * Parse a time field value to epoch millis.
+	 * 
+	 * @param chars
+	 *            Buffer including the time field value
+	 * @param offset
+	 *            Offset of the value in the buffer
+	 * @param length
+	 *            Length of the value
+	 * @return epoch millis
+	 * @throws java.time.format.DateTimeParseException
+	 *             if the value does not match the format
+	 */
+	public long parse(char[] chars, int offset, int length) {
+		if (fastPathEnabled) {
+			long epochMillis = parseFast(chars, offset, length);
+			if (epochMillis != INVALID) {
+				return epochMillis;
+			}
+		}
+		return ZonedDateTime.parse(new String(chars, offset, length), dtf).toInstant().toEpochMilli();
+	}
+
+	private long parseFast(char[] c, int off, int len) {
+		if (len < MIN_LENGTH || len > MAX_LENGTH || c[off + 4] != '-' || c[off + 7] != '-' || c[off + 10] != 'T' || c[off + 13] != ':'
+				|| c[off + 16] != ':' || c[off + 19] != '.') {
+			return INVALID;
+		}
+		int year = digits(c, off, 4);
+		int month = digits(c, off + 5, 2);
+		int day = digits(c, off + 8, 2);
+		int hour = digits(c, off + 11, 2);
+		int minute = digits(c, off + 14, 2);
+		int second = digits(c, off + 17, 2);
+		int millis = digits(c, off + 20, 3);
+		if (year < 0 || month < 1 || month > 12 || day < 1 || day > lengthOfMonth(year, month) || hour < 0 || hour > 23 || minute < 0
+				|| minute > 59 || second < 0 || second > 59 || millis < 0) {
+			return INVALID;
+		}
+		int offsetSeconds = offsetSeconds(c, off + DATE_TIME_LENGTH, len - DATE_TIME_LENGTH);
+		if (offsetSeconds == Integer.MIN_VALUE) {
+			return INVALID;
+		}
+		long epochSeconds = epochDay(year, month, day) * 86400L + hour * 3600 + minute * 60 + second - offsetSeconds;
+		return epochSeconds * 1000L + millis;
+	}
+
+	private int offsetSeconds(char[] c, int off, int len) {
+		if (len == cachedOffsetLength) {
+			boolean cached = true;
+			for (int i = 0; i < len; i++) {
+				if (c[off + i] != cachedOffset[i]) {
+					cached = false;
+					break;
+				}
+			}
+			if (cached) {
+				return cachedOffsetSeconds;
+			}
+		}
+
+		// "+HH:MM" or "+HH:MM:ss"
+		char sign = c[off];
+		if ((len != 6 && len != 9) || (sign != '+' && sign != '-') || c[off + 3] != ':' || (len == 9 && c[off + 6] != ':')) {
+			return Integer.MIN_VALUE;
+		}
+		int hours = digits(c, off + 1, 2);
+		int minutes = digits(c, off + 4, 2);
+		int seconds = len == 9 ? digits(c, off + 7, 2) : 0;
+		if (hours < 0 || hours > 18 || minutes < 0 || minutes > 59 || seconds < 0 || seconds > 59) {
+			return Integer.MIN_VALUE;
+		}
+		int offsetSeconds = hours * 3600 + minutes * 60 + seconds;
+		if (sign == '-') {
+			offsetSeconds = -offsetSeconds;
+		}
+
+		System.arraycopy(c, off, cachedOffset, 0, len);
+		cachedOffsetLength = len;
+		cachedOffsetSeconds = offsetSeconds;
+		return offsetSeconds;
+	}
+
+	private static int digits(char[] c, int off, int count) {
+		int value = 0;
+		for (int i = off; i < off + count; i++) {
+			int digit = c[i] - '0';
+			if (digit < 0 || digit > 9) {
+				return -1;
+			}
+			value = value * 10 + digit;
+		}
+		return value;
+	}
+
+	private static int lengthOfMonth(int year, int month) {
+		switch (month) {
+		case 2:
+			return (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+		case 4:
+		case 6:
+		case 9:
+		case 11:
+			return 30;
+		default:
+			return 31;
+		}
+	}
+
+	// Days from 1970-01-01 in the proleptic Gregorian calendar
+	private static long epochDay(int year, int month, int day) {
+		long y = month <= 2 ? year - 1 : year;
+		long era = (y >= 0 ? y : y - 399) / 400;
+		long yearOfEra = y - era * 400;
+		long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+		long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		return era * 146097 + dayOfEra - 719468;
+	}
+}
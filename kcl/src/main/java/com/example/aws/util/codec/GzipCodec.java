@@ -0,0 +1,170 @@
+package com.example.aws.util.codec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+
+/**
+ * GZIP codec on a Deflater and an Inflater which are reset and reused for every payload, instead of GZIPOutputStream and GZIPInputStream
+ * which allocate native zlib state for each stream. Writes and reads the standard GZIP member format, so that a payload can also be read
+ * by any gzip tool once the payload header is stripped.
+ */
+public class GzipCodec implements PayloadCodec {
+
+	public static final byte ID = 1;
+
+	// Magic, CM = deflate, no flags, no mtime, no extra flags, OS = unknown
+	private static final byte[] HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+	private static final int TRAILER_LENGTH = 8;
+	private static final int FHCRC = 2;
+	private static final int FEXTRA = 4;
+	private static final int FNAME = 8;
+	private static final int FCOMMENT = 16;
+
+	private final Deflater deflater;
+	private final Inflater inflater = new Inflater(true);
+	private final CRC32 crc = new CRC32();
+	private final byte[] chunk = new byte[4096];
+	private final int maxDecompressedBytes;
+
+	/**
+	 * Constructor using level and maxDecompressedBytes fields
+	 * 
+	 * @param level
+	 *            Deflate level between 1 and 9, or -1 for the default level
+	 * @param maxDecompressedBytes
+	 *            Largest payload to decompress, to refuse a payload which would inflate beyond memory
+	 */
+	public GzipCodec(int level, int maxDecompressedBytes) {
+		super();
+		this.deflater = new Deflater(level, true);
+		this.maxDecompressedBytes = maxDecompressedBytes;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public byte getId() {
+		return ID;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String getName() {
+		return "gzip";
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void compress(byte[] data, int offset, int length, ByteArrayBuilder out) {
+		out.write(HEADER);
+		deflater.reset();
+		deflater.setInput(data, offset, length);
+		deflater.finish();
+		while (!deflater.finished()) {
+			out.write(chunk, 0, deflater.deflate(chunk));
+		}
+		crc.reset();
+		crc.update(data, offset, length);
+		writeIntLE(out, (int) crc.getValue());
+		writeIntLE(out, length);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public ByteBuffer decompress(byte[] data, int offset, int length, ByteBuffer buffer) throws IOException {
+		int end = offset + length;
+		int position = skipHeader(data, offset, end);
+		buffer.clear();
+		inflater.reset();
+		inflater.setInput(data, position, end - position);
+		try {
+			while (!inflater.finished()) {
+				if (!buffer.hasRemaining()) {
+					if (buffer.capacity() >= maxDecompressedBytes) {
+						throw new ZipException("Decompressed payload exceeds " + maxDecompressedBytes + " bytes");
+					}
+					int capacity = (int) Math.min(maxDecompressedBytes, Math.max(chunk.length, 2L * buffer.capacity()));
+					ByteBuffer larger = ByteBuffer.allocate(capacity);
+					buffer.flip();
+					buffer = larger.put(buffer);
+				}
+				int inflated = inflater.inflate(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+				if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					throw new ZipException("Truncated gzip payload");
+				}
+				buffer.position(buffer.position() + inflated);
+			}
+		} catch (DataFormatException e) {
+			throw new ZipException("Invalid gzip payload: " + e.getMessage());
+		}
+		buffer.flip();
+
+		int trailer = end - inflater.getRemaining();
+		if (end - trailer < TRAILER_LENGTH) {
+			throw new ZipException("Truncated gzip trailer");
+		}
+		crc.reset();
+		crc.update(buffer.array(), buffer.arrayOffset(), buffer.limit());
+		if (readIntLE(data, trailer) != (int) crc.getValue() || readIntLE(data, trailer + 4) != buffer.limit()) {
+			throw new ZipException("Corrupt gzip payload: CRC or size mismatch");
+		}
+		return buffer;
+	}
+
+	// Position of the deflate stream after the GZIP member header, skipping the optional fields a gzip tool may have written
+	private static int skipHeader(byte[] data, int offset, int end) throws IOException {
+		if (end - offset < HEADER.length || data[offset] != HEADER[0] || data[offset + 1] != HEADER[1]
+				|| data[offset + 2] != Deflater.DEFLATED) {
+			throw new ZipException("Not in gzip format");
+		}
+		int flags = data[offset + 3] & 0xff;
+		int position = offset + HEADER.length;
+		try {
+			if ((flags & FEXTRA) != 0) {
+				position += 2 + ((data[position] & 0xff) | (data[position + 1] & 0xff) << 8);
+			}
+			if ((flags & FNAME) != 0) {
+				while (data[position++] != 0) {
+				}
+			}
+			if ((flags & FCOMMENT) != 0) {
+				while (data[position++] != 0) {
+				}
+			}
+			if ((flags & FHCRC) != 0) {
+				position += 2;
+			}
+		} catch (ArrayIndexOutOfBoundsException e) {
+			throw new ZipException("Truncated gzip header");
+		}
+		if (position > end) {
+			throw new ZipException("Truncated gzip header");
+		}
+		return position;
+	}
+
+	private static void writeIntLE(ByteArrayBuilder out, int value) {
+		out.write(value);
+		out.write(value >>> 8);
+		out.write(value >>> 16);
+		out.write(value >>> 24);
+	}
+
+	private static int readIntLE(byte[] data, int offset) {
+		return (data[offset] & 0xff) | (data[offset + 1] & 0xff) << 8 | (data[offset + 2] & 0xff) << 16 | (data[offset + 3] & 0xff) << 24;
+	}
+}
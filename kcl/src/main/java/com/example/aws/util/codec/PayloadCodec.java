@@ -0,0 +1,50 @@
+package com.example.aws.util.codec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+
+/**
+ * Compresses record payloads. The codec ID goes in the header which PayloadEncoder puts in front of the compressed bytes, so that
+ * PayloadDecoder can pick the codec back. An implementation may reuse native resources between calls, so an instance is not thread safe.
+ */
+public interface PayloadCodec {
+
+	/**
+	 * @return ID of the codec written in the payload header, which must never change once records have been written with it
+	 */
+	byte getId();
+
+	/**
+	 * @return name of the codec, e.g. "gzip"
+	 */
+	String getName();
+
+	/**
+	 * Compress bytes.
+	 * 
+	 * @param data
+	 * @param offset
+	 * @param length
+	 * @param out
+	 *            Buffer to append the compressed bytes to
+	 * @throws IOException
+	 */
+	void compress(byte[] data, int offset, int length, ByteArrayBuilder out) throws IOException;
+
+	/**
+	 * Decompress bytes.
+	 * 
+	 * @param data
+	 * @param offset
+	 * @param length
+	 * @param buffer
+	 *            Heap buffer to decompress into, which is cleared first
+	 * @return buffer holding the decompressed bytes between position 0 and its limit, which is the given buffer or a larger one if it was
+	 *         too small
+	 * @throws IOException
+	 *             if the bytes are not valid for the codec
+	 */
+	ByteBuffer decompress(byte[] data, int offset, int length, ByteBuffer buffer) throws IOException;
+}
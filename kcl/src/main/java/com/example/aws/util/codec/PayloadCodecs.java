@@ -0,0 +1,77 @@
+package com.example.aws.util.codec;
+
+import java.nio.ByteBuffer;
+import java.util.zip.Deflater;
+
+import com.example.aws.util.Config;
+
+/**
+ * Creates payload codecs, and defines the payload header which marks a compressed payload: two magic bytes followed by the codec ID. The
+ * first magic byte 0xFF never appears in UTF-8 text, so that JSON payloads written without a codec are never mistaken for compressed ones.
+ */
+public class PayloadCodecs {
+
+	public static final byte MAGIC_0 = (byte) 0xff;
+	public static final byte MAGIC_1 = (byte) 0xc0;
+	public static final int HEADER_LENGTH = 3;
+
+	// Largest decompressed payload accepted, well above the 1 MiB limit of a record, so that a corrupt payload cannot exhaust memory
+	private static final int MAX_DECOMPRESSED_BYTES = 64 * 1024 * 1024;
+
+	/**
+	 * Create a codec by name.
+	 * 
+	 * @param name
+	 *            "gzip", or "none" for no codec
+	 * @return codec, or null for "none"
+	 */
+	public static PayloadCodec createCodec(String name) {
+		switch (name) {
+		case "none":
+			return null;
+		case "gzip":
+			return new GzipCodec(Deflater.DEFAULT_COMPRESSION, MAX_DECOMPRESSED_BYTES);
+		case "lz4":
+		case "zstd":
+			// IDs 2 and 3 are reserved for them, to be added together with their libraries.
+			throw new IllegalArgumentException("Payload codec " + name + " is not available in this build");
+		default:
+			throw new IllegalArgumentException("Unknown payload codec: " + name);
+		}
+	}
+
+	/**
+	 * Create a codec by the ID in a payload header.
+	 * 
+	 * @param id
+	 *            Codec ID
+	 * @return codec, or null if the ID is unknown
+	 */
+	public static PayloadCodec createCodec(byte id) {
+		switch (id) {
+		case GzipCodec.ID:
+			return createCodec("gzip");
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Create an encoder with payload.codec and payload.codec.min.bytes.
+	 * 
+	 * @return payload encoder
+	 */
+	public static PayloadEncoder encoderFromConfig() {
+		return new PayloadEncoder(createCodec(Config.PAYLOAD_CODEC), Config.PAYLOAD_CODEC_MIN_BYTES);
+	}
+
+	/**
+	 * @param data
+	 *            Payload
+	 * @return true if the payload starts with the payload header
+	 */
+	public static boolean hasHeader(ByteBuffer data) {
+		int position = data.position();
+		return data.remaining() >= HEADER_LENGTH && data.get(position) == MAGIC_0 && data.get(position + 1) == MAGIC_1;
+	}
+}
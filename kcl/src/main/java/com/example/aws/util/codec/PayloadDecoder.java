@@ -0,0 +1,60 @@
+package com.example.aws.util.codec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.ZipException;
+
+/**
+ * Decompress record payloads on the consumer side. A payload with the payload header is decompressed by the codec in the header, into a
+ * buffer which is reused for the next payload, and a payload without the header, e.g. one written before compression was enabled, is
+ * returned as it is. The codecs and the buffers are created on first use and kept for the life of the decoder. An instance is not thread
+ * safe, so use one for each record processor.
+ */
+public class PayloadDecoder {
+
+	private static final int INITIAL_BUFFER_SIZE = 4096;
+
+	// Codecs by ID, created on first use
+	private final PayloadCodec[] codecs = new PayloadCodec[256];
+	private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+	// Copy of payloads which are not backed by an accessible array, e.g. read-only buffers
+	private byte[] input = new byte[0];
+
+	/**
+	 * Decode a payload. The position of the given buffer is not changed.
+	 * 
+	 * @param data
+	 *            Payload as received
+	 * @return decompressed payload, which is valid only until the next call, or the given payload if it has no header
+	 * @throws IOException
+	 *             if the codec is unknown or the payload is corrupt
+	 */
+	public ByteBuffer decode(ByteBuffer data) throws IOException {
+		if (!PayloadCodecs.hasHeader(data)) {
+			return data;
+		}
+		byte id = data.get(data.position() + 2);
+		PayloadCodec codec = codecs[id & 0xff];
+		if (codec == null) {
+			codec = PayloadCodecs.createCodec(id);
+			if (codec == null) {
+				throw new ZipException("Unknown payload codec ID: " + (id & 0xff));
+			}
+			codecs[id & 0xff] = codec;
+		}
+
+		int length = data.remaining() - PayloadCodecs.HEADER_LENGTH;
+		if (data.hasArray()) {
+			buffer = codec.decompress(data.array(), data.arrayOffset() + data.position() + PayloadCodecs.HEADER_LENGTH, length, buffer);
+		} else {
+			if (input.length < length) {
+				input = new byte[length];
+			}
+			ByteBuffer duplicate = data.duplicate();
+			duplicate.position(duplicate.position() + PayloadCodecs.HEADER_LENGTH);
+			duplicate.get(input, 0, length);
+			buffer = codec.decompress(input, 0, length, buffer);
+		}
+		return buffer;
+	}
+}
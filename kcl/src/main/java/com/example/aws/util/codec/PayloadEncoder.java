@@ -0,0 +1,64 @@
+package com.example.aws.util.codec;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+
+/**
+ * Compress record payloads on the producer side and put the payload header in front of them. Payloads smaller than a threshold, and
+ * payloads which do not get smaller, are sent as they are without the header, which consumers accept as well. An instance is not thread
+ * safe, so use one for each producer thread.
+ */
+public class PayloadEncoder {
+
+	private final PayloadCodec codec;
+	private final int minBytes;
+	private final ByteArrayBuilder buffer = new ByteArrayBuilder(1024);
+
+	/**
+	 * Constructor using codec and minBytes fields
+	 * 
+	 * @param codec
+	 *            Codec, or null to send payloads as they are
+	 * @param minBytes
+	 *            Smallest payload to compress, since the header and the codec framing outweigh the saving on small payloads
+	 */
+	public PayloadEncoder(PayloadCodec codec, int minBytes) {
+		super();
+		this.codec = codec;
+		this.minBytes = minBytes;
+	}
+
+	/**
+	 * Encode a payload.
+	 * 
+	 * @param data
+	 *            Payload
+	 * @return header and compressed payload, or the given payload if it is not compressed
+	 */
+	public byte[] encode(byte[] data) {
+		if (codec == null || data.length < minBytes) {
+			return data;
+		}
+		buffer.reset();
+		buffer.write(PayloadCodecs.MAGIC_0);
+		buffer.write(PayloadCodecs.MAGIC_1);
+		buffer.write(codec.getId());
+		try {
+			codec.compress(data, 0, data.length, buffer);
+		} catch (IOException e) {
+			// Compressing into memory never throws IOException.
+			throw new UncheckedIOException(e);
+		}
+		return buffer.size() < data.length ? buffer.toByteArray() : data;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		return codec != null ? codec.getName() + " for payloads of " + minBytes + " bytes or more" : "none";
+	}
+}
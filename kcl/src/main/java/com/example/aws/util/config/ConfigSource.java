@@ -0,0 +1,116 @@
+package com.example.aws.util.config;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Looks up settings from, in order of precedence, system properties, environment variables and a properties file, falling back to the
+ * default. The environment variable of a setting is its key in upper case with dots replaced by underscores, e.g. CHECKPOINT_MAX_RECORDS
+ * for checkpoint.max.records. The file is given by config.file, and is watched every config.reload.interval.millis so that the tunables
+ * are reloaded when it changes. System properties and environment variables cannot change while the JVM runs, so set a setting to tune at
+ * runtime in the file only. A config.file which does not exist fails at startup. If it is deleted later, the last settings are kept,
+ * and the deletion is logged once.
+ */
+public class ConfigSource {
+
+	private static final Log LOG = LogFactory.getLog(ConfigSource.class);
+
+	// The file and its reload interval themselves can only be given by system properties and environment variables.
+	private static final String FILE_PATH = lookup("config.file", new Properties(), "");
+	private static final long RELOAD_INTERVAL_MILLIS = Long
+			.parseLong(lookup("config.reload.interval.millis", new Properties(), "10000"));
+
+	private static volatile Properties fileProperties = new Properties();
+	private static long fileLastModified = 0L;
+	private static boolean fileMissing = false;
+	private static ScheduledExecutorService watcher = null;
+
+	static {
+		if (!FILE_PATH.isEmpty()) {
+			if (!new File(FILE_PATH).isFile()) {
+				throw new IllegalArgumentException("config.file " + FILE_PATH + " does not exist");
+			}
+			reloadFile();
+		}
+	}
+
+	/**
+	 * Get a setting.
+	 * 
+	 * @param key
+	 *            e.g. checkpoint.max.records
+	 * @param defaultValue
+	 *            value if the setting is not given anywhere
+	 * @return value of the setting
+	 */
+	public static String get(String key, String defaultValue) {
+		return lookup(key, fileProperties, defaultValue);
+	}
+
+	/**
+	 * Start watching the file for changes, unless no file is given, reloading is disabled or it is already started.
+	 */
+	public static synchronized void startWatching() {
+		if (watcher != null || FILE_PATH.isEmpty() || RELOAD_INTERVAL_MILLIS <= 0L) {
+			return;
+		}
+		watcher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "config-watcher");
+			thread.setDaemon(true);
+			return thread;
+		});
+		watcher.scheduleWithFixedDelay(() -> {
+			if (reloadFile()) {
+				Tunable.reloadAll();
+			}
+		}, RELOAD_INTERVAL_MILLIS, RELOAD_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	// Read the file again if it has been modified, keeping the previous properties if it cannot be read
+	private static synchronized boolean reloadFile() {
+		File file = new File(FILE_PATH);
+		if (!file.isFile()) {
+			if (!fileMissing) {
+				fileMissing = true;
+				LOG.warn("Config file " + FILE_PATH + " does not exist any more, keeping the previous settings");
+			}
+			return false;
+		}
+		fileMissing = false;
+		long lastModified = file.lastModified();
+		if (lastModified == fileLastModified) {
+			return false;
+		}
+		Properties properties = new Properties();
+		try (InputStream in = Files.newInputStream(file.toPath())) {
+			properties.load(in);
+		} catch (IOException e) {
+			LOG.warn("Couldn't read config file " + FILE_PATH + ", keeping the previous settings", e);
+			return false;
+		}
+		fileLastModified = lastModified;
+		fileProperties = properties;
+		LOG.info("Loaded " + properties.size() + " settings from config file " + FILE_PATH);
+		return true;
+	}
+
+	private static String lookup(String key, Properties file, String defaultValue) {
+		String value = System.getProperty(key);
+		if (value == null) {
+			value = System.getenv(key.toUpperCase().replace('.', '_'));
+		}
+		if (value == null) {
+			value = file.getProperty(key);
+		}
+		return value != null ? value.trim() : defaultValue;
+	}
+}
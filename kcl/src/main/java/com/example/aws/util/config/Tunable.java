@@ -0,0 +1,205 @@
+package com.example.aws.util.config;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Typed setting within a range which can be changed while the application runs, by changing it in the config file of ConfigSource. An
+ * invalid value fails at startup, and is logged and ignored on reload so that a typo does not take a running worker down. Read the current
+ * value with get() where it is used, e.g. once per record or batch, or take changes with onChange() where a change needs an action, e.g.
+ * resizing a queue. A tunable may be bound to be at least another one, e.g. a maximum backoff to be at least the base backoff, which
+ * is checked against the values of both after the file is reloaded. An instance is thread safe.
+ * 
+ * @param <T>
+ *            type of the value
+ */
+public class Tunable<T extends Comparable<T>> {
+
+	private static final Log LOG = LogFactory.getLog(Tunable.class);
+
+	private static final List<Tunable<?>> TUNABLES = new CopyOnWriteArrayList<>();
+
+	private final String key;
+	private final String defaultValue;
+	private final Function<String, T> parser;
+	private final T min;
+	private final T max;
+	private final List<Consumer<T>> listeners = new CopyOnWriteArrayList<>();
+	private volatile T value;
+	// Value read on the current reload, applied if it is also within the bounds of the other tunables
+	private T pending;
+	// Tunables which this one must be at least and at most
+	private volatile Tunable<T> lowerBound = null;
+	private volatile Tunable<T> upperBound = null;
+
+	private Tunable(String key, String defaultValue, Function<String, T> parser, T min, T max) {
+		this.key = key;
+		this.defaultValue = defaultValue;
+		this.parser = parser;
+		this.min = min;
+		this.max = max;
+		this.value = parse(ConfigSource.get(key, defaultValue));
+		this.pending = value;
+		TUNABLES.add(this);
+		ConfigSource.startWatching();
+	}
+
+	/**
+	 * Create a tunable long value.
+	 * 
+	 * @param key
+	 * @param defaultValue
+	 * @param min
+	 *            smallest valid value
+	 * @param max
+	 *            largest valid value
+	 * @return tunable
+	 */
+	public static Tunable<Long> ofLong(String key, long defaultValue, long min, long max) {
+		return new Tunable<>(key, String.valueOf(defaultValue), Long::valueOf, min, max);
+	}
+
+	/**
+	 * Create a tunable int value.
+	 * 
+	 * @param key
+	 * @param defaultValue
+	 * @param min
+	 *            smallest valid value
+	 * @param max
+	 *            largest valid value
+	 * @return tunable
+	 */
+	public static Tunable<Integer> ofInt(String key, int defaultValue, int min, int max) {
+		return new Tunable<>(key, String.valueOf(defaultValue), Integer::valueOf, min, max);
+	}
+
+	/**
+	 * Create a tunable double value.
+	 * 
+	 * @param key
+	 * @param defaultValue
+	 * @param min
+	 *            smallest valid value
+	 * @param max
+	 *            largest valid value
+	 * @return tunable
+	 */
+	public static Tunable<Double> ofDouble(String key, double defaultValue, double min, double max) {
+		return new Tunable<>(key, String.valueOf(defaultValue), Double::valueOf, min, max);
+	}
+
+	/**
+	 * Bind this tunable to be at least another one, failing now if it is not.
+	 * 
+	 * @param other
+	 *            Tunable which this one must be at least, e.g. retry.base.millis for retry.max.millis
+	 * @return this tunable
+	 */
+	public Tunable<T> atLeast(Tunable<T> other) {
+		if (value.compareTo(other.value) < 0) {
+			throw new IllegalArgumentException(key + " must be at least " + other.key + "=" + other.value + " but was " + value);
+		}
+		lowerBound = other;
+		other.upperBound = this;
+		return this;
+	}
+
+	/**
+	 * Look up all the tunables again, applying the values which have changed and are valid. The bounds between tunables are checked
+	 * against the values read on this reload, so that two bound tunables can be moved together in one change of the file.
+	 */
+	public static synchronized void reloadAll() {
+		for (Tunable<?> tunable : TUNABLES) {
+			tunable.read();
+		}
+		for (Tunable<?> tunable : TUNABLES) {
+			tunable.apply();
+		}
+	}
+
+	/**
+	 * @return current value
+	 */
+	public T get() {
+		return value;
+	}
+
+	/**
+	 * @return key of the setting, e.g. checkpoint.max.records
+	 */
+	public String getKey() {
+		return key;
+	}
+
+	/**
+	 * Call a listener with each new value, on the thread which reloads the settings.
+	 * 
+	 * @param listener
+	 */
+	public void onChange(Consumer<T> listener) {
+		listeners.add(listener);
+	}
+
+	// Read the value of this reload into pending, keeping the current value if it is invalid
+	private synchronized void read() {
+		try {
+			pending = parse(ConfigSource.get(key, defaultValue));
+		} catch (IllegalArgumentException e) {
+			LOG.warn("Ignoring invalid " + key + ", keeping " + value + ": " + e.getMessage());
+			pending = value;
+		}
+	}
+
+	// Apply the pending value if it has changed and is within the pending values of the bound tunables
+	private synchronized void apply() {
+		T newValue = pending;
+		if (newValue.equals(value)) {
+			return;
+		}
+		Tunable<T> lower = lowerBound;
+		Tunable<T> upper = upperBound;
+		if (lower != null && newValue.compareTo(lower.pending) < 0 || upper != null && newValue.compareTo(upper.pending) > 0) {
+			Tunable<T> bound = lower != null && newValue.compareTo(lower.pending) < 0 ? lower : upper;
+			LOG.warn("Ignoring " + key + "=" + newValue + ", keeping " + value + ": it must be "
+					+ (bound == lower ? "at least " : "at most ") + bound.key + "=" + bound.pending);
+			pending = value;
+			return;
+		}
+		LOG.info("Changing " + key + " from " + value + " to " + newValue);
+		value = newValue;
+		for (Consumer<T> listener : listeners) {
+			try {
+				listener.accept(newValue);
+			} catch (RuntimeException e) {
+				LOG.error("Listener of " + key + " failed on " + newValue, e);
+			}
+		}
+	}
+
+	private T parse(String text) {
+		T parsed;
+		try {
+			parsed = parser.apply(text);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException(key + " must be a number but was \"" + text + "\"", e);
+		}
+		if (parsed.compareTo(min) < 0 || parsed.compareTo(max) > 0) {
+			throw new IllegalArgumentException(key + " must be between " + min + " and " + max + " but was " + parsed);
+		}
+		return parsed;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		return key + "=" + value;
+	}
+}
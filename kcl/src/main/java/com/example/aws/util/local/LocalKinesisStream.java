@@ -0,0 +1,471 @@
+package com.example.aws.util.local;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.example.aws.util.Config;
+
+/**
+ * In-memory stand-in for a Kinesis data stream, so that the producers and the KCL consumers can run end to end in one JVM without AWS. The
+ * stream has a fixed number of open shards which split the hash key space evenly, and keeps up to a number of records in each shard,
+ * trimming the oldest ones. Each shard enforces the write limits of a real shard, 1000 records/s and 1 MiB/s, and the read limits, 5
+ * GetRecords calls/s and 2 MiB/s, unless the limits are disabled. This class knows nothing of the SDKs, which are adapted to it by
+ * LocalAmazonKinesis for SDK v1 and LocalKinesisAsyncClient for SDK v2. An instance is thread safe.
+ */
+public class LocalKinesisStream {
+
+	// Streams of this JVM by name, shared by the producers and the consumers running in it
+	private static final Map<String, LocalKinesisStream> STREAMS = new ConcurrentHashMap<>();
+
+	// GetRecords returns up to 10000 records and 10 MiB in one call
+	private static final int MAX_RECORDS_PER_GET = 10000;
+	private static final long MAX_BYTES_PER_GET = 10L * 1024 * 1024;
+
+	private static final BigInteger HASH_KEY_SPACE = BigInteger.ONE.shiftLeft(128);
+
+	private final String streamName;
+	private final List<LocalShard> shards;
+	private final int retentionRecords;
+	private final boolean limitsEnabled;
+	// Sequence numbers increase across the stream, so that they can be compared as numbers like real ones.
+	private final AtomicLong nextSequenceNumber = new AtomicLong(1L);
+	private final ThreadLocal<MessageDigest> md5 = ThreadLocal.withInitial(() -> {
+		try {
+			return MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	});
+
+	/**
+	 * Constructor using streamName, shardCount, retentionRecords and limitsEnabled fields
+	 * 
+	 * @param streamName
+	 * @param shardCount
+	 *            Number of shards, which split the hash key space evenly
+	 * @param retentionRecords
+	 *            Number of records kept in each shard
+	 * @param limitsEnabled
+	 *            false to accept any rate of reads and writes
+	 */
+	public LocalKinesisStream(String streamName, int shardCount, int retentionRecords, boolean limitsEnabled) {
+		super();
+		this.streamName = streamName;
+		this.retentionRecords = Math.max(1, retentionRecords);
+		this.limitsEnabled = limitsEnabled;
+		int count = Math.max(1, shardCount);
+		List<LocalShard> shardList = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			BigInteger startingHashKey = HASH_KEY_SPACE.multiply(BigInteger.valueOf(i)).divide(BigInteger.valueOf(count));
+			BigInteger endingHashKey = HASH_KEY_SPACE.multiply(BigInteger.valueOf(i + 1L)).divide(BigInteger.valueOf(count))
+					.subtract(BigInteger.ONE);
+			shardList.add(new LocalShard(String.format("shardId-%012d", i), startingHashKey, endingHashKey));
+		}
+		this.shards = Collections.unmodifiableList(shardList);
+	}
+
+	/**
+	 * Get the stream of this JVM with a name, creating it with kinesis.local.shards, kinesis.local.retention.records and
+	 * kinesis.local.limits.enabled on first use.
+	 * 
+	 * @param streamName
+	 * @return local stream
+	 */
+	public static LocalKinesisStream get(String streamName) {
+		return STREAMS.computeIfAbsent(streamName, name -> new LocalKinesisStream(name, Config.KINESIS_LOCAL_SHARDS,
+				Config.KINESIS_LOCAL_RETENTION_RECORDS, Config.KINESIS_LOCAL_LIMITS_ENABLED));
+	}
+
+	/**
+	 * Get the stream which a shard iterator was issued by.
+	 * 
+	 * @param shardIterator
+	 * @return local stream
+	 * @throws IllegalArgumentException
+	 *             if the shard iterator is not valid
+	 */
+	public static LocalKinesisStream ofShardIterator(String shardIterator) {
+		int separator = shardIterator != null ? shardIterator.indexOf('/') : -1;
+		if (separator < 0) {
+			throw new IllegalArgumentException("Invalid shard iterator: " + shardIterator);
+		}
+		return get(shardIterator.substring(0, separator));
+	}
+
+	public String getStreamName() {
+		return streamName;
+	}
+
+	/**
+	 * @return shards in the order of their hash key ranges
+	 */
+	public List<LocalShard> getShards() {
+		return shards;
+	}
+
+	/**
+	 * Put a record to the shard which its hash key belongs to.
+	 * 
+	 * @param partitionKey
+	 * @param explicitHashKey
+	 *            Explicit hash key in decimal, or null to hash the partition key
+	 * @param data
+	 * @return sequence number and shard of the record
+	 * @throws ThroughputExceededException
+	 *             if the shard is over its write limits
+	 */
+	public PutResult put(String partitionKey, String explicitHashKey, byte[] data) {
+		BigInteger hashKey = explicitHashKey != null ? new BigInteger(explicitHashKey)
+				: new BigInteger(1, md5.get().digest(partitionKey.getBytes(StandardCharsets.UTF_8)));
+		LocalShard shard = shardOf(hashKey);
+		long bytes = data.length + partitionKey.getBytes(StandardCharsets.UTF_8).length;
+		return shard.append(partitionKey, data, bytes);
+	}
+
+	/**
+	 * Get a shard iterator.
+	 * 
+	 * @param shardId
+	 * @param type
+	 *            TRIM_HORIZON, LATEST, AT_SEQUENCE_NUMBER, AFTER_SEQUENCE_NUMBER or AT_TIMESTAMP
+	 * @param startingSequenceNumber
+	 *            Sequence number for AT_SEQUENCE_NUMBER and AFTER_SEQUENCE_NUMBER
+	 * @param timestampInMillis
+	 *            Arrival time for AT_TIMESTAMP
+	 * @return shard iterator
+	 * @throws IllegalArgumentException
+	 *             if the shard is unknown or the arguments are not valid
+	 */
+	public String getShardIterator(String shardId, String type, String startingSequenceNumber, long timestampInMillis) {
+		LocalShard shard = shard(shardId);
+		long position;
+		switch (type) {
+		case "TRIM_HORIZON":
+			position = shard.trimHorizon();
+			break;
+		case "LATEST":
+			position = shard.latest();
+			break;
+		case "AT_SEQUENCE_NUMBER":
+			position = shard.positionOf(parseSequenceNumber(startingSequenceNumber), false);
+			break;
+		case "AFTER_SEQUENCE_NUMBER":
+			position = shard.positionOf(parseSequenceNumber(startingSequenceNumber), true);
+			break;
+		case "AT_TIMESTAMP":
+			position = shard.positionAt(timestampInMillis);
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown shard iterator type: " + type);
+		}
+		return streamName + "/" + shardId + "/" + position;
+	}
+
+	/**
+	 * Get records from a shard iterator.
+	 * 
+	 * @param shardIterator
+	 * @param limit
+	 *            Maximum number of records, or 0 for the maximum of GetRecords
+	 * @return records and the next shard iterator
+	 * @throws ThroughputExceededException
+	 *             if the shard is over its read limits
+	 * @throws IllegalArgumentException
+	 *             if the shard iterator is not valid
+	 */
+	public GetResult getRecords(String shardIterator, int limit) {
+		// A shard iterator is the stream name, the shard ID and the position of the next record, separated by slashes.
+		int separator = shardIterator != null ? shardIterator.lastIndexOf('/') : -1;
+		if (separator < 0 || !shardIterator.startsWith(streamName + "/")) {
+			throw new IllegalArgumentException("Invalid shard iterator: " + shardIterator);
+		}
+		long position;
+		try {
+			position = Long.parseLong(shardIterator.substring(separator + 1));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid shard iterator: " + shardIterator);
+		}
+		LocalShard shard = shard(shardIterator.substring(streamName.length() + 1, separator));
+		return shard.read(position, limit > 0 ? Math.min(limit, MAX_RECORDS_PER_GET) : MAX_RECORDS_PER_GET);
+	}
+
+	private LocalShard shard(String shardId) {
+		for (LocalShard shard : shards) {
+			if (shard.shardId.equals(shardId)) {
+				return shard;
+			}
+		}
+		throw new IllegalArgumentException("Shard " + shardId + " not found in stream " + streamName);
+	}
+
+	private LocalShard shardOf(BigInteger hashKey) {
+		if (hashKey.signum() < 0 || hashKey.compareTo(HASH_KEY_SPACE) >= 0) {
+			throw new IllegalArgumentException("Hash key out of range: " + hashKey);
+		}
+		int index = hashKey.multiply(BigInteger.valueOf(shards.size())).divide(HASH_KEY_SPACE).intValue();
+		// Rounding of the shard boundaries may put a key at the edge into the neighbour.
+		while (hashKey.compareTo(shards.get(index).startingHashKey) < 0) {
+			index--;
+		}
+		while (hashKey.compareTo(shards.get(index).endingHashKey) > 0) {
+			index++;
+		}
+		return shards.get(index);
+	}
+
+	private static long parseSequenceNumber(String sequenceNumber) {
+		try {
+			return Long.parseLong(sequenceNumber);
+		} catch (NumberFormatException | NullPointerException e) {
+			throw new IllegalArgumentException("Invalid sequence number: " + sequenceNumber);
+		}
+	}
+
+	private static String formatSequenceNumber(long sequenceNumber) {
+		return String.format("%021d", sequenceNumber);
+	}
+
+	/**
+	 * Shard of a local stream
+	 */
+	public class LocalShard {
+		private final String shardId;
+		private final BigInteger startingHashKey;
+		private final BigInteger endingHashKey;
+		// Records from position trimmed on, where the position of a record counts all the records ever appended to the shard
+		private final List<StoredRecord> records = new ArrayList<>();
+		private long trimmed = 0L;
+		private final TokenBucket writeRecords = new TokenBucket(1000L);
+		private final TokenBucket writeBytes = new TokenBucket(1024L * 1024);
+		private final TokenBucket readCalls = new TokenBucket(5L);
+		private final TokenBucket readBytes = new TokenBucket(2L * 1024 * 1024);
+
+		private LocalShard(String shardId, BigInteger startingHashKey, BigInteger endingHashKey) {
+			this.shardId = shardId;
+			this.startingHashKey = startingHashKey;
+			this.endingHashKey = endingHashKey;
+		}
+
+		public String getShardId() {
+			return shardId;
+		}
+
+		public String getStartingHashKey() {
+			return startingHashKey.toString();
+		}
+
+		public String getEndingHashKey() {
+			return endingHashKey.toString();
+		}
+
+		public String getStartingSequenceNumber() {
+			return formatSequenceNumber(0L);
+		}
+
+		private synchronized PutResult append(String partitionKey, byte[] data, long bytes) {
+			if (limitsEnabled) {
+				if (!writeRecords.hasTokens(1L) || !writeBytes.hasTokens(bytes)) {
+					throw new ThroughputExceededException("Rate exceeded for shard " + shardId + " in stream " + streamName);
+				}
+				writeRecords.take(1L);
+				writeBytes.take(bytes);
+			}
+			long sequenceNumber = nextSequenceNumber.getAndIncrement();
+			records.add(new StoredRecord(sequenceNumber, System.currentTimeMillis(), partitionKey, data));
+			if (records.size() > retentionRecords) {
+				// Trim in chunks, so that the cost of shifting the list is spread over many appends.
+				int excess = records.size() - retentionRecords + retentionRecords / 10;
+				records.subList(0, excess).clear();
+				trimmed += excess;
+			}
+			return new PutResult(shardId, formatSequenceNumber(sequenceNumber));
+		}
+
+		private synchronized GetResult read(long position, int limit) {
+			if (limitsEnabled) {
+				if (!readCalls.hasTokens(1L) || !readBytes.hasTokens(1L)) {
+					throw new ThroughputExceededException("Rate exceeded for shard " + shardId + " in stream " + streamName);
+				}
+				readCalls.take(1L);
+			}
+			// An iterator into the trimmed records reads from the oldest record, as a real iterator past the retention period would.
+			int from = (int) Math.max(0L, Math.min(position - trimmed, records.size()));
+			List<StoredRecord> result = new ArrayList<>();
+			long bytes = 0L;
+			int index = from;
+			while (index < records.size() && result.size() < limit) {
+				StoredRecord record = records.get(index);
+				if (!result.isEmpty() && bytes + record.data.length > MAX_BYTES_PER_GET) {
+					break;
+				}
+				result.add(record);
+				bytes += record.data.length;
+				index++;
+			}
+			if (limitsEnabled) {
+				// Reads may go over the limit within a call, which then holds off the following calls.
+				readBytes.take(bytes);
+			}
+			long millisBehindLatest = index < records.size()
+					? Math.max(0L, System.currentTimeMillis() - records.get(index).arrivalTimeInMillis) : 0L;
+			return new GetResult(result, streamName + "/" + shardId + "/" + (trimmed + index), millisBehindLatest);
+		}
+
+		private synchronized long trimHorizon() {
+			return trimmed;
+		}
+
+		private synchronized long latest() {
+			return trimmed + records.size();
+		}
+
+		private synchronized long positionOf(long sequenceNumber, boolean after) {
+			int index = Collections.binarySearch(records, new StoredRecord(sequenceNumber, 0L, null, null),
+					(a, b) -> Long.compare(a.sequenceNumber, b.sequenceNumber));
+			if (index >= 0) {
+				return trimmed + index + (after ? 1 : 0);
+			}
+			// Sequence numbers of other shards fall between the records of this shard.
+			return trimmed - index - 1;
+		}
+
+		private synchronized long positionAt(long timestampInMillis) {
+			int index = 0;
+			while (index < records.size() && records.get(index).arrivalTimeInMillis < timestampInMillis) {
+				index++;
+			}
+			return trimmed + index;
+		}
+	}
+
+	/**
+	 * Record kept in a local shard
+	 */
+	public static class StoredRecord {
+		private final long sequenceNumber;
+		private final long arrivalTimeInMillis;
+		private final String partitionKey;
+		private final byte[] data;
+
+		private StoredRecord(long sequenceNumber, long arrivalTimeInMillis, String partitionKey, byte[] data) {
+			this.sequenceNumber = sequenceNumber;
+			this.arrivalTimeInMillis = arrivalTimeInMillis;
+			this.partitionKey = partitionKey;
+			this.data = data;
+		}
+
+		public String getSequenceNumber() {
+			return formatSequenceNumber(sequenceNumber);
+		}
+
+		public long getArrivalTimeInMillis() {
+			return arrivalTimeInMillis;
+		}
+
+		public String getPartitionKey() {
+			return partitionKey;
+		}
+
+		/**
+		 * @return data of the record, which must not be modified
+		 */
+		public byte[] getData() {
+			return data;
+		}
+	}
+
+	/**
+	 * Result of putting a record
+	 */
+	public static class PutResult {
+		private final String shardId;
+		private final String sequenceNumber;
+
+		private PutResult(String shardId, String sequenceNumber) {
+			this.shardId = shardId;
+			this.sequenceNumber = sequenceNumber;
+		}
+
+		public String getShardId() {
+			return shardId;
+		}
+
+		public String getSequenceNumber() {
+			return sequenceNumber;
+		}
+	}
+
+	/**
+	 * Result of getting records
+	 */
+	public static class GetResult {
+		private final List<StoredRecord> records;
+		private final String nextShardIterator;
+		private final long millisBehindLatest;
+
+		private GetResult(List<StoredRecord> records, String nextShardIterator, long millisBehindLatest) {
+			this.records = records;
+			this.nextShardIterator = nextShardIterator;
+			this.millisBehindLatest = millisBehindLatest;
+		}
+
+		public List<StoredRecord> getRecords() {
+			return records;
+		}
+
+		public String getNextShardIterator() {
+			return nextShardIterator;
+		}
+
+		public long getMillisBehindLatest() {
+			return millisBehindLatest;
+		}
+	}
+
+	/**
+	 * Thrown when a shard is over its read or write limits, which the adapters turn into ProvisionedThroughputExceededException
+	 */
+	public static class ThroughputExceededException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		public ThroughputExceededException(String message) {
+			super(message);
+		}
+	}
+
+	// Tokens refill continuously up to one second worth of the rate. Called only while holding the lock of the shard.
+	private static class TokenBucket {
+		private final long perSecond;
+		private double tokens;
+		private long lastRefillTimeInNanos = System.nanoTime();
+
+		private TokenBucket(long perSecond) {
+			this.perSecond = perSecond;
+			this.tokens = perSecond;
+		}
+
+		// A request larger than the whole bucket is let through once the bucket is full, so that it is not refused forever.
+		private boolean hasTokens(long amount) {
+			refill();
+			return tokens >= Math.min(amount, perSecond);
+		}
+
+		private void take(long amount) {
+			tokens -= amount;
+		}
+
+		private void refill() {
+			long now = System.nanoTime();
+			tokens = Math.min(perSecond, tokens + (now - lastRefillTimeInNanos) * perSecond / 1e9);
+			lastRefillTimeInNanos = now;
+		}
+	}
+}
@@ -0,0 +1,346 @@
+package com.example.aws.util.metrics;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.example.aws.util.Config;
+
+/**
+ * Per-shard and worker-wide MillisBehindLatest of the record processors, with whether the lag is growing or shrinking, reported to the
+ * log on a fixed interval. A lag event is raised when a shard or the worker falls more than lag.alert.threshold.millis behind and cleared
+ * when it is back under lag.alert.clear.millis, so that listeners can add workers or shards before the backlog becomes an outage. A
+ * worker whose lag keeps growing with every shard busy needs more workers, and one whose lag grows on a few hot shards needs those split.
+ */
+public class LagTracker {
+
+	private static final Log LOG = LogFactory.getLog(LagTracker.class);
+
+	private static final Map<String, Lag> SHARD_LAGS = new ConcurrentHashMap<>();
+	// Lag of the worker, which is the lag of its furthest behind shard
+	private static final Lag WORKER_LAG = new Lag(null);
+	private static final List<Listener> LISTENERS = new CopyOnWriteArrayList<>();
+	private static ScheduledExecutorService reporter = null;
+
+	/**
+	 * Get the lag of a shard, starting the reporter on first use.
+	 * 
+	 * @param shardId
+	 * @return lag of the shard
+	 */
+	public static Lag forShard(String shardId) {
+		startReporter();
+		return SHARD_LAGS.computeIfAbsent(shardId, Lag::new);
+	}
+
+	/**
+	 * Stop tracking a shard, e.g. when its lease is lost or it has ended, and update the worker lag without it.
+	 * 
+	 * @param shardId
+	 */
+	public static void remove(String shardId) {
+		if (SHARD_LAGS.remove(shardId) != null) {
+			fire(updateWorkerLag());
+		}
+	}
+
+	/**
+	 * @return lag of all the tracked shards
+	 */
+	public static Map<String, Lag> shardLags() {
+		return SHARD_LAGS;
+	}
+
+	/**
+	 * @return worker-wide lag, which is the lag of the furthest behind shard
+	 */
+	public static Lag workerLag() {
+		return WORKER_LAG;
+	}
+
+	/**
+	 * Add a listener of lag events, which is called on the thread of the record processor whose lag crossed a threshold.
+	 * 
+	 * @param listener
+	 */
+	public static void addListener(Listener listener) {
+		LISTENERS.add(listener);
+	}
+
+	/**
+	 * Remove a listener of lag events.
+	 * 
+	 * @param listener
+	 */
+	public static void removeListener(Listener listener) {
+		LISTENERS.remove(listener);
+	}
+
+	private static synchronized void startReporter() {
+		if (reporter != null || Config.LAG_REPORT_INTERVAL_MILLIS <= 0L) {
+			return;
+		}
+		reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "lag-reporter");
+			thread.setDaemon(true);
+			return thread;
+		});
+		reporter.scheduleAtFixedRate(LagTracker::report, Config.LAG_REPORT_INTERVAL_MILLIS, Config.LAG_REPORT_INTERVAL_MILLIS,
+				TimeUnit.MILLISECONDS);
+	}
+
+	private static void report() {
+		if (SHARD_LAGS.isEmpty()) {
+			return;
+		}
+		SHARD_LAGS.forEach((shardId, lag) -> LOG.info("Lag of shard " + shardId + ": " + lag.reportAndResetPeak()));
+		LOG.info("Lag of worker: " + WORKER_LAG.reportAndResetPeak());
+	}
+
+	// Update the worker lag after a shard has been updated, and deliver the events of both
+	private static void updated(LagEvent shardEvent) {
+		LagEvent workerEvent = updateWorkerLag();
+		fire(shardEvent);
+		fire(workerEvent);
+	}
+
+	// Compute the worker lag from the shards and apply it in one step, so that an update computed from older shard lags never overwrites
+	// a newer one. Events are delivered by the caller outside the lock, so that a slow listener does not hold up the other shards.
+	private static LagEvent updateWorkerLag() {
+		synchronized (WORKER_LAG) {
+			long workerMillisBehindLatest = 0L;
+			for (Lag lag : SHARD_LAGS.values()) {
+				workerMillisBehindLatest = Math.max(workerMillisBehindLatest, lag.getMillisBehindLatest());
+			}
+			return WORKER_LAG.update(workerMillisBehindLatest, System.currentTimeMillis());
+		}
+	}
+
+	private static void fire(LagEvent event) {
+		if (event == null) {
+			return;
+		}
+		if (event.getType() == LagEvent.Type.RAISED) {
+			LOG.warn(event);
+		} else {
+			LOG.info(event);
+		}
+		for (Listener listener : LISTENERS) {
+			try {
+				listener.onLagEvent(event);
+			} catch (RuntimeException e) {
+				LOG.error("Lag listener failed on " + event, e);
+			}
+		}
+	}
+
+	/**
+	 * Direction in which the lag is moving.
+	 */
+	public enum Trend {
+		GROWING, STEADY, SHRINKING
+	}
+
+	/**
+	 * Receives lag events.
+	 */
+	public interface Listener {
+
+		/**
+		 * Called when a shard or the worker crosses a lag threshold.
+		 * 
+		 * @param event
+		 */
+		void onLagEvent(LagEvent event);
+	}
+
+	/**
+	 * MillisBehindLatest of a shard or of the worker over time.
+	 */
+	public static class Lag {
+		// The growth rate is smoothed over about this window, so that a single slow batch does not flip the trend.
+		private static final double TREND_WINDOW_MILLIS = 30000.0;
+		// Lag changing by less than 10 milliseconds per second, i.e. 1% of the time passed, is taken as steady.
+		private static final double STEADY_MILLIS_PER_SECOND = 10.0;
+
+		private final String shardId;
+		private long millisBehindLatest = 0L;
+		private long peakMillisBehindLatest = 0L;
+		private long lastUpdateMillis = 0L;
+		private double growthMillisPerSecond = 0.0;
+		private boolean alerting = false;
+
+		private Lag(String shardId) {
+			this.shardId = shardId;
+		}
+
+		/**
+		 * Record the MillisBehindLatest given with a batch of records, raising or clearing a lag event if it crossed a threshold.
+		 * 
+		 * @param millisBehindLatest
+		 */
+		public void record(long millisBehindLatest) {
+			LagTracker.updated(update(millisBehindLatest, System.currentTimeMillis()));
+		}
+
+		private synchronized LagEvent update(long newMillisBehindLatest, long nowMillis) {
+			long elapsedMillis = nowMillis - lastUpdateMillis;
+			if (lastUpdateMillis > 0L && elapsedMillis > 0L) {
+				// Exponentially weighted by the time passed, so that the trend does not depend on how often batches arrive.
+				double rate = (newMillisBehindLatest - millisBehindLatest) * 1000.0 / elapsedMillis;
+				double weight = 1.0 - Math.exp(-elapsedMillis / TREND_WINDOW_MILLIS);
+				growthMillisPerSecond += weight * (rate - growthMillisPerSecond);
+			}
+			millisBehindLatest = newMillisBehindLatest;
+			peakMillisBehindLatest = Math.max(peakMillisBehindLatest, newMillisBehindLatest);
+			lastUpdateMillis = nowMillis;
+
+			if (Config.LAG_ALERT_THRESHOLD_MILLIS <= 0L) {
+				return null;
+			}
+			if (!alerting && newMillisBehindLatest > Config.LAG_ALERT_THRESHOLD_MILLIS) {
+				alerting = true;
+				return new LagEvent(shardId, LagEvent.Type.RAISED, newMillisBehindLatest, getTrend(), growthMillisPerSecond);
+			}
+			if (alerting && newMillisBehindLatest < Config.LAG_ALERT_CLEAR_MILLIS) {
+				alerting = false;
+				return new LagEvent(shardId, LagEvent.Type.CLEARED, newMillisBehindLatest, getTrend(), growthMillisPerSecond);
+			}
+			return null;
+		}
+
+		/**
+		 * @return shard ID, or null for the worker
+		 */
+		public String getShardId() {
+			return shardId;
+		}
+
+		/**
+		 * @return last recorded MillisBehindLatest
+		 */
+		public synchronized long getMillisBehindLatest() {
+			return millisBehindLatest;
+		}
+
+		/**
+		 * @return smoothed change of the lag in milliseconds per second, positive if the lag is growing
+		 */
+		public synchronized double getGrowthMillisPerSecond() {
+			return growthMillisPerSecond;
+		}
+
+		/**
+		 * @return whether the lag is growing, steady or shrinking
+		 */
+		public synchronized Trend getTrend() {
+			if (growthMillisPerSecond > STEADY_MILLIS_PER_SECOND) {
+				return Trend.GROWING;
+			} else if (growthMillisPerSecond < -STEADY_MILLIS_PER_SECOND) {
+				return Trend.SHRINKING;
+			}
+			return Trend.STEADY;
+		}
+
+		/**
+		 * @return whether a lag event has been raised and not cleared yet
+		 */
+		public synchronized boolean isAlerting() {
+			return alerting;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public synchronized String toString() {
+			return millisBehindLatest + " milliseconds behind latest (peak " + peakMillisBehindLatest + "), " + getTrend() + " at "
+					+ Math.round(growthMillisPerSecond) + " milliseconds per second";
+		}
+
+		// Describe the lag for the report, starting the peak over for the next interval
+		private synchronized String reportAndResetPeak() {
+			String text = toString();
+			peakMillisBehindLatest = millisBehindLatest;
+			return text;
+		}
+	}
+
+	/**
+	 * A shard or the worker crossing a lag threshold.
+	 */
+	public static class LagEvent {
+
+		/**
+		 * RAISED when the lag went over lag.alert.threshold.millis, CLEARED when it came back under lag.alert.clear.millis.
+		 */
+		public enum Type {
+			RAISED, CLEARED
+		}
+
+		private final String shardId;
+		private final Type type;
+		private final long millisBehindLatest;
+		private final Trend trend;
+		private final double growthMillisPerSecond;
+
+		private LagEvent(String shardId, Type type, long millisBehindLatest, Trend trend, double growthMillisPerSecond) {
+			this.shardId = shardId;
+			this.type = type;
+			this.millisBehindLatest = millisBehindLatest;
+			this.trend = trend;
+			this.growthMillisPerSecond = growthMillisPerSecond;
+		}
+
+		/**
+		 * @return shard ID, or null for the worker
+		 */
+		public String getShardId() {
+			return shardId;
+		}
+
+		/**
+		 * @return whether the lag went over or came back under the thresholds
+		 */
+		public Type getType() {
+			return type;
+		}
+
+		/**
+		 * @return MillisBehindLatest which crossed the threshold
+		 */
+		public long getMillisBehindLatest() {
+			return millisBehindLatest;
+		}
+
+		/**
+		 * @return trend of the lag when it crossed the threshold
+		 */
+		public Trend getTrend() {
+			return trend;
+		}
+
+		/**
+		 * @return smoothed change of the lag in milliseconds per second when it crossed the threshold
+		 */
+		public double getGrowthMillisPerSecond() {
+			return growthMillisPerSecond;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public String toString() {
+			return "Lag " + type + " for " + (shardId != null ? "shard " + shardId : "worker") + ": " + millisBehindLatest
+					+ " milliseconds behind latest, " + trend + " at " + Math.round(growthMillisPerSecond) + " milliseconds per second";
+		}
+	}
+}
@@ -0,0 +1,156 @@
+package com.example.aws.util.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * Lock-free histogram of latencies in milliseconds with log-linear buckets, accurate to about 3% of the value. Recording is a single atomic
+ * increment, so it is cheap enough for every record.
+ */
+public class LatencyHistogram {
+
+	// Each power of two range is split into 32 linear sub buckets.
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	// Values are capped at 2^40 milliseconds (about 35 years).
+	private static final int MAX_EXPONENT = 40;
+	private static final int BUCKET_COUNT = SUB_BUCKET_COUNT + (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0L);
+
+	/**
+	 * Record a latency. Negative values, e.g. caused by clock skew between producer and consumer, are recorded as zero.
+	 * 
+	 * @param millis
+	 */
+	public void record(long millis) {
+		long value = Math.max(0L, millis);
+		counts.incrementAndGet(bucketIndex(value));
+		max.accumulate(value);
+	}
+
+	/**
+	 * Take a snapshot of the recorded latencies and reset the histogram for the next interval.
+	 * 
+	 * @return snapshot
+	 */
+	public Snapshot snapshotAndReset() {
+		long[] snapshotCounts = new long[BUCKET_COUNT];
+		long totalCount = 0L;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			snapshotCounts[i] = counts.getAndSet(i, 0L);
+			totalCount += snapshotCounts[i];
+		}
+		return new Snapshot(snapshotCounts, totalCount, max.getThenReset());
+	}
+
+	/**
+	 * Take a snapshot of the recorded latencies without resetting the histogram.
+	 * 
+	 * @return snapshot
+	 */
+	public Snapshot snapshot() {
+		long[] snapshotCounts = new long[BUCKET_COUNT];
+		long totalCount = 0L;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			snapshotCounts[i] = counts.get(i);
+			totalCount += snapshotCounts[i];
+		}
+		return new Snapshot(snapshotCounts, totalCount, max.get());
+	}
+
+	private static int bucketIndex(long value) {
+		if (value < SUB_BUCKET_COUNT) {
+			return (int) value;
+		}
+		int exponent = Math.min(63 - Long.numberOfLeadingZeros(value), MAX_EXPONENT);
+		int subBucket = (int) Math.min(value >>> (exponent - SUB_BUCKET_BITS), 2 * SUB_BUCKET_COUNT - 1) - SUB_BUCKET_COUNT;
+		return SUB_BUCKET_COUNT + (exponent - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT + subBucket;
+	}
+
+	private static long bucketValue(int index) {
+		if (index < SUB_BUCKET_COUNT) {
+			return index;
+		}
+		int exponent = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_COUNT + SUB_BUCKET_BITS;
+		int subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_COUNT;
+		long width = 1L << (exponent - SUB_BUCKET_BITS);
+		// Middle of the bucket
+		return (SUB_BUCKET_COUNT + subBucket) * width + width / 2;
+	}
+
+	/**
+	 * Latencies recorded in an interval.
+	 */
+	public static class Snapshot {
+		private final long[] counts;
+		private final long count;
+		private final long max;
+
+		private Snapshot(long[] counts, long count, long max) {
+			this.counts = counts;
+			this.count = count;
+			this.max = max;
+		}
+
+		/**
+		 * @return number of recorded latencies
+		 */
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * @return maximum recorded latency
+		 */
+		public long getMax() {
+			return max;
+		}
+
+		/**
+		 * Combine this snapshot with another, e.g. to get the percentiles across shards.
+		 *
+		 * @param other
+		 * @return snapshot of the latencies recorded in both
+		 */
+		public Snapshot merge(Snapshot other) {
+			long[] mergedCounts = new long[BUCKET_COUNT];
+			for (int i = 0; i < BUCKET_COUNT; i++) {
+				mergedCounts[i] = counts[i] + other.counts[i];
+			}
+			return new Snapshot(mergedCounts, count + other.count, Math.max(max, other.max));
+		}
+
+		/**
+		 * Get the latency at a percentile.
+		 * 
+		 * @param percentile
+		 *            e.g. 99.9
+		 * @return latency in milliseconds, or 0 if nothing was recorded
+		 */
+		public long getPercentile(double percentile) {
+			if (count == 0L) {
+				return 0L;
+			}
+			long rank = Math.max(1L, (long) Math.ceil(count * percentile / 100.0));
+			long seen = 0L;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen >= rank) {
+					return Math.min(bucketValue(i), max);
+				}
+			}
+			return max;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public String toString() {
+			return "count=" + count + " p50=" + getPercentile(50.0) + " p90=" + getPercentile(90.0) + " p99=" + getPercentile(99.0)
+					+ " p999=" + getPercentile(99.9) + " max=" + max;
+		}
+	}
+}
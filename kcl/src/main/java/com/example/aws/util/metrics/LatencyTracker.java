@@ -0,0 +1,97 @@
+package com.example.aws.util.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.example.aws.util.Config;
+
+/**
+ * Per-shard end-to-end latency histograms of the record processors, reported to the log on a fixed interval.
+ */
+public class LatencyTracker {
+
+	private static final Log LOG = LogFactory.getLog(LatencyTracker.class);
+
+	private static final Map<String, ShardLatency> SHARD_LATENCIES = new ConcurrentHashMap<>();
+	private static ScheduledExecutorService reporter = null;
+
+	/**
+	 * Get the latency histograms of a shard, starting the reporter on first use.
+	 * 
+	 * @param shardId
+	 * @return latency histograms of the shard
+	 */
+	public static ShardLatency forShard(String shardId) {
+		startReporter();
+		return SHARD_LATENCIES.computeIfAbsent(shardId, id -> new ShardLatency());
+	}
+
+	/**
+	 * Stop tracking a shard, e.g. when its lease is lost or it has ended.
+	 * 
+	 * @param shardId
+	 */
+	public static void remove(String shardId) {
+		ShardLatency shardLatency = SHARD_LATENCIES.remove(shardId);
+		if (shardLatency != null) {
+			report(shardId, shardLatency);
+		}
+	}
+
+	/**
+	 * @return latency histograms of all the tracked shards
+	 */
+	public static Map<String, ShardLatency> shardLatencies() {
+		return SHARD_LATENCIES;
+	}
+
+	private static synchronized void startReporter() {
+		if (reporter != null || Config.LATENCY_REPORT_INTERVAL_MILLIS <= 0L) {
+			return;
+		}
+		reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "latency-reporter");
+			thread.setDaemon(true);
+			return thread;
+		});
+		reporter.scheduleAtFixedRate(() -> SHARD_LATENCIES.forEach(LatencyTracker::report), Config.LATENCY_REPORT_INTERVAL_MILLIS,
+				Config.LATENCY_REPORT_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	private static void report(String shardId, ShardLatency shardLatency) {
+		LatencyHistogram.Snapshot producerToConsumer = shardLatency.producerToConsumer.snapshotAndReset();
+		LatencyHistogram.Snapshot arrivalToProcessing = shardLatency.arrivalToProcessing.snapshotAndReset();
+		if (producerToConsumer.getCount() > 0L || arrivalToProcessing.getCount() > 0L) {
+			LOG.info("Latency of shard " + shardId + " in milliseconds - producer to consumer: " + producerToConsumer
+					+ ", arrival to processing: " + arrivalToProcessing);
+		}
+	}
+
+	/**
+	 * Latency histograms of a shard.
+	 */
+	public static class ShardLatency {
+		private final LatencyHistogram producerToConsumer = new LatencyHistogram();
+		private final LatencyHistogram arrivalToProcessing = new LatencyHistogram();
+
+		/**
+		 * @return histogram of time from record creation by the producer to processing
+		 */
+		public LatencyHistogram getProducerToConsumer() {
+			return producerToConsumer;
+		}
+
+		/**
+		 * @return histogram of time from record arrival in the stream to processing
+		 */
+		public LatencyHistogram getArrivalToProcessing() {
+			return arrivalToProcessing;
+		}
+	}
+}
@@ -0,0 +1,126 @@
+package com.example.aws.util.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Aggregate of the values recorded for a metric name and set of dimensions since the start of this JVM. Recording is lock-free, with the
+ * count and sum kept in striped adders and the distribution in a LatencyHistogram of the values rounded to whole numbers.
+ */
+public class LocalMetric implements LocalMetricMBean {
+
+	private final String name;
+	private final SortedMap<String, String> dimensions;
+	private final String unit;
+
+	private final LongAdder count = new LongAdder();
+	private final DoubleAdder sum = new DoubleAdder();
+	private final LatencyHistogram histogram = new LatencyHistogram();
+
+	LocalMetric(String name, SortedMap<String, String> dimensions, String unit) {
+		this.name = name;
+		this.dimensions = Collections.unmodifiableSortedMap(dimensions);
+		this.unit = unit;
+	}
+
+	/**
+	 * Record a value.
+	 * 
+	 * @param value
+	 */
+	public void record(double value) {
+		count.increment();
+		sum.add(value);
+		histogram.record(Math.round(value));
+	}
+
+	/**
+	 * @return dimensions of the metric sorted by name
+	 */
+	public Map<String, String> dimensions() {
+		return dimensions;
+	}
+
+	/**
+	 * @return distribution of the recorded values
+	 */
+	public LatencyHistogram.Snapshot snapshot() {
+		return histogram.snapshot();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String getDimensions() {
+		return dimensions.toString();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String getUnit() {
+		return unit;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public double getSum() {
+		return sum.sum();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public double getMean() {
+		long currentCount = count.sum();
+		return currentCount > 0L ? sum.sum() / currentCount : 0.0;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long getMax() {
+		return histogram.snapshot().getMax();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long getP50() {
+		return histogram.snapshot().getPercentile(50.0);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long getP99() {
+		return histogram.snapshot().getPercentile(99.0);
+	}
+}
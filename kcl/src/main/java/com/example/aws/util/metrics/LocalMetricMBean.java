@@ -0,0 +1,52 @@
+package com.example.aws.util.metrics;
+
+/**
+ * JMX view of a local metric.
+ */
+public interface LocalMetricMBean {
+
+	/**
+	 * @return name of the metric, e.g. RecordsProcessed
+	 */
+	String getName();
+
+	/**
+	 * @return dimensions of the metric, e.g. {Operation=ProcessTask, ShardId=shardId-000000000000}
+	 */
+	String getDimensions();
+
+	/**
+	 * @return unit of the values, e.g. Count or Milliseconds
+	 */
+	String getUnit();
+
+	/**
+	 * @return number of recorded values
+	 */
+	long getCount();
+
+	/**
+	 * @return sum of the recorded values
+	 */
+	double getSum();
+
+	/**
+	 * @return mean of the recorded values, or 0 if nothing was recorded
+	 */
+	double getMean();
+
+	/**
+	 * @return maximum recorded value
+	 */
+	long getMax();
+
+	/**
+	 * @return median of the recorded values
+	 */
+	long getP50();
+
+	/**
+	 * @return 99th percentile of the recorded values
+	 */
+	long getP99();
+}
@@ -0,0 +1,238 @@
+package com.example.aws.util.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.example.aws.util.Config;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * In-process registry of the metrics which the KCL and the record processors report through the local metrics factories. Each metric
+ * is registered as an MBean under com.example.aws.metrics and served in the Prometheus text format at /metrics of metrics.http.port.
+ * The metrics of a shard are removed when its record processor shuts down, and at most metrics.max.series metrics are kept, so that the
+ * registry does not grow with every shard the worker has ever processed.
+ */
+public class LocalMetrics {
+
+	private static final Log LOG = LogFactory.getLog(LocalMetrics.class);
+
+	private static final String JMX_DOMAIN = "com.example.aws.metrics";
+	private static final String TEXT_METRIC_PREFIX = "kcl_";
+
+	private static final ConcurrentMap<String, LocalMetric> METRICS = new ConcurrentHashMap<>();
+	private static final Set<String> CLOUDWATCH_FORWARD = parseNames(Config.METRICS_CLOUDWATCH_FORWARD);
+	private static final String SHARD_ID_DIMENSION = "ShardId";
+	private static final AtomicBoolean FULL_WARNED = new AtomicBoolean(false);
+	private static HttpServer httpServer = null;
+
+	/**
+	 * Record a value of a metric, registering the metric on first use, or dropping the value if metrics.max.series metrics are registered.
+	 * 
+	 * @param name
+	 * @param dimensions
+	 *            dimensions sorted by name
+	 * @param dimensionsKey
+	 *            dimensions.toString(), which is shared by the values of a scope
+	 * @param value
+	 * @param unit
+	 */
+	public static void record(String name, SortedMap<String, String> dimensions, String dimensionsKey, double value, String unit) {
+		String key = name + dimensionsKey;
+		// Look up before putting, since computeIfAbsent of Java 8 locks even when the metric exists.
+		LocalMetric metric = METRICS.get(key);
+		if (metric == null) {
+			if (METRICS.size() >= Config.METRICS_MAX_SERIES) {
+				if (FULL_WARNED.compareAndSet(false, true)) {
+					LOG.warn("Dropping values of new metrics such as " + key + ", since " + METRICS.size() + " metrics are registered");
+				}
+				return;
+			}
+			LocalMetric newMetric = new LocalMetric(name, new TreeMap<>(dimensions), unit);
+			metric = METRICS.putIfAbsent(key, newMetric);
+			if (metric == null) {
+				metric = newMetric;
+				register(newMetric);
+			}
+		}
+		metric.record(value);
+	}
+
+	/**
+	 * Remove the metrics of a shard and their MBeans, e.g. when its lease is lost or it has ended.
+	 * 
+	 * @param shardId
+	 */
+	public static void removeShard(String shardId) {
+		for (Iterator<LocalMetric> iterator = METRICS.values().iterator(); iterator.hasNext();) {
+			LocalMetric metric = iterator.next();
+			if (shardId.equals(metric.dimensions().get(SHARD_ID_DIMENSION))) {
+				iterator.remove();
+				unregister(metric);
+			}
+		}
+	}
+
+	/**
+	 * @return all the registered metrics
+	 */
+	public static Collection<LocalMetric> metrics() {
+		return Collections.unmodifiableCollection(METRICS.values());
+	}
+
+	/**
+	 * Whether a metric is also published to CloudWatch, as selected by metrics.cloudwatch.forward.
+	 * 
+	 * @param name
+	 * @return true if the metric is forwarded
+	 */
+	public static boolean isForwarded(String name) {
+		return CLOUDWATCH_FORWARD.contains(name);
+	}
+
+	/**
+	 * Start the scrape endpoint on metrics.http.host and metrics.http.port, unless it is disabled or already started. The metrics stay
+	 * available via JMX if the address cannot be bound.
+	 */
+	public static synchronized void startHttpServer() {
+		if (httpServer != null || Config.METRICS_HTTP_PORT <= 0) {
+			return;
+		}
+		InetSocketAddress address = new InetSocketAddress(Config.METRICS_HTTP_HOST, Config.METRICS_HTTP_PORT);
+		if (address.isUnresolved()) {
+			LOG.warn("Couldn't start metrics endpoint on unknown host " + Config.METRICS_HTTP_HOST);
+			return;
+		}
+		try {
+			HttpServer server = HttpServer.create(address, 0);
+			server.createContext("/metrics", exchange -> {
+				byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+				exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+				exchange.sendResponseHeaders(200, body.length);
+				try (OutputStream out = exchange.getResponseBody()) {
+					out.write(body);
+				}
+			});
+			// The dispatcher thread of the server inherits being a daemon from the thread which starts it, so start it from a daemon
+			// thread not to keep the JVM running after the consumer has shut down.
+			Thread starter = new Thread(server::start, "metrics-http-server-starter");
+			starter.setDaemon(true);
+			starter.start();
+			starter.join();
+			httpServer = server;
+			LOG.info("Serving metrics at http://" + Config.METRICS_HTTP_HOST + ":" + Config.METRICS_HTTP_PORT + "/metrics");
+		} catch (IOException e) {
+			LOG.warn("Couldn't start metrics endpoint on " + Config.METRICS_HTTP_HOST + ":" + Config.METRICS_HTTP_PORT, e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Render all the metrics in the Prometheus text format, each as a summary of its count, sum and quantiles with the dimensions as
+	 * labels.
+	 * 
+	 * @return metrics text
+	 */
+	public static String scrape() {
+		StringBuilder text = new StringBuilder();
+		String previousName = null;
+		// Sorted by name and dimensions, so that the metrics of a name are together under one TYPE line.
+		for (LocalMetric metric : new TreeMap<>(METRICS).values()) {
+			String name = TEXT_METRIC_PREFIX + sanitize(metric.getName());
+			if (!name.equals(previousName)) {
+				text.append("# TYPE ").append(name).append(" summary\n");
+				previousName = name;
+			}
+			String labels = labels(metric.dimensions());
+			LatencyHistogram.Snapshot snapshot = metric.snapshot();
+			appendQuantile(text, name, labels, "0.5", snapshot.getPercentile(50.0));
+			appendQuantile(text, name, labels, "0.9", snapshot.getPercentile(90.0));
+			appendQuantile(text, name, labels, "0.99", snapshot.getPercentile(99.0));
+			appendQuantile(text, name, labels, "1", snapshot.getMax());
+			text.append(name).append("_sum").append(braces(labels)).append(' ').append(metric.getSum()).append('\n');
+			text.append(name).append("_count").append(braces(labels)).append(' ').append(metric.getCount()).append('\n');
+		}
+		return text.toString();
+	}
+
+	private static void register(LocalMetric metric) {
+		String objectName = objectName(metric);
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(metric, new ObjectName(objectName));
+		} catch (JMException e) {
+			LOG.warn("Couldn't register metric " + objectName + " to JMX", e);
+		}
+	}
+
+	private static void unregister(LocalMetric metric) {
+		String objectName = objectName(metric);
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(objectName));
+		} catch (JMException e) {
+			LOG.debug("Couldn't unregister metric " + objectName + " from JMX", e);
+		}
+	}
+
+	private static String objectName(LocalMetric metric) {
+		StringBuilder objectName = new StringBuilder(JMX_DOMAIN).append(":name=").append(ObjectName.quote(metric.getName()));
+		for (Map.Entry<String, String> dimension : metric.dimensions().entrySet()) {
+			objectName.append(',').append(sanitize(dimension.getKey())).append('=').append(ObjectName.quote(dimension.getValue()));
+		}
+		return objectName.toString();
+	}
+
+	private static void appendQuantile(StringBuilder text, String name, String labels, String quantile, long value) {
+		text.append(name).append('{').append(labels).append(labels.isEmpty() ? "" : ",").append("quantile=\"").append(quantile)
+				.append("\"} ").append(value).append('\n');
+	}
+
+	private static String labels(Map<String, String> dimensions) {
+		StringBuilder labels = new StringBuilder();
+		for (Map.Entry<String, String> dimension : dimensions.entrySet()) {
+			if (labels.length() > 0) {
+				labels.append(',');
+			}
+			labels.append(sanitize(dimension.getKey())).append("=\"").append(dimension.getValue().replace("\\", "\\\\")
+					.replace("\"", "\\\"").replace("\n", "\\n")).append('"');
+		}
+		return labels.toString();
+	}
+
+	private static String braces(String labels) {
+		return labels.isEmpty() ? "" : "{" + labels + "}";
+	}
+
+	private static String sanitize(String name) {
+		return name.replaceAll("[^A-Za-z0-9_]", "_");
+	}
+
+	private static Set<String> parseNames(String names) {
+		Set<String> set = new HashSet<>();
+		for (String name : names.split(",")) {
+			if (!name.trim().isEmpty()) {
+				set.add(name.trim());
+			}
+		}
+		return set;
+	}
+}
@@ -0,0 +1,68 @@
+package com.example.aws.util.metrics;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Metrics of an operation, e.g. processing a batch of records of a shard. Like the scopes of the KCL, the data are held until the scope
+ * ends and are then recorded to LocalMetrics with all the dimensions of the scope, whenever the dimensions were added.
+ */
+public class LocalMetricsScope {
+
+	private final SortedMap<String, String> dimensions = new TreeMap<>();
+	private String[] names = new String[8];
+	private double[] values = new double[8];
+	private String[] units = new String[8];
+	private int size = 0;
+
+	/**
+	 * Add a value of a metric.
+	 * 
+	 * @param name
+	 * @param value
+	 * @param unit
+	 *            e.g. Count or Milliseconds
+	 */
+	public void addData(String name, double value, String unit) {
+		if (size == names.length) {
+			names = Arrays.copyOf(names, size * 2);
+			values = Arrays.copyOf(values, size * 2);
+			units = Arrays.copyOf(units, size * 2);
+		}
+		names[size] = name;
+		values[size] = value;
+		units[size] = unit;
+		size++;
+	}
+
+	/**
+	 * Add a dimension to all the data of this scope.
+	 * 
+	 * @param name
+	 * @param value
+	 */
+	public void addDimension(String name, String value) {
+		dimensions.put(name, value);
+	}
+
+	/**
+	 * @return dimensions added so far
+	 */
+	public Map<String, String> dimensions() {
+		return Collections.unmodifiableMap(dimensions);
+	}
+
+	/**
+	 * Record the data of this scope.
+	 */
+	public void end() {
+		String dimensionsKey = dimensions.toString();
+		for (int i = 0; i < size; i++) {
+			LocalMetrics.record(names[i], dimensions, dimensionsKey, values[i], units[i]);
+		}
+		size = 0;
+	}
+}
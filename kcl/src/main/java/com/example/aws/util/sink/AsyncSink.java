@@ -0,0 +1,165 @@
+package com.example.aws.util.sink;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Sink with a bounded queue drained by a dedicated writer thread, so that record processors do not block on terminal, pipe or file I/O.
+ * Writers block while the queue is full instead of dropping texts.
+ */
+public class AsyncSink implements Sink {
+
+	private static final Log LOG = LogFactory.getLog(AsyncSink.class);
+
+	// Maximum number of texts written by one SinkWriter call
+	private static final int MAX_DRAIN_SIZE = 4096;
+
+	private final SinkWriter sinkWriter;
+	private final ArrayDeque<String> queue = new ArrayDeque<>();
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition();
+	private final Condition notFull = lock.newCondition();
+	private final Thread writerThread;
+	private volatile int capacity;
+	private boolean closed = false;
+	private long droppedTexts = 0L;
+
+	/**
+	 * Constructor using sinkWriter and capacity fields
+	 * 
+	 * @param sinkWriter
+	 *            Writer called from the writer thread
+	 * @param capacity
+	 *            Maximum number of texts waiting in the queue
+	 */
+	public AsyncSink(SinkWriter sinkWriter, int capacity) {
+		super();
+		this.sinkWriter = sinkWriter;
+		this.capacity = Math.max(1, capacity);
+		this.writerThread = new Thread(this::drain, "async-sink-writer");
+		this.writerThread.setDaemon(true);
+		this.writerThread.start();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void write(String text) {
+		lock.lock();
+		try {
+			// Apply backpressure to the caller while the writer thread catches up.
+			while (queue.size() >= capacity && !closed) {
+				notFull.awaitUninterruptibly();
+			}
+			if (closed) {
+				// Record processors may still be running when the shutdown hook closes the sink, so drop the text rather than fail them.
+				if (droppedTexts++ == 0L) {
+					LOG.warn("Dropping texts written after the sink was closed");
+				}
+				return;
+			}
+			queue.addLast(text);
+			notEmpty.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void close() {
+		lock.lock();
+		try {
+			closed = true;
+			notEmpty.signalAll();
+			notFull.signalAll();
+		} finally {
+			lock.unlock();
+		}
+		try {
+			writerThread.join();
+		} catch (InterruptedException e) {
+			LOG.debug("Interrupted while waiting for writer thread", e);
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @return number of texts waiting in the queue
+	 */
+	public int size() {
+		lock.lock();
+		try {
+			return queue.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Change the maximum number of texts waiting in the queue. Texts already queued are kept when it shrinks, and writers blocked on the
+	 * old capacity proceed when it grows.
+	 * 
+	 * @param capacity
+	 */
+	public void setCapacity(int capacity) {
+		lock.lock();
+		try {
+			this.capacity = Math.max(1, capacity);
+			notFull.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void drain() {
+		List<String> texts = new ArrayList<>(MAX_DRAIN_SIZE);
+		while (true) {
+			boolean drainedAll;
+			lock.lock();
+			try {
+				while (queue.isEmpty() && !closed) {
+					notEmpty.awaitUninterruptibly();
+				}
+				if (queue.isEmpty()) {
+					break;
+				}
+				while (!queue.isEmpty() && texts.size() < MAX_DRAIN_SIZE) {
+					texts.add(queue.pollFirst());
+				}
+				drainedAll = queue.isEmpty();
+				notFull.signalAll();
+			} finally {
+				lock.unlock();
+			}
+
+			try {
+				sinkWriter.write(texts);
+				// Flush only when the queue has been drained, so bursts are written in bulk.
+				if (drainedAll) {
+					sinkWriter.flush();
+				}
+			} catch (IOException e) {
+				LOG.error("Caught exception while writing " + texts.size() + " texts to sink.", e);
+			}
+			texts.clear();
+		}
+
+		try {
+			sinkWriter.flush();
+			sinkWriter.close();
+		} catch (IOException e) {
+			LOG.error("Caught exception while closing sink.", e);
+		}
+	}
+}
@@ -0,0 +1,41 @@
+package com.example.aws.util.sink;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Discard texts, e.g. for benchmarks which should not measure output I/O.
+ */
+public class DiscardSinkWriter implements SinkWriter {
+
+	private final AtomicLong discarded = new AtomicLong();
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void write(List<String> texts) {
+		discarded.addAndGet(texts.size());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void flush() {
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void close() {
+	}
+
+	/**
+	 * @return number of discarded texts
+	 */
+	public long getDiscarded() {
+		return discarded.get();
+	}
+}
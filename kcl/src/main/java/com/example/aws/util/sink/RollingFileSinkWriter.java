@@ -0,0 +1,120 @@
+package com.example.aws.util.sink;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Write texts to a file through a FileChannel, and roll the file over to "path.epochMillis" when it exceeds the maximum size. Texts are
+ * handed to the operating system on every flush and forced to the disk only when the file is rolled over or closed, so that a low rate
+ * of records does not cost a disk sync each.
+ */
+public class RollingFileSinkWriter implements SinkWriter {
+
+	private static final int BUFFER_SIZE = 256 * 1024;
+
+	private final Path path;
+	private final long maxBytes;
+	private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	private FileChannel channel;
+	private long size;
+
+	/**
+	 * Constructor using path and maxBytes fields
+	 * 
+	 * @param path
+	 *            Path of the current output file
+	 * @param maxBytes
+	 *            Size of the output file to roll over at
+	 * @throws IOException
+	 */
+	public RollingFileSinkWriter(String path, long maxBytes) throws IOException {
+		super();
+		this.path = Paths.get(path);
+		this.maxBytes = maxBytes;
+		open();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void write(List<String> texts) throws IOException {
+		for (String text : texts) {
+			encode(CharBuffer.wrap(text));
+			encode(CharBuffer.wrap("\n"));
+		}
+		writeBuffer();
+		if (size >= maxBytes) {
+			roll();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void flush() throws IOException {
+		writeBuffer();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void close() throws IOException {
+		writeBuffer();
+		channel.force(false);
+		channel.close();
+	}
+
+	private void encode(CharBuffer chars) throws IOException {
+		while (true) {
+			CoderResult result = encoder.encode(chars, buffer, true);
+			if (result.isOverflow()) {
+				writeBuffer();
+			} else {
+				if (result.isError()) {
+					result.throwException();
+				}
+				encoder.reset();
+				return;
+			}
+		}
+	}
+
+	private void writeBuffer() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			size += channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	private void roll() throws IOException {
+		channel.force(false);
+		channel.close();
+		Path rolledPath = Paths.get(path.toString() + "." + System.currentTimeMillis());
+		for (int i = 1; Files.exists(rolledPath); i++) {
+			rolledPath = Paths.get(path.toString() + "." + System.currentTimeMillis() + "-" + i);
+		}
+		Files.move(path, rolledPath, StandardCopyOption.ATOMIC_MOVE);
+		open();
+	}
+
+	private void open() throws IOException {
+		channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		size = channel.size();
+	}
+}
@@ -0,0 +1,20 @@
+package com.example.aws.util.sink;
+
+/**
+ * Destination of consumer output.
+ */
+public interface Sink extends AutoCloseable {
+
+	/**
+	 * Write a text as a line. Blocks while the sink is full. A text written after the sink is closed is dropped.
+	 * 
+	 * @param text
+	 */
+	void write(String text);
+
+	/**
+	 * Write the remaining texts and release the resources.
+	 */
+	@Override
+	void close();
+}
@@ -0,0 +1,32 @@
+package com.example.aws.util.sink;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Writes batches of texts drained by AsyncSink. Called only from the writer thread.
+ */
+public interface SinkWriter {
+
+	/**
+	 * Write texts, each as a line.
+	 * 
+	 * @param texts
+	 * @throws IOException
+	 */
+	void write(List<String> texts) throws IOException;
+
+	/**
+	 * Flush written texts to the destination.
+	 * 
+	 * @throws IOException
+	 */
+	void flush() throws IOException;
+
+	/**
+	 * Close the destination.
+	 * 
+	 * @throws IOException
+	 */
+	void close() throws IOException;
+}
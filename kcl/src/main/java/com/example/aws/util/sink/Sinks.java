@@ -0,0 +1,54 @@
+package com.example.aws.util.sink;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import com.example.aws.util.Config;
+
+/**
+ * Provides the sink shared by the record processors of this application.
+ */
+public class Sinks {
+
+	private static Sink defaultSink = null;
+
+	/**
+	 * Get the sink configured by output.sink, creating it on first use. The sink is closed at shutdown after the remaining texts are written.
+	 * Its queue follows changes of output.sink.queue.size.
+	 * 
+	 * @return shared sink
+	 */
+	public static synchronized Sink defaultSink() {
+		if (defaultSink == null) {
+			AsyncSink asyncSink = new AsyncSink(createSinkWriter(Config.OUTPUT_SINK), Config.OUTPUT_SINK_QUEUE_SIZE.get());
+			Config.OUTPUT_SINK_QUEUE_SIZE.onChange(asyncSink::setCapacity);
+			defaultSink = asyncSink;
+			Runtime.getRuntime().addShutdownHook(new Thread(defaultSink::close, "async-sink-shutdown"));
+		}
+		return defaultSink;
+	}
+
+	/**
+	 * Create a sink writer by name.
+	 * 
+	 * @param name
+	 *            "stdout", "file" or "discard"
+	 * @return sink writer
+	 */
+	public static SinkWriter createSinkWriter(String name) {
+		switch (name) {
+		case "stdout":
+			return new StdoutSinkWriter();
+		case "file":
+			try {
+				return new RollingFileSinkWriter(Config.OUTPUT_SINK_FILE_PATH, Config.OUTPUT_SINK_FILE_MAX_BYTES);
+			} catch (IOException e) {
+				throw new UncheckedIOException("Cannot open output file " + Config.OUTPUT_SINK_FILE_PATH, e);
+			}
+		case "discard":
+			return new DiscardSinkWriter();
+		default:
+			throw new IllegalArgumentException("Unknown output sink: " + name);
+		}
+	}
+}
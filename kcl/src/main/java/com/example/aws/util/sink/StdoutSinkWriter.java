@@ -0,0 +1,49 @@
+package com.example.aws.util.sink;
+
+import java.io.BufferedWriter;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Write texts to the standard output through a large buffer, without the per-call synchronization of System.out.
+ */
+public class StdoutSinkWriter implements SinkWriter {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(FileDescriptor.out), StandardCharsets.UTF_8),
+			BUFFER_SIZE);
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void write(List<String> texts) throws IOException {
+		for (String text : texts) {
+			writer.write(text);
+			writer.write('\n');
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void flush() throws IOException {
+		writer.flush();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void close() throws IOException {
+		// Keep the standard output open for the rest of the application.
+		writer.flush();
+	}
+}
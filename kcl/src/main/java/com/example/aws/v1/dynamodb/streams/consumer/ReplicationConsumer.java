@@ -1,21 +1,37 @@
 package com.example.aws.v1.dynamodb.streams.consumer;
 
+import java.io.IOException;
 import java.nio.charset.CharacterCodingException;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import com.amazonaws.AmazonClientException;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemResult;
 import com.amazonaws.services.dynamodbv2.model.DeleteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.DeleteRequest;
 import com.amazonaws.services.dynamodbv2.model.KeyType;
 import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutRequest;
 import com.amazonaws.services.dynamodbv2.model.StreamRecord;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
 import com.amazonaws.services.dynamodbv2.streamsadapter.model.RecordAdapter;
 import com.amazonaws.services.kinesis.clientlibrary.exceptions.InvalidStateException;
 import com.amazonaws.services.kinesis.clientlibrary.exceptions.ShutdownException;
@@ -24,7 +40,14 @@ import com.amazonaws.services.kinesis.clientlibrary.interfaces.IRecordProcessor;
 import com.amazonaws.services.kinesis.clientlibrary.interfaces.IRecordProcessorCheckpointer;
 import com.amazonaws.services.kinesis.clientlibrary.lib.worker.ShutdownReason;
 import com.amazonaws.services.kinesis.model.Record;
+import com.example.aws.util.CheckpointPolicy;
+import com.example.aws.util.DeadLetterLog;
+import com.example.aws.util.RetryPolicy;
+import com.example.aws.util.codec.PayloadDecoder;
+import com.example.aws.v1.kinesis.Util;
 import com.example.aws.v1.kinesis.consumer.DisplayConsumer;
+import com.example.aws.util.sink.Sink;
+import com.example.aws.util.sink.Sinks;
 
 /**
  * Replicate records to another table and checkpoints progress.
@@ -36,17 +59,29 @@ public class ReplicationConsumer implements IRecordProcessor {
 
 	private final AmazonDynamoDB dynamoDBClient;
 	private final String destTableName;
+	private final boolean batchMode;
+	// Single thread executors to replicate records with the same key in order, only in parallel mode
+	private final ExecutorService[] lanes;
 	private String keyAttribute = null;
 
-	// Backoff and retry settings
+	// Backoff and retry settings for checkpointing
 	private static final long BACKOFF_TIME_IN_MILLIS = 3000L;
 	private static final int NUM_RETRIES = 10;
 
-	// Checkpoint about once a minute
-	private static final long CHECKPOINT_INTERVAL_MILLIS = 60000L;
-	private long nextCheckpointTimeInMillis;
+	// Retry failed records and UnprocessedItems with backoff, and set aside the records which cannot be replicated
+	private final RetryPolicy retryPolicy = RetryPolicy.fromConfig();
+	private final DeadLetterLog deadLetterLog = DeadLetterLog.defaultLog();
 
-	private final CharsetDecoder decoder = Charset.forName("UTF-8").newDecoder();
+	// BatchWriteItem accepts up to 25 put or delete requests in one call
+	private static final int MAX_BATCH_WRITE_ITEMS = 25;
+
+	// Checkpoint after checkpoint.max.records records, checkpoint.max.bytes bytes or checkpoint.interval.millis
+	private final CheckpointPolicy checkpointPolicy = CheckpointPolicy.fromConfig();
+
+	// CharsetDecoder is not thread safe, so keep one for each lane thread.
+	private final ThreadLocal<CharsetDecoder> decoder = ThreadLocal.withInitial(() -> Charset.forName("UTF-8").newDecoder());
+	private final ThreadLocal<PayloadDecoder> payloadDecoder = ThreadLocal.withInitial(PayloadDecoder::new);
+	private final Sink sink = Sinks.defaultSink();
 
 	/**
 	 * Constructor using destTableName field
@@ -55,12 +90,43 @@ public class ReplicationConsumer implements IRecordProcessor {
 	 * @param destTableName
 	 */
 	public ReplicationConsumer(AmazonDynamoDB dynamoDBClient, String destTableName) {
+		this(dynamoDBClient, destTableName, "single", 1);
+	}
+
+	/**
+	 * Constructor using destTableName and replicationMode fields
+	 * 
+	 * @param dynamoDBClient
+	 * @param destTableName
+	 * @param replicationMode
+	 *            "single" to write each record with PutItem/DeleteItem, "batch" to write each batch with BatchWriteItem, "parallel"
+	 *            to write records with different keys concurrently on lanes
+	 * @param replicationLanes
+	 *            Number of lanes in parallel mode
+	 */
+	public ReplicationConsumer(AmazonDynamoDB dynamoDBClient, String destTableName, String replicationMode, int replicationLanes) {
 		super();
 		this.dynamoDBClient = dynamoDBClient;
 		this.destTableName = destTableName;
+		this.batchMode = "batch".equalsIgnoreCase(replicationMode);
+		if ("parallel".equalsIgnoreCase(replicationMode)) {
+			this.lanes = new ExecutorService[Math.max(1, replicationLanes)];
+			for (int i = 0; i < lanes.length; i++) {
+				int lane = i;
+				// The thread is started on the first record, so it can be named after the shard which is known by then.
+				lanes[i] = Executors.newSingleThreadExecutor(runnable -> {
+					Thread thread = new Thread(runnable, "replication-lane-" + shardId + "-" + lane);
+					thread.setDaemon(true);
+					return thread;
+				});
+			}
+		} else {
+			this.lanes = null;
+		}
 		this.keyAttribute = dynamoDBClient.describeTable(destTableName).getTable().getKeySchema().stream()
 				.filter(keySchemaElement -> keySchemaElement.getKeyType().equals(KeyType.HASH.name())).findFirst().get().getAttributeName();
-		System.out.println("Configured to replicate items to table [" + this.destTableName + "] with key attribute [" + this.keyAttribute + "]");
+		System.out.println("Configured to replicate items to table [" + this.destTableName + "] with key attribute [" + this.keyAttribute + "]"
+				+ (batchMode ? " using BatchWriteItem" : "") + (lanes != null ? " on " + lanes.length + " lanes" : ""));
 	}
 
 	/**
@@ -79,14 +145,21 @@ public class ReplicationConsumer implements IRecordProcessor {
 	public void processRecords(List<Record> records, IRecordProcessorCheckpointer checkpointer) {
 		LOG.info("Processing " + records.size() + " records from " + shardId);
 
-		// Process records and perform all exception handling.
-		processRecordsWithRetries(records);
-
-		// Checkpoint once every checkpoint interval.
-		if (System.currentTimeMillis() > nextCheckpointTimeInMillis) {
-			checkpoint(checkpointer);
-			nextCheckpointTimeInMillis = System.currentTimeMillis() + CHECKPOINT_INTERVAL_MILLIS;
+		// Process records and perform all exception handling. Records which cannot be replicated are set aside to the dead-letter log, so
+		// that the shard keeps moving and checkpointing goes on.
+		if (batchMode) {
+			processRecordsInBatches(records);
+		} else if (lanes != null) {
+			processRecordsInLanes(records);
+		} else {
+			processRecordsWithRetries(records);
 		}
+		for (Record record : records) {
+			checkpointPolicy.recordProcessed(record.getSequenceNumber(), sizeOf(record));
+		}
+
+		// Checkpoint when the checkpoint policy says so.
+		checkpointPolicy.checkpointIfDue(shardId, checkpointer::checkpoint);
 	}
 
 	/**
@@ -99,6 +172,14 @@ public class ReplicationConsumer implements IRecordProcessor {
 		if (reason == ShutdownReason.TERMINATE) {
 			checkpoint(checkpointer);
 		}
+		if (checkpointPolicy.getPendingRecords() > 0) {
+			LOG.info("Shard " + shardId + " will replay " + checkpointPolicy.describeReplay());
+		}
+		if (lanes != null) {
+			for (ExecutorService lane : lanes) {
+				lane.shutdown();
+			}
+		}
 	}
 
 	/**
@@ -111,6 +192,7 @@ public class ReplicationConsumer implements IRecordProcessor {
 		for (int i = 0; i < NUM_RETRIES; i++) {
 			try {
 				checkpointer.checkpoint();
+				checkpointPolicy.checkpointed();
 				break;
 			} catch (ShutdownException se) {
 				// Ignore checkpoint if the processor instance has been shutdown (fail over).
@@ -138,35 +220,271 @@ public class ReplicationConsumer implements IRecordProcessor {
 	}
 
 	/**
-	 * Process records performing retries as needed. Skip "poison pill" records.
+	 * Size of a record for the checkpoint policy. Uses the size which DynamoDB Streams reports rather than serializing the adapted record.
+	 * 
+	 * @param record
+	 * @return size of the record in bytes
+	 */
+	private static long sizeOf(Record record) {
+		if (record instanceof RecordAdapter) {
+			Long sizeBytes = ((RecordAdapter) record).getInternalObject().getDynamodb().getSizeBytes();
+			return sizeBytes == null ? 0L : sizeBytes;
+		}
+		return record.getData().remaining();
+	}
+
+	/**
+	 * Process records performing retries as needed. Skip "poison pill" records to the dead-letter log.
 	 * 
 	 * @param records
 	 *            Data records to be processed.
 	 */
 	private void processRecordsWithRetries(List<Record> records) {
+		long deadlineInMillis = retryPolicy.batchDeadline();
 		for (Record record : records) {
-			boolean processedSuccessfully = false;
-			for (int i = 0; i < NUM_RETRIES; i++) {
-				try {
-					processSingleRecord(record);
-					processedSuccessfully = true;
-					break;
-				} catch (Throwable t) {
-					LOG.warn("Caught throwable while processing record " + record, t);
+			processRecordWithRetries(record, deadlineInMillis);
+		}
+	}
+
+	/**
+	 * Process a record retrying retryable failures with capped exponential backoff and jitter. A record which fails permanently or exhausts
+	 * its retries is written to the dead-letter log and skipped, so that the shard keeps moving.
+	 * 
+	 * @param record
+	 *            The record to be processed.
+	 * @param deadlineInMillis
+	 *            Deadline of the retries of the batch
+	 * @return true if the record has been processed
+	 */
+	private boolean processRecordWithRetries(Record record, long deadlineInMillis) {
+		for (int attempt = 1;; attempt++) {
+			try {
+				processSingleRecord(record);
+				return true;
+			} catch (Throwable t) {
+				if (!Util.isRetryable(t)) {
+					LOG.error("Caught permanent failure while processing record " + record.getSequenceNumber() + ". Skipping the record.",
+							t);
+				} else if (attempt >= retryPolicy.getMaxAttempts()) {
+					LOG.error("Couldn't process record " + record.getSequenceNumber() + " after " + attempt + " attempts. Skipping the record.",
+							t);
+				} else {
+					LOG.warn("Caught " + (Util.isThrottling(t) ? "throttling" : "retryable failure") + " while processing record "
+							+ record.getSequenceNumber() + " - attempt " + attempt + " of " + retryPolicy.getMaxAttempts(), t);
+					if (retryPolicy.backoff(attempt, deadlineInMillis)) {
+						continue;
+					}
+					String reason = Thread.currentThread().isInterrupted() ? "Interrupted while retrying"
+							: "Ran out of the retry budget of the batch on";
+					LOG.error(reason + " record " + record.getSequenceNumber() + ". Skipping the record.", t);
 				}
+				deadLetterLog.write(shardId, record.getSequenceNumber(), record.getPartitionKey(), record.getData(), attempt, t);
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Process records on lanes chosen by the hash of the key attribute. Records with the same key are processed in order on the same lane
+	 * while records with different keys are processed concurrently. If a lane fails, the records it has not completed are set aside to the
+	 * dead-letter log, so that the checkpoint never moves past a record which is neither replicated nor set aside.
+	 * 
+	 * @param records
+	 *            Data records to be processed.
+	 */
+	private void processRecordsInLanes(List<Record> records) {
+		List<List<Integer>> laneIndexes = new ArrayList<>(lanes.length);
+		for (int i = 0; i < lanes.length; i++) {
+			laneIndexes.add(new ArrayList<>());
+		}
+		for (int i = 0; i < records.size(); i++) {
+			Record record = records.get(i);
+			int lane = 0;
+			if (record instanceof RecordAdapter) {
+				AttributeValue key = ((RecordAdapter) record).getInternalObject().getDynamodb().getKeys().get(keyAttribute);
+				lane = ((key == null ? 0 : key.hashCode()) & Integer.MAX_VALUE) % lanes.length;
+			}
+			laneIndexes.get(lane).add(i);
+		}
 
-				// backoff if we encounter an exception.
+		long deadlineInMillis = retryPolicy.batchDeadline();
+		AtomicInteger[] laneProgress = new AtomicInteger[lanes.length];
+		List<Future<?>> futures = new ArrayList<>(lanes.length);
+		for (int i = 0; i < lanes.length; i++) {
+			List<Integer> indexes = laneIndexes.get(i);
+			AtomicInteger progress = new AtomicInteger();
+			laneProgress[i] = progress;
+			futures.add(indexes.isEmpty() ? null : lanes[i].submit(() -> {
+				for (int index : indexes) {
+					processRecordWithRetries(records.get(index), deadlineInMillis);
+					progress.incrementAndGet();
+				}
+			}));
+		}
+		// Wait for every lane even if interrupted, since the records left behind can only be known once the lanes have stopped writing.
+		boolean interrupted = false;
+		for (int i = 0; i < lanes.length; i++) {
+			Future<?> future = futures.get(i);
+			while (future != null) {
 				try {
-					Thread.sleep(BACKOFF_TIME_IN_MILLIS);
+					future.get();
+					break;
 				} catch (InterruptedException e) {
-					LOG.debug("Interrupted sleep", e);
+					LOG.debug("Interrupted while waiting for lanes", e);
+					interrupted = true;
+				} catch (ExecutionException e) {
+					LOG.error("Caught exception on replication lane of shard " + shardId + ". Setting aside the records left on the lane.",
+							e.getCause());
+					List<Integer> indexes = laneIndexes.get(i);
+					for (int index : indexes.subList(laneProgress[i].get(), indexes.size())) {
+						Record record = records.get(index);
+						deadLetterLog.write(shardId, record.getSequenceNumber(), record.getPartitionKey(), record.getData(), 1,
+								e.getCause());
+					}
+					break;
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Replicate records with BatchWriteItem calls of up to 25 items, retrying UnprocessedItems with backoff. Records whose items could not
+	 * be written are set aside to the dead-letter log.
+	 * 
+	 * @param records
+	 *            Data records to be processed.
+	 */
+	private void processRecordsInBatches(List<Record> records) {
+		long deadlineInMillis = retryPolicy.batchDeadline();
+		Map<WriteRequest, Record> batch = new LinkedHashMap<>();
+		Set<AttributeValue> batchKeys = new HashSet<>();
+		for (Record record : records) {
+			if (!(record instanceof RecordAdapter)) {
+				continue;
+			}
+			com.amazonaws.services.dynamodbv2.model.Record streamRecord = ((RecordAdapter) record).getInternalObject();
+			StreamRecord ddbStreamRecord = streamRecord.getDynamodb();
+			WriteRequest writeRequest;
+			switch (streamRecord.getEventName()) {
+			case "INSERT":
+			case "MODIFY":
+				writeRequest = new WriteRequest().withPutRequest(new PutRequest().withItem(ddbStreamRecord.getNewImage()));
+				break;
+			case "REMOVE":
+				writeRequest = new WriteRequest().withDeleteRequest(new DeleteRequest().withKey(buildKey(ddbStreamRecord)));
+				break;
+			default:
+				continue;
+			}
+
+			// BatchWriteItem rejects two requests for the same item in one call, so flush before a repeated key to keep the order.
+			AttributeValue key = ddbStreamRecord.getKeys().get(keyAttribute);
+			if (batch.size() >= MAX_BATCH_WRITE_ITEMS || batchKeys.contains(key)) {
+				writeBatchWithRetries(batch, deadlineInMillis);
+				batch.clear();
+				batchKeys.clear();
+			}
+			batch.put(writeRequest, record);
+			batchKeys.add(key);
+		}
+		if (!batch.isEmpty()) {
+			writeBatchWithRetries(batch, deadlineInMillis);
+		}
+	}
+
+	/**
+	 * Write a batch with BatchWriteItem and retry UnprocessedItems and retryable failures with exponential backoff and jitter. The records
+	 * of the items which are still not written at the end are set aside to the dead-letter log.
+	 * 
+	 * @param batch
+	 *            Write requests for the destination table, with the record of each.
+	 * @param deadlineInMillis
+	 *            Deadline of the retries of the records passed to processRecords
+	 */
+	private void writeBatchWithRetries(Map<WriteRequest, Record> batch, long deadlineInMillis) {
+		Map<String, List<WriteRequest>> requestItems = new HashMap<>();
+		requestItems.put(destTableName, new ArrayList<>(batch.keySet()));
+		Throwable failure = null;
+		int attempt = 1;
+		for (;; attempt++) {
+			try {
+				BatchWriteItemResult result = dynamoDBClient.batchWriteItem(new BatchWriteItemRequest().withRequestItems(requestItems));
+				if (result.getUnprocessedItems() == null || result.getUnprocessedItems().isEmpty()) {
+					LOG.info("Replicated " + batch.size() + " items from " + shardId + " with BatchWriteItem.");
+					for (Record record : batch.values()) {
+						writeReplicated(((RecordAdapter) record).getInternalObject());
+					}
+					return;
+				}
+				requestItems = result.getUnprocessedItems();
+				failure = new AmazonClientException(requestItems.get(destTableName).size() + " items left unprocessed by BatchWriteItem");
+				LOG.info("Retrying " + requestItems.get(destTableName).size() + " unprocessed items - attempt " + attempt + " of "
+						+ retryPolicy.getMaxAttempts());
+			} catch (AmazonClientException e) {
+				failure = e;
+				if (!Util.isRetryable(e)) {
+					LOG.error("Caught permanent failure while writing batch of " + batch.size() + " items.", e);
+					break;
 				}
+				LOG.warn("Caught exception while writing batch of " + batch.size() + " items - attempt " + attempt + " of "
+						+ retryPolicy.getMaxAttempts(), e);
 			}
 
-			if (!processedSuccessfully) {
-				LOG.error("Couldn't process record " + record + ". Skipping the record.");
+			// backoff exponentially before retrying the remaining items.
+			if (attempt >= retryPolicy.getMaxAttempts() || !retryPolicy.backoff(attempt, deadlineInMillis)) {
+				LOG.error("Couldn't write batch of " + batch.size() + " items after " + attempt + " attempts.");
+				break;
+			}
+		}
+
+		// Only the remaining items may be missing from the destination table, so set aside only their records.
+		Map<WriteRequest, Record> written = new LinkedHashMap<>(batch);
+		for (WriteRequest writeRequest : requestItems.get(destTableName)) {
+			Record record = written.remove(writeRequest);
+			if (record != null) {
+				deadLetterLog.write(shardId, record.getSequenceNumber(), record.getPartitionKey(), record.getData(), attempt, failure);
 			}
 		}
+		for (Record record : written.values()) {
+			writeReplicated(((RecordAdapter) record).getInternalObject());
+		}
+	}
+
+	/**
+	 * Write a replicated stream record to the sink.
+	 * 
+	 * @param streamRecord
+	 *            Stream record which has been replicated to the destination table.
+	 */
+	private void writeReplicated(com.amazonaws.services.dynamodbv2.model.Record streamRecord) {
+		StreamRecord ddbStreamRecord = streamRecord.getDynamodb();
+		switch (streamRecord.getEventName()) {
+		case "INSERT":
+			sink.write("---\nRecord inserted.\n" + ddbStreamRecord.getNewImage());
+			break;
+		case "MODIFY":
+			sink.write("---\nRecord updated.\nFrom: " + ddbStreamRecord.getOldImage() + "To  : "
+					+ new PutItemRequest().withTableName(destTableName).withItem(ddbStreamRecord.getNewImage()));
+			break;
+		case "REMOVE":
+			sink.write("---\nRecord deleted.\n" + ddbStreamRecord.getOldImage());
+			break;
+		}
+	}
+
+	/**
+	 * Build the key of the destination table item from a stream record.
+	 * 
+	 * @param ddbStreamRecord
+	 * @return key attribute map
+	 */
+	private Map<String, AttributeValue> buildKey(StreamRecord ddbStreamRecord) {
+		Map<String, AttributeValue> key = new HashMap<String, AttributeValue>();
+		key.put(keyAttribute, ddbStreamRecord.getKeys().get(keyAttribute));
+		return key;
 	}
 
 	/**
@@ -180,8 +498,9 @@ public class ReplicationConsumer implements IRecordProcessor {
 
 		String data = null;
 		try {
-			// For this app, we interpret the payload as UTF-8 chars.
-			data = decoder.decode(record.getData()).toString();
+			// For this app, we interpret the payload as UTF-8 chars, after decompressing it if the producer compressed it. Decode a
+			// duplicate, since the record hands out the same buffer every time and it is read again to dead-letter the record.
+			data = decoder.get().decode(payloadDecoder.get().decode(record.getData().duplicate())).toString();
 
 			// Replicate records
 			if (record instanceof RecordAdapter) {
@@ -190,24 +509,19 @@ public class ReplicationConsumer implements IRecordProcessor {
 
 				switch (streamRecord.getEventName()) {
 				case "INSERT":
-					dynamoDBClient.putItem(new PutItemRequest().withTableName(destTableName).withItem(ddbStreamRecord.getNewImage()));
-					System.out.println("---\nRecord inserted.\n" + ddbStreamRecord.getNewImage());
-					break;
 				case "MODIFY":
 					dynamoDBClient.putItem(new PutItemRequest().withTableName(destTableName).withItem(ddbStreamRecord.getNewImage()));
-					System.out.println("---\nRecord updated.\nFrom: " + ddbStreamRecord.getOldImage() + "To  : "
-							+ new PutItemRequest().withTableName(destTableName).withItem(ddbStreamRecord.getNewImage()));
 					break;
 				case "REMOVE":
-					Map<String, AttributeValue> key = new HashMap<String, AttributeValue>();
-					key.put(keyAttribute, new AttributeValue().withN(ddbStreamRecord.getKeys().get(keyAttribute).getN()));
-					dynamoDBClient.deleteItem(new DeleteItemRequest().withTableName(destTableName).withKey(key));
-					System.out.println("---\nRecord deleted.\n" + ddbStreamRecord.getOldImage());
+					dynamoDBClient.deleteItem(new DeleteItemRequest().withTableName(destTableName).withKey(buildKey(ddbStreamRecord)));
 					break;
 				}
+				writeReplicated(streamRecord);
 			}
 		} catch (CharacterCodingException e) {
 			LOG.error("Malformed data: " + data, e);
+		} catch (IOException e) {
+			LOG.error("Malformed compressed data of record " + record.getSequenceNumber(), e);
 		}
 	}
 }
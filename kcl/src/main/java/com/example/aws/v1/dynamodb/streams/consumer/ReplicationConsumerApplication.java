@@ -47,7 +47,8 @@ public final class ReplicationConsumerApplication {
 		kclConfiguration.withInitialPositionInStream(INITIAL_POSITION_IN_STREAM);
 
 		// Start workers
-		IRecordProcessorFactory recordProcessorFactory = new ReplicationConsumerFactory(Config.DEST_TABLE_NAME);
+		IRecordProcessorFactory recordProcessorFactory = new ReplicationConsumerFactory(Config.DEST_TABLE_NAME, Config.REPLICATION_MODE,
+				Config.REPLICATION_LANES);
 		AmazonCloudWatch cloudWatchClient = AmazonCloudWatchClientBuilder.standard().withRegion(Config.REGION).build();
 		@SuppressWarnings("deprecation")
 		Worker worker = new Worker(recordProcessorFactory, kclConfiguration, adapterClient, dynamoDBClient, cloudWatchClient);
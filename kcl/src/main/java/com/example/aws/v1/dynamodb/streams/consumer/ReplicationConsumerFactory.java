@@ -10,6 +10,8 @@ import com.amazonaws.services.kinesis.clientlibrary.interfaces.IRecordProcessorF
  */
 public class ReplicationConsumerFactory implements IRecordProcessorFactory {
 	private String destTableName;
+	private String replicationMode;
+	private int replicationLanes;
 
 	/**
 	 * Constructor using destTableName field
@@ -17,8 +19,21 @@ public class ReplicationConsumerFactory implements IRecordProcessorFactory {
 	 * @param destTableName
 	 */
 	public ReplicationConsumerFactory(String destTableName) {
+		this(destTableName, "single", 1);
+	}
+
+	/**
+	 * Constructor using destTableName, replicationMode and replicationLanes fields
+	 * 
+	 * @param destTableName
+	 * @param replicationMode
+	 * @param replicationLanes
+	 */
+	public ReplicationConsumerFactory(String destTableName, String replicationMode, int replicationLanes) {
 		super();
 		this.destTableName = destTableName;
+		this.replicationMode = replicationMode;
+		this.replicationLanes = replicationLanes;
 	}
 
 	/**
@@ -27,6 +42,6 @@ public class ReplicationConsumerFactory implements IRecordProcessorFactory {
 	@Override
 	public IRecordProcessor createProcessor() {
 		AmazonDynamoDB dynamoDBClient = AmazonDynamoDBClientBuilder.standard().build();
-		return new ReplicationConsumer(dynamoDBClient, destTableName);
+		return new ReplicationConsumer(dynamoDBClient, destTableName, replicationMode, replicationLanes);
 	}
 }
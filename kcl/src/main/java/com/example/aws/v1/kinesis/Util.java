@@ -1,8 +1,22 @@
 package com.example.aws.v1.kinesis;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
 import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
 import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.auth.profile.ProfileCredentialsProvider;
+import com.amazonaws.retry.RetryUtils;
+import com.amazonaws.services.kinesis.AmazonKinesis;
+import com.amazonaws.services.kinesis.AmazonKinesisClientBuilder;
+import com.amazonaws.services.kinesis.model.ListShardsRequest;
+import com.amazonaws.services.kinesis.model.ListShardsResult;
+import com.amazonaws.services.kinesis.model.Shard;
+import com.example.aws.util.Config;
+import com.example.aws.util.ShardMap.ShardRange;
+import com.example.aws.v1.kinesis.local.LocalAmazonKinesis;
 
 public class Util {
 	/**
@@ -25,4 +39,70 @@ public class Util {
 		}
 		return credentialsProvider;
 	}
+
+	/**
+	 * Create a client of Kinesis Data Streams in the region, or of the in-memory streams of this JVM if kinesis.local is true
+	 * 
+	 * @return kinesisClient
+	 */
+	public static AmazonKinesis kinesisClient() {
+		if (Config.KINESIS_LOCAL) {
+			return new LocalAmazonKinesis();
+		}
+		return AmazonKinesisClientBuilder.standard().withRegion(Config.REGION).build();
+	}
+
+	/**
+	 * Classify a failure of processing a record. Throttling, server errors and network errors are retryable, while client errors (e.g.
+	 * ValidationException) and errors of the processing logic itself fail the same way on every attempt.
+	 * 
+	 * @param t
+	 *            Failure
+	 * @return true if the failure may succeed on retry
+	 */
+	public static boolean isRetryable(Throwable t) {
+		if (t instanceof AmazonServiceException) {
+			AmazonServiceException e = (AmazonServiceException) t;
+			return RetryUtils.isThrottlingException(e) || RetryUtils.isRetryableServiceException(e) || RetryUtils.isClockSkewError(e)
+					|| e.getStatusCode() >= 500;
+		}
+		if (t instanceof AmazonClientException) {
+			return ((AmazonClientException) t).isRetryable();
+		}
+		return t instanceof IOException || t.getCause() instanceof IOException;
+	}
+
+	/**
+	 * @param t
+	 *            Failure
+	 * @return true if the failure is throttling by the service
+	 */
+	public static boolean isThrottling(Throwable t) {
+		return t instanceof AmazonServiceException && RetryUtils.isThrottlingException((AmazonServiceException) t);
+	}
+
+	/**
+	 * List all the shards of a stream with ListShards, following the next tokens, including closed shards still within the retention
+	 * period.
+	 * 
+	 * @param kinesisClient
+	 * @param streamName
+	 * @return hash key ranges of the shards
+	 */
+	public static List<ShardRange> listShards(AmazonKinesis kinesisClient, String streamName) {
+		List<ShardRange> shards = new ArrayList<>();
+		// The stream name must not be given together with a next token.
+		ListShardsRequest listShardsRequest = new ListShardsRequest().withStreamName(streamName);
+		while (true) {
+			ListShardsResult listShardsResult = kinesisClient.listShards(listShardsRequest);
+			for (Shard shard : listShardsResult.getShards()) {
+				shards.add(new ShardRange(shard.getShardId(), shard.getHashKeyRange().getStartingHashKey(),
+						shard.getHashKeyRange().getEndingHashKey(), shard.getSequenceNumberRange().getEndingSequenceNumber() == null));
+			}
+			if (listShardsResult.getNextToken() == null) {
+				return shards;
+			}
+			listShardsRequest = new ListShardsRequest().withNextToken(listShardsResult.getNextToken());
+		}
+	}
 }
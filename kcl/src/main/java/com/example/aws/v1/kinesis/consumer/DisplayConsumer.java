@@ -1,11 +1,7 @@
 package com.example.aws.v1.kinesis.consumer;
 
 import java.io.IOException;
-import java.nio.charset.CharacterCodingException;
-import java.nio.charset.Charset;
-import java.nio.charset.CharsetDecoder;
-import java.time.ZonedDateTime;
-import java.time.format.DateTimeFormatter;
+import java.nio.ByteBuffer;
 import java.util.List;
 
 import org.apache.commons.logging.Log;
@@ -14,73 +10,97 @@ import org.apache.commons.logging.LogFactory;
 import com.amazonaws.services.kinesis.clientlibrary.exceptions.InvalidStateException;
 import com.amazonaws.services.kinesis.clientlibrary.exceptions.ShutdownException;
 import com.amazonaws.services.kinesis.clientlibrary.exceptions.ThrottlingException;
-import com.amazonaws.services.kinesis.clientlibrary.interfaces.IRecordProcessor;
 import com.amazonaws.services.kinesis.clientlibrary.interfaces.IRecordProcessorCheckpointer;
+import com.amazonaws.services.kinesis.clientlibrary.interfaces.v2.IRecordProcessor;
 import com.amazonaws.services.kinesis.clientlibrary.lib.worker.ShutdownReason;
+import com.amazonaws.services.kinesis.clientlibrary.types.InitializationInput;
+import com.amazonaws.services.kinesis.clientlibrary.types.ProcessRecordsInput;
+import com.amazonaws.services.kinesis.clientlibrary.types.ShutdownInput;
+import com.amazonaws.services.kinesis.clientlibrary.types.UserRecord;
 import com.amazonaws.services.kinesis.model.Record;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.example.aws.util.CheckpointPolicy;
+import com.example.aws.util.Config;
+import com.example.aws.util.DeadLetterLog;
+import com.example.aws.util.RetryPolicy;
+import com.example.aws.util.TimeFieldReader;
+import com.example.aws.util.TimestampParser;
+import com.example.aws.util.codec.PayloadDecoder;
+import com.example.aws.util.metrics.LagTracker;
+import com.example.aws.util.metrics.LatencyTracker;
+import com.example.aws.util.metrics.LocalMetrics;
+import com.example.aws.util.sink.Sink;
+import com.example.aws.util.sink.Sinks;
+import com.example.aws.v1.kinesis.Util;
 
 /**
  * Display records and checkpoints progress.
  */
 public class DisplayConsumer implements IRecordProcessor {
 
-	private static final boolean IF_TIME_FIELD_ENABLED = Boolean.parseBoolean(System.getProperty("if.time.field.enabled", "false"));
-	private static final String TIME_FIELD_NAME = System.getProperty("time.field.name", "time");
-	private static final String TIME_FIELD_FORMAT = System.getProperty("time.field.format", "yyyy-MM-dd'T'HH:mm:ss.SSSxxxxx");
-
 	private static final Log LOG = LogFactory.getLog(DisplayConsumer.class);
 	private String shardId;
 
-	// Backoff and retry settings
+	// Backoff and retry settings for checkpointing
 	private static final long BACKOFF_TIME_IN_MILLIS = 3000L;
 	private static final int NUM_RETRIES = 10;
 
-	// Checkpoint about once a minute
-	private static final long CHECKPOINT_INTERVAL_MILLIS = 60000L;
-	private long nextCheckpointTimeInMillis;
+	// Retry failed records with backoff, and set aside the ones which cannot be processed
+	private final RetryPolicy retryPolicy = RetryPolicy.fromConfig();
+	private final DeadLetterLog deadLetterLog = DeadLetterLog.defaultLog();
+
+	// Checkpoint after checkpoint.max.records records, checkpoint.max.bytes bytes or checkpoint.interval.millis
+	private final CheckpointPolicy checkpointPolicy = CheckpointPolicy.fromConfig();
 
-	private final CharsetDecoder decoder = Charset.forName("UTF-8").newDecoder();
-	private final DateTimeFormatter dtf = DateTimeFormatter.ofPattern(TIME_FIELD_FORMAT);
-	private final ObjectMapper mapper = new ObjectMapper();
+	private final TimestampParser timestampParser = new TimestampParser(Config.TIME_FIELD_FORMAT);
+	private final TimeFieldReader timeFieldReader = new TimeFieldReader(Config.TIME_FIELD_NAME);
+	private final PayloadDecoder payloadDecoder = new PayloadDecoder();
+	private final Sink sink = Sinks.defaultSink();
+	private LatencyTracker.ShardLatency shardLatency;
+	private LagTracker.Lag shardLag;
 
 	/**
 	 * {@inheritDoc}
 	 */
 	@Override
-	public void initialize(String shardId) {
+	public void initialize(InitializationInput initializationInput) {
+		this.shardId = initializationInput.getShardId();
 		LOG.info("Initializing record processor for shard: " + shardId);
-		this.shardId = shardId;
+		this.shardLatency = LatencyTracker.forShard(shardId);
+		this.shardLag = LagTracker.forShard(shardId);
 	}
 
 	/**
 	 * {@inheritDoc}
 	 */
 	@Override
-	public void processRecords(List<Record> records, IRecordProcessorCheckpointer checkpointer) {
-		LOG.info("Processing " + records.size() + " records from " + shardId);
-
-		// Process records and perform all exception handling.
-		processRecordsWithRetries(records);
-
-		// Checkpoint once every checkpoint interval.
-		if (System.currentTimeMillis() > nextCheckpointTimeInMillis) {
-			checkpoint(checkpointer);
-			nextCheckpointTimeInMillis = System.currentTimeMillis() + CHECKPOINT_INTERVAL_MILLIS;
+	public void processRecords(ProcessRecordsInput processRecordsInput) {
+		List<Record> records = processRecordsInput.getRecords();
+		Long millisBehindLatest = processRecordsInput.getMillisBehindLatest();
+		LOG.info("Processing " + records.size() + " records from " + shardId + ", " + millisBehindLatest + " milliseconds behind latest");
+		// The lag is not given by every source, e.g. DynamoDB Streams.
+		if (millisBehindLatest != null) {
+			shardLag.record(millisBehindLatest);
 		}
+
+		// Process records and perform all exception handling, checkpointing when the checkpoint policy says so.
+		processRecordsWithRetries(records, processRecordsInput.getCheckpointer());
 	}
 
 	/**
 	 * {@inheritDoc}
 	 */
 	@Override
-	public void shutdown(IRecordProcessorCheckpointer checkpointer, ShutdownReason reason) {
+	public void shutdown(ShutdownInput shutdownInput) {
 		LOG.info("Shutting down record processor for shard: " + shardId);
 		// Important to checkpoint after reaching end of shard, so we can start processing data from child shards.
-		if (reason == ShutdownReason.TERMINATE) {
-			checkpoint(checkpointer);
+		if (shutdownInput.getShutdownReason() == ShutdownReason.TERMINATE) {
+			checkpoint(shutdownInput.getCheckpointer());
+		} else if (checkpointPolicy.getPendingRecords() > 0) {
+			LOG.info("Shard " + shardId + " will replay " + checkpointPolicy.describeReplay());
 		}
+		LatencyTracker.remove(shardId);
+		LagTracker.remove(shardId);
+		LocalMetrics.removeShard(shardId);
 	}
 
 	/**
@@ -93,6 +113,7 @@ public class DisplayConsumer implements IRecordProcessor {
 		for (int i = 0; i < NUM_RETRIES; i++) {
 			try {
 				checkpointer.checkpoint();
+				checkpointPolicy.checkpointed();
 				break;
 			} catch (ShutdownException se) {
 				// Ignore checkpoint if the processor instance has been shutdown (fail over).
@@ -120,33 +141,58 @@ public class DisplayConsumer implements IRecordProcessor {
 	}
 
 	/**
-	 * Process records performing retries as needed. Skip "poison pill" records.
+	 * Process records performing retries as needed. Skip "poison pill" records to the dead-letter log.
 	 * 
 	 * @param records
 	 *            Data records to be processed.
+	 * @param checkpointer
 	 */
-	private void processRecordsWithRetries(List<Record> records) {
+	private void processRecordsWithRetries(List<Record> records, IRecordProcessorCheckpointer checkpointer) {
+		CheckpointPolicy.Checkpointer checkpoint = checkpointer::checkpoint;
+		long deadlineInMillis = retryPolicy.batchDeadline();
 		for (Record record : records) {
-			boolean processedSuccessfully = false;
-			for (int i = 0; i < NUM_RETRIES; i++) {
-				try {
-					processSingleRecord(record);
-					processedSuccessfully = true;
-					break;
-				} catch (Throwable t) {
-					LOG.warn("Caught throwable while processing record " + record, t);
-				}
+			processRecordWithRetries(record, deadlineInMillis);
+			// The KCL deaggregates KPL aggregated records into user records, which are checkpointed by sub-sequence number.
+			long subSequenceNumber = record instanceof UserRecord ? ((UserRecord) record).getSubSequenceNumber() : 0L;
+			checkpointPolicy.recordProcessed(record.getSequenceNumber(), subSequenceNumber, record.getData().remaining());
+			checkpointPolicy.checkpointIfDue(shardId, checkpoint);
+		}
+	}
 
-				// backoff if we encounter an exception.
-				try {
-					Thread.sleep(BACKOFF_TIME_IN_MILLIS);
-				} catch (InterruptedException e) {
-					LOG.debug("Interrupted sleep", e);
+	/**
+	 * Process a record retrying retryable failures with capped exponential backoff and jitter. A record which fails permanently or exhausts
+	 * its retries is written to the dead-letter log and skipped, so that the shard keeps moving.
+	 * 
+	 * @param record
+	 *            The record to be processed.
+	 * @param deadlineInMillis
+	 *            Deadline of the retries of the batch
+	 * @return true if the record has been processed
+	 */
+	private boolean processRecordWithRetries(Record record, long deadlineInMillis) {
+		for (int attempt = 1;; attempt++) {
+			try {
+				processSingleRecord(record);
+				return true;
+			} catch (Throwable t) {
+				if (!Util.isRetryable(t)) {
+					LOG.error("Caught permanent failure while processing record " + record.getSequenceNumber() + ". Skipping the record.",
+							t);
+				} else if (attempt >= retryPolicy.getMaxAttempts()) {
+					LOG.error("Couldn't process record " + record.getSequenceNumber() + " after " + attempt + " attempts. Skipping the record.",
+							t);
+				} else {
+					LOG.warn("Caught " + (Util.isThrottling(t) ? "throttling" : "retryable failure") + " while processing record "
+							+ record.getSequenceNumber() + " - attempt " + attempt + " of " + retryPolicy.getMaxAttempts(), t);
+					if (retryPolicy.backoff(attempt, deadlineInMillis)) {
+						continue;
+					}
+					String reason = Thread.currentThread().isInterrupted() ? "Interrupted while retrying"
+							: "Ran out of the retry budget of the batch on";
+					LOG.error(reason + " record " + record.getSequenceNumber() + ". Skipping the record.", t);
 				}
-			}
-
-			if (!processedSuccessfully) {
-				LOG.error("Couldn't process record " + record + ". Skipping the record.");
+				deadLetterLog.write(shardId, record.getSequenceNumber(), record.getPartitionKey(), record.getData(), attempt, t);
+				return false;
 			}
 		}
 	}
@@ -158,30 +204,39 @@ public class DisplayConsumer implements IRecordProcessor {
 	 *            The record to be processed.
 	 */
 	private void processSingleRecord(Record record) {
-		String data = null;
+		ByteBuffer data = record.getData();
+		String sequenceNumber = record.getSequenceNumber();
+		if (record instanceof UserRecord && ((UserRecord) record).isAggregated()) {
+			sequenceNumber += ", SubSequenceNumber: " + ((UserRecord) record).getSubSequenceNumber();
+		}
 		try {
-			// For this app, we interpret the payload as UTF-8 chars.
-			data = decoder.decode(record.getData()).toString();
+			// Decompress the payload if the producer compressed it, and take it as it is otherwise.
+			data = payloadDecoder.decode(data);
 
 			// Assume this record including time field and log its age.
-			JsonNode jsonData = mapper.readTree(data);
 			long approximateArrivalTimestamp = record.getApproximateArrivalTimestamp().getTime();
 			long currentTime = System.currentTimeMillis();
 			long ageOfRecordInMillisFromArrival = currentTime - approximateArrivalTimestamp;
-			if (IF_TIME_FIELD_ENABLED) {
-				long recordCreateTime = ZonedDateTime.parse(jsonData.get(TIME_FIELD_NAME).asText(), dtf).toInstant().toEpochMilli();
+			shardLatency.getArrivalToProcessing().record(ageOfRecordInMillisFromArrival);
+			if (Config.IF_TIME_FIELD_ENABLED) {
+				// Read only the time field from the payload bytes, and decode the payload as UTF-8 chars just for printing.
+				long recordCreateTime = timeFieldReader.readEpochMillis(data, timestampParser);
+				if (recordCreateTime == TimeFieldReader.NO_TIME_FIELD) {
+					LOG.info("Record does not have time field. Ignoring record with data; " + TimeFieldReader.toString(data));
+					return;
+				}
 				long ageOfRecordInMillis = currentTime - recordCreateTime;
-				System.out.println("---\nShard: " + shardId + ", PartitionKey: " + record.getPartitionKey() + ", SequenceNumber: "
-						+ record.getSequenceNumber() + "\nCreated " + ageOfRecordInMillis + " milliseconds ago. Arrived "
-						+ ageOfRecordInMillisFromArrival + " milliseconds ago.\n" + data);
+				shardLatency.getProducerToConsumer().record(ageOfRecordInMillis);
+				sink.write("---\nShard: " + shardId + ", PartitionKey: " + record.getPartitionKey() + ", SequenceNumber: "
+						+ sequenceNumber + "\nCreated " + ageOfRecordInMillis + " milliseconds ago. Arrived "
+						+ ageOfRecordInMillisFromArrival + " milliseconds ago.\n" + TimeFieldReader.toString(data));
 			} else {
-				System.out.println("---\nShard: " + shardId + ", PartitionKey: " + record.getPartitionKey() + ", SequenceNumber: "
-						+ record.getSequenceNumber() + "\nArrived " + ageOfRecordInMillisFromArrival + " milliseconds ago.\n" + data);
+				sink.write("---\nShard: " + shardId + ", PartitionKey: " + record.getPartitionKey() + ", SequenceNumber: "
+						+ sequenceNumber + "\nArrived " + ageOfRecordInMillisFromArrival + " milliseconds ago.\n"
+						+ TimeFieldReader.toString(data));
 			}
-		} catch (CharacterCodingException e) {
-			LOG.error("Malformed data: " + data, e);
 		} catch (IOException e) {
-			LOG.info("Record does not match sample record format. Ignoring record with data; " + data);
+			LOG.info("Record does not match sample record format. Ignoring record with data; " + TimeFieldReader.toString(data));
 		}
 	}
 }
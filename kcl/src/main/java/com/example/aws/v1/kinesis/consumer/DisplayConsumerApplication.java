@@ -5,14 +5,19 @@ import java.net.UnknownHostException;
 import java.util.UUID;
 
 import com.amazonaws.auth.AWSCredentialsProvider;
-import com.amazonaws.services.kinesis.clientlibrary.interfaces.IRecordProcessorFactory;
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.services.cloudwatch.AmazonCloudWatchClientBuilder;
+import com.amazonaws.services.kinesis.clientlibrary.interfaces.v2.IRecordProcessorFactory;
 import com.amazonaws.services.kinesis.clientlibrary.lib.worker.InitialPositionInStream;
 import com.amazonaws.services.kinesis.clientlibrary.lib.worker.KinesisClientLibConfiguration;
 import com.amazonaws.services.kinesis.clientlibrary.lib.worker.Worker;
+import com.amazonaws.services.kinesis.metrics.impl.CWMetricsFactory;
 import com.amazonaws.services.kinesis.metrics.impl.NullMetricsFactory;
 import com.amazonaws.services.kinesis.metrics.interfaces.IMetricsFactory;
 import com.example.aws.util.Config;
 import com.example.aws.v1.kinesis.Util;
+import com.example.aws.v1.kinesis.metrics.LocalMetricsFactory;
 
 /**
  * Sample consumer application for Amazon Kinesis Streams to display records.
@@ -30,21 +35,34 @@ public final class DisplayConsumerApplication {
 	 * @throws UnknownHostException
 	 */
 	public static void main(String[] args) throws UnknownHostException {
-		// Set AWS credentials
-		AWSCredentialsProvider credentialsProvider = Util.initCredentialsProvider();
+		// Set AWS credentials, which a local stream and DynamoDB Local accept whatever they are
+		AWSCredentialsProvider localCredentialsProvider = new AWSStaticCredentialsProvider(new BasicAWSCredentials("local", "local"));
+		AWSCredentialsProvider credentialsProvider = Config.KINESIS_LOCAL && !Config.DYNAMODB_ENDPOINT.isEmpty()
+				? localCredentialsProvider : Util.initCredentialsProvider();
+		AWSCredentialsProvider kinesisCredentialsProvider = Config.KINESIS_LOCAL ? localCredentialsProvider : credentialsProvider;
+		AWSCredentialsProvider dynamoDBCredentialsProvider = Config.DYNAMODB_ENDPOINT.isEmpty() ? credentialsProvider
+				: localCredentialsProvider;
 
 		// Set KCL configuration
 		String workerId = InetAddress.getLocalHost().getCanonicalHostName() + ":" + UUID.randomUUID();
 		KinesisClientLibConfiguration kclConfiguration = new KinesisClientLibConfiguration(Config.KCL_APPLICATION_NAME, Config.STREAM_NAME,
-				credentialsProvider, workerId);
+				kinesisCredentialsProvider, dynamoDBCredentialsProvider, kinesisCredentialsProvider, workerId);
 		kclConfiguration.withRegionName(Config.REGION);
-		kclConfiguration.withInitialPositionInStream(INITIAL_POSITION_IN_STREAM);
+		// A local stream starts empty with this JVM, so read it from the beginning.
+		kclConfiguration
+				.withInitialPositionInStream(Config.KINESIS_LOCAL ? InitialPositionInStream.TRIM_HORIZON : INITIAL_POSITION_IN_STREAM);
+		if (!Config.DYNAMODB_ENDPOINT.isEmpty()) {
+			kclConfiguration.withDynamoDBEndpoint(Config.DYNAMODB_ENDPOINT);
+		}
 
 		// Start workers
 		IRecordProcessorFactory recordProcessorFactory = new DisplayConsumerFactory();
-		IMetricsFactory metricsFactory = new NullMetricsFactory();
-		Worker worker = new Worker.Builder().recordProcessorFactory(recordProcessorFactory).config(kclConfiguration)
-				.metricsFactory(metricsFactory).build();
+		Worker.Builder workerBuilder = new Worker.Builder().recordProcessorFactory(recordProcessorFactory).config(kclConfiguration)
+				.metricsFactory(metricsFactory(kclConfiguration, kinesisCredentialsProvider));
+		if (Config.KINESIS_LOCAL) {
+			workerBuilder.kinesisClient(Util.kinesisClient());
+		}
+		Worker worker = workerBuilder.build();
 		try {
 			System.out.printf("Running %s to process stream %s as worker %s...\n", Config.KCL_APPLICATION_NAME, Config.STREAM_NAME,
 					workerId);
@@ -55,4 +73,38 @@ public final class DisplayConsumerApplication {
 			System.exit(1);
 		}
 	}
+
+	/**
+	 * Create the metrics factory selected by metrics.factory.
+	 * 
+	 * @param kclConfiguration
+	 * @param credentialsProvider
+	 * @return metrics factory
+	 */
+	private static IMetricsFactory metricsFactory(KinesisClientLibConfiguration kclConfiguration,
+			AWSCredentialsProvider credentialsProvider) {
+		switch (Config.METRICS_FACTORY) {
+		case "local":
+			// A local stream has no CloudWatch to forward to.
+			if (Config.KINESIS_LOCAL || Config.METRICS_CLOUDWATCH_FORWARD.isEmpty()) {
+				return new LocalMetricsFactory();
+			}
+			return new LocalMetricsFactory(cloudWatchMetricsFactory(kclConfiguration, credentialsProvider));
+		case "cloudwatch":
+			return Config.KINESIS_LOCAL ? new NullMetricsFactory() : cloudWatchMetricsFactory(kclConfiguration, credentialsProvider);
+		case "none":
+			return new NullMetricsFactory();
+		default:
+			throw new IllegalArgumentException("Unknown metrics factory: " + Config.METRICS_FACTORY);
+		}
+	}
+
+	// The metrics factory which the Worker would create by default
+	private static IMetricsFactory cloudWatchMetricsFactory(KinesisClientLibConfiguration kclConfiguration,
+			AWSCredentialsProvider credentialsProvider) {
+		return new CWMetricsFactory(
+				AmazonCloudWatchClientBuilder.standard().withCredentials(credentialsProvider).withRegion(Config.REGION).build(),
+				Config.KCL_APPLICATION_NAME, kclConfiguration.getMetricsBufferTimeMillis(), kclConfiguration.getMetricsMaxQueueSize(),
+				kclConfiguration.getMetricsLevel(), kclConfiguration.getMetricsEnabledDimensions());
+	}
 }
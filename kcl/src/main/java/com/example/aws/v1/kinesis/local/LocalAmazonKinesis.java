@@ -0,0 +1,196 @@
+package com.example.aws.v1.kinesis.local;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.kinesis.AbstractAmazonKinesis;
+import com.amazonaws.services.kinesis.model.DescribeStreamRequest;
+import com.amazonaws.services.kinesis.model.DescribeStreamResult;
+import com.amazonaws.services.kinesis.model.GetRecordsRequest;
+import com.amazonaws.services.kinesis.model.GetRecordsResult;
+import com.amazonaws.services.kinesis.model.GetShardIteratorRequest;
+import com.amazonaws.services.kinesis.model.GetShardIteratorResult;
+import com.amazonaws.services.kinesis.model.HashKeyRange;
+import com.amazonaws.services.kinesis.model.InvalidArgumentException;
+import com.amazonaws.services.kinesis.model.ListShardsRequest;
+import com.amazonaws.services.kinesis.model.ListShardsResult;
+import com.amazonaws.services.kinesis.model.ProvisionedThroughputExceededException;
+import com.amazonaws.services.kinesis.model.PutRecordRequest;
+import com.amazonaws.services.kinesis.model.PutRecordResult;
+import com.amazonaws.services.kinesis.model.PutRecordsRequest;
+import com.amazonaws.services.kinesis.model.PutRecordsRequestEntry;
+import com.amazonaws.services.kinesis.model.PutRecordsResult;
+import com.amazonaws.services.kinesis.model.PutRecordsResultEntry;
+import com.amazonaws.services.kinesis.model.Record;
+import com.amazonaws.services.kinesis.model.SequenceNumberRange;
+import com.amazonaws.services.kinesis.model.Shard;
+import com.amazonaws.services.kinesis.model.StreamDescription;
+import com.amazonaws.services.kinesis.model.StreamStatus;
+import com.example.aws.util.local.LocalKinesisStream;
+import com.example.aws.util.local.LocalKinesisStream.GetResult;
+import com.example.aws.util.local.LocalKinesisStream.LocalShard;
+import com.example.aws.util.local.LocalKinesisStream.PutResult;
+import com.example.aws.util.local.LocalKinesisStream.StoredRecord;
+import com.example.aws.util.local.LocalKinesisStream.ThroughputExceededException;
+
+/**
+ * AmazonKinesis of SDK v1 backed by the in-memory streams of this JVM, which the producers and the KCL 1.x Worker can use in place of
+ * the client of Kinesis Data Streams. It serves the calls which they make, PutRecord, PutRecords, ListShards, DescribeStream,
+ * GetShardIterator and GetRecords, and fails the others with UnsupportedOperationException. Shards over their limits fail with
+ * ProvisionedThroughputExceededException, which the callers handle as they would for a real stream.
+ */
+public class LocalAmazonKinesis extends AbstractAmazonKinesis {
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public PutRecordResult putRecord(PutRecordRequest putRecordRequest) {
+		LocalKinesisStream stream = LocalKinesisStream.get(putRecordRequest.getStreamName());
+		try {
+			PutResult result = stream.put(putRecordRequest.getPartitionKey(), putRecordRequest.getExplicitHashKey(),
+					toByteArray(putRecordRequest.getData()));
+			return new PutRecordResult().withShardId(result.getShardId()).withSequenceNumber(result.getSequenceNumber());
+		} catch (ThroughputExceededException e) {
+			throw throughputExceeded(e);
+		} catch (IllegalArgumentException e) {
+			throw invalidArgument(e);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public PutRecordsResult putRecords(PutRecordsRequest putRecordsRequest) {
+		LocalKinesisStream stream = LocalKinesisStream.get(putRecordsRequest.getStreamName());
+		List<PutRecordsResultEntry> resultEntries = new ArrayList<>(putRecordsRequest.getRecords().size());
+		int failedRecordCount = 0;
+		// Like a real stream, records over the limits of their shards fail one by one while the others are put.
+		for (PutRecordsRequestEntry entry : putRecordsRequest.getRecords()) {
+			try {
+				PutResult result = stream.put(entry.getPartitionKey(), entry.getExplicitHashKey(), toByteArray(entry.getData()));
+				resultEntries
+						.add(new PutRecordsResultEntry().withShardId(result.getShardId()).withSequenceNumber(result.getSequenceNumber()));
+			} catch (ThroughputExceededException e) {
+				failedRecordCount++;
+				resultEntries.add(new PutRecordsResultEntry().withErrorCode("ProvisionedThroughputExceededException")
+						.withErrorMessage(e.getMessage()));
+			} catch (IllegalArgumentException e) {
+				throw invalidArgument(e);
+			}
+		}
+		return new PutRecordsResult().withFailedRecordCount(failedRecordCount).withRecords(resultEntries);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public ListShardsResult listShards(ListShardsRequest listShardsRequest) {
+		// Every shard is returned in one page, so a next token is never given.
+		return new ListShardsResult().withShards(shards(LocalKinesisStream.get(listShardsRequest.getStreamName())));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public DescribeStreamResult describeStream(DescribeStreamRequest describeStreamRequest) {
+		LocalKinesisStream stream = LocalKinesisStream.get(describeStreamRequest.getStreamName());
+		List<Shard> shards = shards(stream);
+		if (describeStreamRequest.getExclusiveStartShardId() != null) {
+			shards.removeIf(shard -> shard.getShardId().compareTo(describeStreamRequest.getExclusiveStartShardId()) <= 0);
+		}
+		return new DescribeStreamResult().withStreamDescription(new StreamDescription().withStreamName(stream.getStreamName())
+				.withStreamStatus(StreamStatus.ACTIVE.toString()).withShards(shards).withHasMoreShards(false).withRetentionPeriodHours(24));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public GetShardIteratorResult getShardIterator(GetShardIteratorRequest getShardIteratorRequest) {
+		LocalKinesisStream stream = LocalKinesisStream.get(getShardIteratorRequest.getStreamName());
+		Date timestamp = getShardIteratorRequest.getTimestamp();
+		try {
+			return new GetShardIteratorResult().withShardIterator(stream.getShardIterator(getShardIteratorRequest.getShardId(),
+					getShardIteratorRequest.getShardIteratorType(), getShardIteratorRequest.getStartingSequenceNumber(),
+					timestamp != null ? timestamp.getTime() : 0L));
+		} catch (IllegalArgumentException e) {
+			throw invalidArgument(e);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public GetRecordsResult getRecords(GetRecordsRequest getRecordsRequest) {
+		try {
+			LocalKinesisStream stream = LocalKinesisStream.ofShardIterator(getRecordsRequest.getShardIterator());
+			GetResult result = stream.getRecords(getRecordsRequest.getShardIterator(),
+					getRecordsRequest.getLimit() != null ? getRecordsRequest.getLimit() : 0);
+			List<Record> records = new ArrayList<>(result.getRecords().size());
+			for (StoredRecord storedRecord : result.getRecords()) {
+				records.add(new Record().withSequenceNumber(storedRecord.getSequenceNumber())
+						.withApproximateArrivalTimestamp(new Date(storedRecord.getArrivalTimeInMillis()))
+						.withPartitionKey(storedRecord.getPartitionKey())
+						.withData(ByteBuffer.wrap(storedRecord.getData()).asReadOnlyBuffer()));
+			}
+			return new GetRecordsResult().withRecords(records).withNextShardIterator(result.getNextShardIterator())
+					.withMillisBehindLatest(result.getMillisBehindLatest());
+		} catch (ThroughputExceededException e) {
+			throw throughputExceeded(e);
+		} catch (IllegalArgumentException e) {
+			throw invalidArgument(e);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void shutdown() {
+		// The streams are kept for the other clients of this JVM.
+	}
+
+	private static List<Shard> shards(LocalKinesisStream stream) {
+		List<Shard> shards = new ArrayList<>(stream.getShards().size());
+		for (LocalShard localShard : stream.getShards()) {
+			shards.add(new Shard().withShardId(localShard.getShardId())
+					.withHashKeyRange(new HashKeyRange().withStartingHashKey(localShard.getStartingHashKey())
+							.withEndingHashKey(localShard.getEndingHashKey()))
+					.withSequenceNumberRange(new SequenceNumberRange().withStartingSequenceNumber(localShard.getStartingSequenceNumber())));
+		}
+		return shards;
+	}
+
+	private static byte[] toByteArray(ByteBuffer data) {
+		// Copy the data, since the caller may reuse its buffer after the call.
+		ByteBuffer duplicate = data.duplicate();
+		byte[] bytes = new byte[duplicate.remaining()];
+		duplicate.get(bytes);
+		return bytes;
+	}
+
+	// Fill in the error code and status code, by which the SDK and the KCL recognize throttling
+	private static AmazonServiceException throughputExceeded(ThroughputExceededException e) {
+		return withError(new ProvisionedThroughputExceededException(e.getMessage()), "ProvisionedThroughputExceededException");
+	}
+
+	private static AmazonServiceException invalidArgument(IllegalArgumentException e) {
+		return withError(new InvalidArgumentException(e.getMessage()), "InvalidArgumentException");
+	}
+
+	private static AmazonServiceException withError(AmazonServiceException e, String errorCode) {
+		e.setServiceName("AmazonKinesis");
+		e.setErrorCode(errorCode);
+		e.setStatusCode(400);
+		e.setErrorType(AmazonServiceException.ErrorType.Client);
+		return e;
+	}
+}
@@ -0,0 +1,30 @@
+package com.example.aws.v1.kinesis.local;
+
+import java.net.UnknownHostException;
+
+import com.example.aws.util.Config;
+import com.example.aws.v1.kinesis.consumer.DisplayConsumerApplication;
+import com.example.aws.v1.kinesis.producer.SimpleStreamsProducer;
+
+/**
+ * Run SimpleStreamsProducer and DisplayConsumerApplication of KCL 1.x together in this JVM against an in-memory stream, so that the
+ * whole pipeline can be run without Kinesis Data Streams. The KCL still keeps its leases in DynamoDB, which can be DynamoDB Local given
+ * by dynamodb.endpoint.
+ */
+public class LocalPipelineApplication {
+
+	public static void main(String[] args) throws UnknownHostException {
+		if (!Config.KINESIS_LOCAL) {
+			System.err.println("Set -Dkinesis.local=true to run against an in-memory stream.");
+			System.exit(1);
+		}
+		System.out.printf("Running against local stream %s with %d shards...\n", Config.STREAM_NAME, Config.KINESIS_LOCAL_SHARDS);
+
+		Thread producerThread = new Thread(() -> SimpleStreamsProducer.main(args), "local-producer");
+		producerThread.setDaemon(true);
+		producerThread.start();
+
+		DisplayConsumerApplication.main(args);
+	}
+
+}
@@ -0,0 +1,109 @@
+package com.example.aws.v1.kinesis.metrics;
+
+import java.util.Map;
+
+import com.amazonaws.services.cloudwatch.model.StandardUnit;
+import com.amazonaws.services.kinesis.metrics.interfaces.IMetricsFactory;
+import com.amazonaws.services.kinesis.metrics.interfaces.IMetricsScope;
+import com.amazonaws.services.kinesis.metrics.interfaces.MetricsLevel;
+import com.example.aws.util.metrics.LocalMetrics;
+import com.example.aws.util.metrics.LocalMetricsScope;
+
+/**
+ * IMetricsFactory of KCL 1.x which aggregates the metrics in this JVM with LocalMetrics instead of publishing them to CloudWatch. The
+ * metrics selected by metrics.cloudwatch.forward are also passed to a CloudWatch metrics factory if one is given.
+ */
+public class LocalMetricsFactory implements IMetricsFactory {
+
+	private final IMetricsFactory cloudWatchMetricsFactory;
+
+	/**
+	 * Constructor to keep all the metrics in this JVM.
+	 */
+	public LocalMetricsFactory() {
+		this(null);
+	}
+
+	/**
+	 * Constructor to also publish the metrics selected by metrics.cloudwatch.forward.
+	 * 
+	 * @param cloudWatchMetricsFactory
+	 *            factory of the scopes to forward the selected metrics to, or null to forward none
+	 */
+	public LocalMetricsFactory(IMetricsFactory cloudWatchMetricsFactory) {
+		this.cloudWatchMetricsFactory = cloudWatchMetricsFactory;
+		LocalMetrics.startHttpServer();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public IMetricsScope createMetrics() {
+		return new Scope();
+	}
+
+	private class Scope implements IMetricsScope {
+		private final LocalMetricsScope localScope = new LocalMetricsScope();
+		// Created when the first forwarded metric is added, so that scopes without one cost CloudWatch nothing
+		private IMetricsScope cloudWatchScope = null;
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void addData(String name, double value, StandardUnit unit) {
+			localScope.addData(name, value, unit.toString());
+			if (isForwarded(name)) {
+				cloudWatchScope().addData(name, value, unit);
+			}
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void addData(String name, double value, StandardUnit unit, MetricsLevel level) {
+			localScope.addData(name, value, unit.toString());
+			if (isForwarded(name)) {
+				cloudWatchScope().addData(name, value, unit, level);
+			}
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void addDimension(String name, String value) {
+			localScope.addDimension(name, value);
+			if (cloudWatchScope != null) {
+				cloudWatchScope.addDimension(name, value);
+			}
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void end() {
+			localScope.end();
+			if (cloudWatchScope != null) {
+				cloudWatchScope.end();
+			}
+		}
+
+		private boolean isForwarded(String name) {
+			return cloudWatchMetricsFactory != null && LocalMetrics.isForwarded(name);
+		}
+
+		private IMetricsScope cloudWatchScope() {
+			if (cloudWatchScope == null) {
+				cloudWatchScope = cloudWatchMetricsFactory.createMetrics();
+				for (Map.Entry<String, String> dimension : localScope.dimensions().entrySet()) {
+					cloudWatchScope.addDimension(dimension.getKey(), dimension.getValue());
+				}
+			}
+			return cloudWatchScope;
+		}
+	}
+}
@@ -1,42 +1,58 @@
 package com.example.aws.v1.kinesis.producer;
 
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
 
+import com.amazonaws.AmazonClientException;
 import com.amazonaws.services.kinesis.AmazonKinesis;
-import com.amazonaws.services.kinesis.AmazonKinesisClientBuilder;
-import com.amazonaws.services.kinesis.model.DescribeStreamRequest;
-import com.amazonaws.services.kinesis.model.DescribeStreamResult;
 import com.amazonaws.services.kinesis.model.PutRecordsRequest;
 import com.amazonaws.services.kinesis.model.PutRecordsRequestEntry;
 import com.amazonaws.services.kinesis.model.PutRecordsResult;
-import com.amazonaws.services.kinesis.model.Shard;
+import com.amazonaws.services.kinesis.model.PutRecordsResultEntry;
+import com.example.aws.util.BatchBuilder;
 import com.example.aws.util.Config;
 import com.example.aws.util.RecordObject;
+import com.example.aws.util.RecordObjectSerializer;
+import com.example.aws.util.Resubmitter;
+import com.example.aws.util.ShardMap;
+import com.example.aws.util.ShardRateLimiter;
+import com.example.aws.util.codec.PayloadCodecs;
+import com.example.aws.util.codec.PayloadEncoder;
+import com.example.aws.v1.kinesis.Util;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
 public class DistributedExplicitHashKeyStreamsProducer {
 
+	// PutRecords accepts up to 500 records and 5 MiB including partition keys in one call
+	private static final int MAX_RECORDS_PER_REQUEST = 500;
+	private static final long MAX_BYTES_PER_REQUEST = 5L * 1024 * 1024;
+
 	public static void main(String[] args) {
-		final ObjectMapper mapper = new ObjectMapper();
-		AmazonKinesis kinesisClient = AmazonKinesisClientBuilder.standard().withRegion(Config.REGION).build();
-
-		// Prepare distributed ExplicitHashKey
-		DescribeStreamRequest describeStreamRequest = new DescribeStreamRequest();
-		describeStreamRequest.setStreamName(Config.STREAM_NAME);
-		DescribeStreamResult describeStreamResult = kinesisClient.describeStream(describeStreamRequest);
-		List<Shard> shardList = describeStreamResult.getStreamDescription().getShards();
-		List<String> explicitHashKeyList = new ArrayList<>();
-		while (explicitHashKeyList.size() < Config.RECORD_COUNT) {
-			for (Shard shard : shardList) {
-				explicitHashKeyList.add(shard.getHashKeyRange().getStartingHashKey());
-				if (explicitHashKeyList.size() >= Config.RECORD_COUNT) {
-					break;
-				}
-			}
-		}
+		final RecordObjectSerializer serializer = new RecordObjectSerializer();
+		final PayloadEncoder encoder = PayloadCodecs.encoderFromConfig();
+		AmazonKinesis kinesisClient = Util.kinesisClient();
+
+		// Spread explicit hash keys across the open shards in proportion to their hash key ranges, following splits and merges by
+		// refreshing the shards from ListShards.
+		ShardMap shardMap = ShardMap.fromConfig(() -> Util.listShards(kinesisClient, Config.STREAM_NAME));
+		System.out.println("Open shards : " + shardMap);
+
+		// Keep the records put to each shard within the write limits of a shard.
+		ShardRateLimiter rateLimiter = ShardRateLimiter.fromConfig();
+
+		// Pack records into requests up to the limits of PutRecords, sending a request when it is full or producer.linger.millis after its
+		// first record.
+		BatchBuilder<PutRecordsRequestEntry> batchBuilder = new BatchBuilder<>(MAX_RECORDS_PER_REQUEST, MAX_BYTES_PER_REQUEST,
+				Config.PRODUCER_LINGER_MILLIS, DistributedExplicitHashKeyStreamsProducer::sizeOf);
+
+		// Resubmit only the records which failed, ahead of new records.
+		Resubmitter<PutRecordsRequestEntry> resubmitter = Resubmitter.fromConfig(PutRecordsRequestEntry::getPartitionKey,
+				DistributedExplicitHashKeyStreamsProducer::sizeOf);
 
 		PutRecordsRequest putRecordsRequest = new PutRecordsRequest();
 		putRecordsRequest.setStreamName(Config.STREAM_NAME);
@@ -47,33 +63,92 @@ public class DistributedExplicitHashKeyStreamsProducer {
 			recordObjects.add(recordObject);
 		}
 
+		long nextRecordTimeInMillis = System.currentTimeMillis();
 		while (true) {
-			List<PutRecordsRequestEntry> putRecordsRequestEntryList = new ArrayList<>();
-			for (int i = 0; i < Config.RECORD_COUNT; i++) {
-				RecordObject recordObject = recordObjects.get(i);
-				recordObject.incrementRecordCount();
-				recordObject.setTimestampToNow();
-				PutRecordsRequestEntry putRecordsRequestEntry = new PutRecordsRequestEntry();
-				try {
-					putRecordsRequestEntry.setData(ByteBuffer.wrap(mapper.writeValueAsString(recordObject).getBytes()));
-				} catch (JsonProcessingException e) {
-					e.printStackTrace();
+			if (System.currentTimeMillis() >= nextRecordTimeInMillis) {
+				shardMap.refreshIfStale();
+				List<String> explicitHashKeyList = shardMap.explicitHashKeys(Config.RECORD_COUNT);
+				for (int i = 0; i < Config.RECORD_COUNT; i++) {
+					RecordObject recordObject = recordObjects.get(i);
+					recordObject.incrementRecordCount();
+					recordObject.setTimestampToNow();
+					PutRecordsRequestEntry putRecordsRequestEntry = new PutRecordsRequestEntry();
+					try {
+						putRecordsRequestEntry.setData(ByteBuffer.wrap(encoder.encode(serializer.serialize(recordObject))));
+					} catch (JsonProcessingException e) {
+						e.printStackTrace();
+						continue;
+					}
+					putRecordsRequestEntry.setPartitionKey(recordObject.partitionKey);
+					putRecordsRequestEntry.setExplicitHashKey(explicitHashKeyList.get(i));
+					batchBuilder.add(putRecordsRequestEntry);
 				}
-				putRecordsRequestEntry.setPartitionKey(recordObject.partitionKey);
-				putRecordsRequestEntry.setExplicitHashKey(explicitHashKeyList.get(i));
-				putRecordsRequestEntryList.add(putRecordsRequestEntry);
+				nextRecordTimeInMillis += Config.RECORD_INTERVAL_MILLIS.get();
 			}
-			putRecordsRequest.setRecords(putRecordsRequestEntryList);
-			PutRecordsResult putRecordsResult = kinesisClient.putRecords(putRecordsRequest);
-			System.out.println("Put Result : " + putRecordsResult);
-
-			try {
-				Thread.sleep(Config.RECORD_INTERVAL_MILLIS);
-			} catch (InterruptedException e) {
-				e.printStackTrace();
+
+			// Send the requests which are ready, with the records to resubmit.
+			List<PutRecordsRequestEntry> ready;
+			while ((ready = batchBuilder.poll()) != null || resubmitter.getQueuedCount() > 0) {
+				List<PutRecordsRequestEntry> batch = resubmitter.nextBatch(ready != null ? ready : Collections.emptyList(),
+						MAX_RECORDS_PER_REQUEST, MAX_BYTES_PER_REQUEST);
+				try {
+					throttle(rateLimiter, shardMap, batch);
+				} catch (InterruptedException e) {
+					System.out.println("Interrupted, assuming shutdown.");
+					return;
+				}
+				putRecordsRequest.setRecords(batch);
+				long backoffMillis;
+				try {
+					PutRecordsResult putRecordsResult = kinesisClient.putRecords(putRecordsRequest);
+					System.out.println("Put Result : " + putRecordsResult);
+					List<String> errorCodes = putRecordsResult.getRecords().stream().map(PutRecordsResultEntry::getErrorCode)
+							.collect(Collectors.toList());
+					if (errorCodes.stream().anyMatch(Objects::nonNull)) {
+						// The stream may have been resharded.
+						shardMap.invalidate();
+					}
+					backoffMillis = resubmitter.completed(errorCodes);
+				} catch (AmazonClientException e) {
+					System.err.println("Exception while sending data to Kinesis will try again next cycle");
+					shardMap.invalidate();
+					backoffMillis = resubmitter.failed(e, Util.isRetryable(e), Util.isThrottling(e));
+				}
+				System.out.println("Put Records : " + resubmitter.describe());
+				sleep(backoffMillis);
 			}
+
+			// Wait for the next records or the linger time of the current request, whichever comes first.
+			sleep(Math.min(nextRecordTimeInMillis - System.currentTimeMillis(), batchBuilder.millisUntilReady()));
+		}
+
+	}
+
+	// Wait until the shards of the records can take them, as looked up in the open shards
+	private static void throttle(ShardRateLimiter rateLimiter, ShardMap shardMap, List<PutRecordsRequestEntry> putRecordsRequestEntryList)
+			throws InterruptedException {
+		long waitMillis = rateLimiter.acquireAll(putRecordsRequestEntryList, entry -> shardMap.shardIdOf(entry.getExplicitHashKey()),
+				DistributedExplicitHashKeyStreamsProducer::sizeOf);
+		if (waitMillis > 0L) {
+			System.out.println("Waited " + waitMillis + " milliseconds for the shard write limits");
 		}
+	}
+
+	// Size of a record counted toward the limits of a request and a shard
+	private static long sizeOf(PutRecordsRequestEntry putRecordsRequestEntry) {
+		return putRecordsRequestEntry.getData().remaining()
+				+ putRecordsRequestEntry.getPartitionKey().getBytes(StandardCharsets.UTF_8).length;
+	}
 
+	private static void sleep(long millis) {
+		if (millis <= 0L) {
+			return;
+		}
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
 	}
 
 }
@@ -2,58 +2,109 @@ package com.example.aws.v1.kinesis.producer;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.stream.Collectors;
 
+import com.amazonaws.AmazonClientException;
 import com.amazonaws.services.kinesisfirehose.AmazonKinesisFirehose;
 import com.amazonaws.services.kinesisfirehose.AmazonKinesisFirehoseClientBuilder;
 import com.amazonaws.services.kinesisfirehose.model.PutRecordBatchRequest;
+import com.amazonaws.services.kinesisfirehose.model.PutRecordBatchResponseEntry;
 import com.amazonaws.services.kinesisfirehose.model.PutRecordBatchResult;
 import com.amazonaws.services.kinesisfirehose.model.Record;
+import com.example.aws.util.BatchBuilder;
 import com.example.aws.util.Config;
 import com.example.aws.util.RecordObject;
+import com.example.aws.util.RecordObjectSerializer;
+import com.example.aws.util.Resubmitter;
+import com.example.aws.util.RetryPolicy;
+import com.example.aws.util.codec.PayloadCodecs;
+import com.example.aws.util.codec.PayloadEncoder;
+import com.example.aws.v1.kinesis.Util;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
 public class SimpleFirehoseProducer {
 
+	// PutRecordBatch accepts up to 500 records and 4 MiB in one call
+	private static final int MAX_RECORDS_PER_REQUEST = 500;
+	private static final long MAX_BYTES_PER_REQUEST = 4L * 1024 * 1024;
+
 	public static void main(String[] args) {
-		final ObjectMapper mapper = new ObjectMapper();
+		final RecordObjectSerializer serializer = new RecordObjectSerializer();
+		final PayloadEncoder encoder = PayloadCodecs.encoderFromConfig();
 		AmazonKinesisFirehose firehoseClient = AmazonKinesisFirehoseClientBuilder.standard().withRegion(Config.REGION).build();
 
 		PutRecordBatchRequest putRecordBatchRequest = new PutRecordBatchRequest();
 		putRecordBatchRequest.setDeliveryStreamName(Config.DELIVERY_STREAM_NAME);
 
+		// Pack records into requests up to the limits of PutRecordBatch, sending a request when it is full or producer.linger.millis after
+		// its first record.
+		BatchBuilder<Record> batchBuilder = new BatchBuilder<>(MAX_RECORDS_PER_REQUEST, MAX_BYTES_PER_REQUEST,
+				Config.PRODUCER_LINGER_MILLIS, record -> record.getData().remaining());
+
+		// Resubmit only the records which failed, ahead of new records. Firehose records have no partition key to keep the order of.
+		Resubmitter<Record> resubmitter = new Resubmitter<>(RetryPolicy.fromConfig(), null, record -> record.getData().remaining());
+
 		List<RecordObject> recordObjects = new ArrayList<>();
 		for (int i = 0; i < Config.RECORD_COUNT; i++) {
 			RecordObject recordObject = new RecordObject(String.valueOf(i));
 			recordObjects.add(recordObject);
 		}
 
+		long nextRecordTimeInMillis = System.currentTimeMillis();
 		while (true) {
-			List<Record> recordList = new ArrayList<>();
-			for (int i = 0; i < Config.RECORD_COUNT; i++) {
-				RecordObject recordObject = recordObjects.get(i);
-				recordObject.incrementRecordCount();
-				recordObject.setTimestampToNow();
-				Record record = new Record();
-				try {
-					record.setData(ByteBuffer.wrap(mapper.writeValueAsString(recordObject).getBytes()));
-				} catch (JsonProcessingException e) {
-					e.printStackTrace();
+			if (System.currentTimeMillis() >= nextRecordTimeInMillis) {
+				for (int i = 0; i < Config.RECORD_COUNT; i++) {
+					RecordObject recordObject = recordObjects.get(i);
+					recordObject.incrementRecordCount();
+					recordObject.setTimestampToNow();
+					Record record = new Record();
+					try {
+						record.setData(ByteBuffer.wrap(encoder.encode(serializer.serialize(recordObject))));
+					} catch (JsonProcessingException e) {
+						e.printStackTrace();
+						continue;
+					}
+					batchBuilder.add(record);
 				}
-				recordList.add(record);
+				nextRecordTimeInMillis += Config.RECORD_INTERVAL_MILLIS.get();
 			}
-			putRecordBatchRequest.setRecords(recordList);
-			PutRecordBatchResult putRecordBatchResult = firehoseClient.putRecordBatch(putRecordBatchRequest);
-			System.out.println("Put Result : " + putRecordBatchResult);
-
-			try {
-				Thread.sleep(Config.RECORD_INTERVAL_MILLIS);
-			} catch (InterruptedException e) {
-				e.printStackTrace();
+
+			// Send the requests which are ready, with the records to resubmit.
+			List<Record> ready;
+			while ((ready = batchBuilder.poll()) != null || resubmitter.getQueuedCount() > 0) {
+				putRecordBatchRequest.setRecords(resubmitter.nextBatch(ready != null ? ready : Collections.emptyList(),
+						MAX_RECORDS_PER_REQUEST, MAX_BYTES_PER_REQUEST));
+				long backoffMillis;
+				try {
+					PutRecordBatchResult putRecordBatchResult = firehoseClient.putRecordBatch(putRecordBatchRequest);
+					System.out.println("Put Result : " + putRecordBatchResult);
+					backoffMillis = resubmitter.completed(putRecordBatchResult.getRequestResponses().stream()
+							.map(PutRecordBatchResponseEntry::getErrorCode).collect(Collectors.toList()));
+				} catch (AmazonClientException e) {
+					System.err.println("Exception while sending data to Kinesis Data Firehose will try again next cycle");
+					backoffMillis = resubmitter.failed(e, Util.isRetryable(e), Util.isThrottling(e));
+				}
+				System.out.println("Put Records : " + resubmitter.describe());
+				sleep(backoffMillis);
 			}
+
+			// Wait for the next records or the linger time of the current request, whichever comes first.
+			sleep(Math.min(nextRecordTimeInMillis - System.currentTimeMillis(), batchBuilder.millisUntilReady()));
 		}
 
 	}
 
+	private static void sleep(long millis) {
+		if (millis <= 0L) {
+			return;
+		}
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+	}
+
 }
@@ -0,0 +1,87 @@
+package com.example.aws.v2.dynamodb.streams.consumer;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+/**
+ * Convert DynamoDB JSON, as written in DynamoDB change records, to attribute values.
+ */
+public class AttributeValues {
+
+	/**
+	 * Convert an item or key map in DynamoDB JSON (e.g. {"id":{"N":"1"}}) to attribute values.
+	 * 
+	 * @param item
+	 *            JSON object of attribute names to DynamoDB JSON values
+	 * @return attribute value map, empty if the node is missing
+	 */
+	public static Map<String, AttributeValue> fromJson(JsonNode item) {
+		Map<String, AttributeValue> attributeValues = new HashMap<>();
+		Iterator<Entry<String, JsonNode>> fields = item.fields();
+		while (fields.hasNext()) {
+			Entry<String, JsonNode> field = fields.next();
+			attributeValues.put(field.getKey(), toAttributeValue(field.getValue()));
+		}
+		return attributeValues;
+	}
+
+	/**
+	 * Convert a single DynamoDB JSON value (e.g. {"S":"foo"}) to an attribute value.
+	 * 
+	 * @param value
+	 * @return attribute value
+	 */
+	public static AttributeValue toAttributeValue(JsonNode value) {
+		AttributeValue.Builder builder = AttributeValue.builder();
+		if (value.has("S")) {
+			builder.s(value.get("S").asText());
+		} else if (value.has("N")) {
+			builder.n(value.get("N").asText());
+		} else if (value.has("B")) {
+			builder.b(SdkBytes.fromByteArray(Base64.getDecoder().decode(value.get("B").asText())));
+		} else if (value.has("BOOL")) {
+			builder.bool(value.get("BOOL").asBoolean());
+		} else if (value.has("NULL")) {
+			builder.nul(value.get("NULL").asBoolean());
+		} else if (value.has("SS")) {
+			builder.ss(texts(value.get("SS")));
+		} else if (value.has("NS")) {
+			builder.ns(texts(value.get("NS")));
+		} else if (value.has("BS")) {
+			List<SdkBytes> bytes = new ArrayList<>();
+			for (String text : texts(value.get("BS"))) {
+				bytes.add(SdkBytes.fromByteArray(Base64.getDecoder().decode(text)));
+			}
+			builder.bs(bytes);
+		} else if (value.has("M")) {
+			builder.m(fromJson(value.get("M")));
+		} else if (value.has("L")) {
+			List<AttributeValue> list = new ArrayList<>();
+			for (JsonNode element : value.get("L")) {
+				list.add(toAttributeValue(element));
+			}
+			builder.l(list);
+		} else {
+			throw new IllegalArgumentException("Unknown DynamoDB JSON value: " + value);
+		}
+		return builder.build();
+	}
+
+	private static List<String> texts(JsonNode array) {
+		List<String> texts = new ArrayList<>();
+		for (JsonNode element : array) {
+			texts.add(element.asText());
+		}
+		return texts;
+	}
+}
@@ -0,0 +1,261 @@
+package com.example.aws.v2.dynamodb.streams.consumer;
+
+import java.io.IOException;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.example.aws.util.CheckpointPolicy;
+import com.example.aws.util.DeadLetterLog;
+import com.example.aws.util.ResizableSemaphore;
+import com.example.aws.util.codec.PayloadDecoder;
+import com.example.aws.util.sink.Sink;
+import com.example.aws.util.sink.Sinks;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.DeleteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+import software.amazon.kinesis.exceptions.InvalidStateException;
+import software.amazon.kinesis.exceptions.ShutdownException;
+import software.amazon.kinesis.exceptions.ThrottlingException;
+import software.amazon.kinesis.lifecycle.events.InitializationInput;
+import software.amazon.kinesis.lifecycle.events.LeaseLostInput;
+import software.amazon.kinesis.lifecycle.events.ProcessRecordsInput;
+import software.amazon.kinesis.lifecycle.events.ShardEndedInput;
+import software.amazon.kinesis.lifecycle.events.ShutdownRequestedInput;
+import software.amazon.kinesis.processor.RecordProcessorCheckpointer;
+import software.amazon.kinesis.processor.ShardRecordProcessor;
+import software.amazon.kinesis.retrieval.KinesisClientRecord;
+
+/**
+ * Replicate DynamoDB change records, which the source table streams to Kinesis Data Streams, to another table with non-blocking writes and
+ * checkpoints progress.
+ */
+public class ReplicationConsumer implements ShardRecordProcessor {
+
+	private static final Log LOG = LogFactory.getLog(ReplicationConsumer.class);
+	private String shardId;
+
+	private final DynamoDbAsyncClient dynamoDbClient;
+	private final String destTableName;
+	private final String keyAttribute;
+
+	// Bounded window of writes in flight for this shard, resized when maxInFlight changes
+	private final IntSupplier maxInFlight;
+	private final ResizableSemaphore inFlight;
+
+	// Checkpoint after checkpoint.max.records records, checkpoint.max.bytes bytes or checkpoint.interval.millis
+	private final CheckpointPolicy checkpointPolicy = CheckpointPolicy.fromConfig();
+
+	// Records whose write could not be completed, after the retries of the client, are set aside so that the shard keeps moving
+	private final DeadLetterLog deadLetterLog = DeadLetterLog.defaultLog();
+
+	private final CharsetDecoder decoder = Charset.forName("UTF-8").newDecoder();
+	private final PayloadDecoder payloadDecoder = new PayloadDecoder();
+	private final ObjectMapper mapper = new ObjectMapper();
+	private final Sink sink = Sinks.defaultSink();
+
+	/**
+	 * Constructor using destTableName, keyAttribute and maxInFlight fields
+	 * 
+	 * @param dynamoDbClient
+	 * @param destTableName
+	 * @param keyAttribute
+	 *            Hash key attribute of the destination table
+	 * @param maxInFlight
+	 *            Maximum number of write requests in flight for each shard, read before each write
+	 */
+	public ReplicationConsumer(DynamoDbAsyncClient dynamoDbClient, String destTableName, String keyAttribute, IntSupplier maxInFlight) {
+		super();
+		this.dynamoDbClient = dynamoDbClient;
+		this.destTableName = destTableName;
+		this.keyAttribute = keyAttribute;
+		this.maxInFlight = maxInFlight;
+		this.inFlight = new ResizableSemaphore(Math.max(1, maxInFlight.getAsInt()));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void initialize(InitializationInput initializationInput) {
+		this.shardId = initializationInput.shardId();
+		LOG.info("Initializing record processor for shard: " + initializationInput.shardId());
+		LOG.info("- Initializing @ Sequence: " + initializationInput.extendedSequenceNumber());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void processRecords(ProcessRecordsInput processRecordsInput) {
+		LOG.info("Processing " + processRecordsInput.records().size() + " records from " + shardId);
+
+		// Issue writes without waiting for each round trip, keeping writes to the same item in order.
+		Map<AttributeValue, CompletableFuture<Void>> lastWriteByKey = new HashMap<>();
+		Map<KinesisClientRecord, String> outputs = new LinkedHashMap<>();
+		Map<KinesisClientRecord, Throwable> failures = new ConcurrentHashMap<>();
+		List<CompletableFuture<Void>> writes = new ArrayList<>();
+		for (KinesisClientRecord record : processRecordsInput.records()) {
+			CompletableFuture<Void> write = processSingleRecord(record, lastWriteByKey, outputs, failures);
+			if (write != null) {
+				writes.add(write);
+			}
+		}
+
+		// Wait until every write of this batch has completed before checkpointing past it.
+		CompletableFuture.allOf(writes.toArray(new CompletableFuture<?>[writes.size()])).handle((r, t) -> null).join();
+
+		// The client has already retried the failed writes by its own retry policy, so set their records aside and move on.
+		failures.forEach((record, t) -> deadLetterLog.write(shardId, record.sequenceNumber(), record.partitionKey(), record.data(), 1, t));
+
+		// Write the output on this thread, so that a full sink holds back the KCL rather than the event loop of the client.
+		outputs.forEach((record, output) -> {
+			if (!failures.containsKey(record)) {
+				sink.write(output);
+			}
+		});
+
+		for (KinesisClientRecord record : processRecordsInput.records()) {
+			// User records of KPL aggregated records are checkpointed by their sub-sequence numbers.
+			checkpointPolicy.recordProcessed(record.sequenceNumber(), record.subSequenceNumber(), record.data().remaining());
+		}
+
+		// Checkpoint when the checkpoint policy says so.
+		checkpointPolicy.checkpointIfDue(shardId, processRecordsInput.checkpointer()::checkpoint);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void leaseLost(LeaseLostInput leaseLostInput) {
+		LOG.info("Lost lease, so terminating. shardId = " + shardId);
+		if (checkpointPolicy.getPendingRecords() > 0) {
+			LOG.info("Shard " + shardId + " will replay " + checkpointPolicy.describeReplay());
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void shardEnded(ShardEndedInput shardEndedInput) {
+		LOG.info("Reached shard end checkpointing. shardId = " + shardId);
+		checkpoint(shardEndedInput.checkpointer());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void shutdownRequested(ShutdownRequestedInput shutdownRequestedInput) {
+		LOG.info("Scheduler is shutting down, checkpointing. shardId = " + shardId);
+		checkpoint(shutdownRequestedInput.checkpointer());
+	}
+
+	/**
+	 * Checkpoint at the last record passed to processRecords.
+	 * 
+	 * @param checkpointer
+	 */
+	private void checkpoint(RecordProcessorCheckpointer checkpointer) {
+		try {
+			LOG.info("Checkpointing shard " + shardId);
+			checkpointer.checkpoint();
+			checkpointPolicy.checkpointed();
+		} catch (ShutdownException | InvalidStateException | ThrottlingException e) {
+			LOG.error("Exception while checkpointing.  Giving up", e);
+		}
+	}
+
+	/**
+	 * Process a single record by issuing a non-blocking write to the destination table.
+	 * 
+	 * @param record
+	 *            The record to be processed.
+	 * @param lastWriteByKey
+	 *            Last write issued for each key in this batch, to chain writes to the same item.
+	 * @param outputs
+	 *            Output of each record whose write has been issued, to be written to the sink once the write has completed
+	 * @param failures
+	 *            Records whose write failed, with the failure
+	 * @return future of the write, which completes normally even if the write failed, or null if the record was not replicated
+	 */
+	private CompletableFuture<Void> processSingleRecord(KinesisClientRecord record,
+			Map<AttributeValue, CompletableFuture<Void>> lastWriteByKey, Map<KinesisClientRecord, String> outputs,
+			Map<KinesisClientRecord, Throwable> failures) {
+		String data = null;
+		try {
+			// For this app, we interpret the payload as UTF-8 chars, after decompressing it if the producer compressed it. Decode a
+			// duplicate, since the record hands out the same buffer every time and it is read again for its size and to dead-letter it.
+			data = decoder.decode(payloadDecoder.decode(record.data().duplicate())).toString();
+
+			// Replicate records
+			JsonNode changeRecord = mapper.readTree(data);
+			JsonNode ddbStreamRecord = changeRecord.path("dynamodb");
+			Map<String, AttributeValue> keys = AttributeValues.fromJson(ddbStreamRecord.path("Keys"));
+			AttributeValue key = keys.get(keyAttribute);
+
+			String eventName = changeRecord.path("eventName").asText();
+			Supplier<CompletableFuture<Void>> write;
+			switch (eventName) {
+			case "INSERT":
+			case "MODIFY":
+				PutItemRequest putItemRequest = PutItemRequest.builder().tableName(destTableName)
+						.item(AttributeValues.fromJson(ddbStreamRecord.path("NewImage"))).build();
+				write = () -> dynamoDbClient.putItem(putItemRequest).thenAccept(response -> {
+				});
+				break;
+			case "REMOVE":
+				Map<String, AttributeValue> deleteKey = new HashMap<String, AttributeValue>();
+				deleteKey.put(keyAttribute, key);
+				DeleteItemRequest deleteItemRequest = DeleteItemRequest.builder().tableName(destTableName).key(deleteKey).build();
+				write = () -> dynamoDbClient.deleteItem(deleteItemRequest).thenAccept(response -> {
+				});
+				break;
+			default:
+				LOG.info("Record is not a DynamoDB change record. Ignoring record with data; " + data);
+				return null;
+			}
+
+			// Block this thread only when the window of writes in flight is full.
+			inFlight.resize(Math.max(1, maxInFlight.getAsInt()));
+			inFlight.acquireUninterruptibly();
+			CompletableFuture<Void> previous = lastWriteByKey.get(key);
+			CompletableFuture<Void> issued = previous == null ? write.get() : previous.thenCompose(v -> write.get());
+			String recordData = data;
+			outputs.put(record, "---\nRecord " + eventName + " replicated.\n" + recordData);
+			CompletableFuture<Void> completed = issued.handle((v, t) -> {
+				inFlight.release();
+				if (t != null) {
+					LOG.error("Couldn't replicate record " + record.sequenceNumber() + " from " + shardId + " with data; " + recordData, t);
+					failures.put(record, t);
+				}
+				return null;
+			});
+			lastWriteByKey.put(key, completed);
+			return completed;
+		} catch (CharacterCodingException e) {
+			LOG.error("Malformed data: " + data, e);
+		} catch (IOException e) {
+			LOG.info("Record does not match DynamoDB change record format. Ignoring record with data; " + data);
+		}
+		return null;
+	}
+}
@@ -0,0 +1,49 @@
+package com.example.aws.v2.dynamodb.streams.consumer;
+
+import java.util.function.IntSupplier;
+
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.model.DescribeTableRequest;
+import software.amazon.awssdk.services.dynamodb.model.KeyType;
+import software.amazon.kinesis.processor.ShardRecordProcessor;
+import software.amazon.kinesis.processor.ShardRecordProcessorFactory;
+
+/**
+ * Used to create new record processors.
+ */
+public class ReplicationConsumerFactory implements ShardRecordProcessorFactory {
+	private final DynamoDbAsyncClient dynamoDbClient;
+	private final String destTableName;
+	private final IntSupplier maxInFlight;
+	private final String keyAttribute;
+
+	/**
+	 * Constructor using all fields. The key attribute of the destination table is looked up once here rather than by each record
+	 * processor.
+	 * 
+	 * @param dynamoDbClient
+	 *            Client shared by the record processors to write to the destination table
+	 * @param destTableName
+	 * @param maxInFlight
+	 *            Maximum number of write requests in flight for each shard, read before each write
+	 */
+	public ReplicationConsumerFactory(DynamoDbAsyncClient dynamoDbClient, String destTableName, IntSupplier maxInFlight) {
+		super();
+		this.dynamoDbClient = dynamoDbClient;
+		this.destTableName = destTableName;
+		this.maxInFlight = maxInFlight;
+		this.keyAttribute = dynamoDbClient.describeTable(DescribeTableRequest.builder().tableName(destTableName).build()).join().table()
+				.keySchema().stream().filter(keySchemaElement -> keySchemaElement.keyType() == KeyType.HASH).findFirst().get()
+				.attributeName();
+		System.out.println("Configured to replicate items to table [" + destTableName + "] with key attribute [" + keyAttribute
+				+ "] keeping up to " + maxInFlight.getAsInt() + " writes in flight for each shard");
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public ShardRecordProcessor shardRecordProcessor() {
+		return new ReplicationConsumer(dynamoDbClient, destTableName, keyAttribute, maxInFlight);
+	}
+}
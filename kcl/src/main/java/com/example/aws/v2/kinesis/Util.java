@@ -0,0 +1,93 @@
+package com.example.aws.v2.kinesis;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import com.example.aws.util.Config;
+import com.example.aws.util.ShardMap.ShardRange;
+import com.example.aws.v2.kinesis.local.LocalKinesisAsyncClient;
+
+import software.amazon.awssdk.auth.credentials.ProfileCredentialsProvider;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.kinesis.KinesisAsyncClient;
+import software.amazon.awssdk.services.kinesis.model.ListShardsRequest;
+import software.amazon.awssdk.services.kinesis.model.ListShardsResponse;
+import software.amazon.awssdk.services.kinesis.model.ProvisionedThroughputExceededException;
+import software.amazon.awssdk.services.kinesis.model.Shard;
+
+public class Util {
+	/**
+	 * Create a client of Kinesis Data Streams in the region, or of the in-memory streams of this JVM if kinesis.local is true
+	 * 
+	 * @return kinesisClient
+	 */
+	public static KinesisAsyncClient kinesisClient() {
+		if (Config.KINESIS_LOCAL) {
+			return new LocalKinesisAsyncClient();
+		}
+		return KinesisAsyncClient.builder().credentialsProvider(ProfileCredentialsProvider.create()).region(Region.of(Config.REGION))
+				.build();
+	}
+
+	/**
+	 * Classify a failure of a call. Throttling, server errors and network errors are retryable, while client errors (e.g.
+	 * ValidationException) fail the same way on every attempt.
+	 * 
+	 * @param t
+	 *            Failure, unwrapped from the ExecutionException or CompletionException of the future
+	 * @return true if the failure may succeed on retry
+	 */
+	public static boolean isRetryable(Throwable t) {
+		if (t instanceof SdkServiceException) {
+			SdkServiceException e = (SdkServiceException) t;
+			return isThrottling(e) || e.isClockSkewException() || e.statusCode() >= 500;
+		}
+		if (t instanceof SdkException && ((SdkException) t).retryable()) {
+			return true;
+		}
+		return t instanceof IOException || t.getCause() instanceof IOException;
+	}
+
+	/**
+	 * @param t
+	 *            Failure, unwrapped from the ExecutionException or CompletionException of the future
+	 * @return true if the failure is throttling by the service
+	 */
+	public static boolean isThrottling(Throwable t) {
+		return t instanceof ProvisionedThroughputExceededException
+				|| t instanceof SdkServiceException && ((SdkServiceException) t).isThrottlingException();
+	}
+
+	/**
+	 * List all the shards of a stream with ListShards, following the next tokens, including closed shards still within the retention
+	 * period.
+	 * 
+	 * @param kinesisClient
+	 * @param streamName
+	 * @return hash key ranges of the shards
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 *             if ListShards failed
+	 */
+	public static List<ShardRange> listShards(KinesisAsyncClient kinesisClient, String streamName)
+			throws InterruptedException, ExecutionException {
+		List<ShardRange> shards = new ArrayList<>();
+		// The stream name must not be given together with a next token.
+		ListShardsRequest listShardsRequest = ListShardsRequest.builder().streamName(streamName).build();
+		while (true) {
+			ListShardsResponse listShardsResponse = kinesisClient.listShards(listShardsRequest).get();
+			for (Shard shard : listShardsResponse.shards()) {
+				shards.add(new ShardRange(shard.shardId(), shard.hashKeyRange().startingHashKey(), shard.hashKeyRange().endingHashKey(),
+						shard.sequenceNumberRange().endingSequenceNumber() == null));
+			}
+			if (listShardsResponse.nextToken() == null) {
+				return shards;
+			}
+			listShardsRequest = ListShardsRequest.builder().nextToken(listShardsResponse.nextToken()).build();
+		}
+	}
+}
@@ -1,17 +1,21 @@
 package com.example.aws.v2.kinesis.consumer;
 
 import java.io.IOException;
-import java.nio.charset.CharacterCodingException;
-import java.nio.charset.Charset;
-import java.nio.charset.CharsetDecoder;
-import java.time.ZonedDateTime;
-import java.time.format.DateTimeFormatter;
+import java.nio.ByteBuffer;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.example.aws.util.CheckpointPolicy;
+import com.example.aws.util.Config;
+import com.example.aws.util.TimeFieldReader;
+import com.example.aws.util.TimestampParser;
+import com.example.aws.util.codec.PayloadDecoder;
+import com.example.aws.util.metrics.LagTracker;
+import com.example.aws.util.metrics.LatencyTracker;
+import com.example.aws.util.metrics.LocalMetrics;
+import com.example.aws.util.sink.Sink;
+import com.example.aws.util.sink.Sinks;
 
 import software.amazon.kinesis.exceptions.InvalidStateException;
 import software.amazon.kinesis.exceptions.ShutdownException;
@@ -28,16 +32,18 @@ import software.amazon.kinesis.retrieval.KinesisClientRecord;
  */
 public class DisplayConsumer implements ShardRecordProcessor {
 
-	private static final boolean IF_TIME_FIELD_ENABLED = Boolean.parseBoolean(System.getProperty("if.time.field.enabled", "false"));
-	private static final String TIME_FIELD_NAME = System.getProperty("time.field.name", "time");
-	private static final String TIME_FIELD_FORMAT = System.getProperty("time.field.format", "yyyy-MM-dd'T'HH:mm:ss.SSSxxxxx");
-
 	private static final Log LOG = LogFactory.getLog(DisplayConsumer.class);
 	private String shardId;
 
-	private final CharsetDecoder decoder = Charset.forName("UTF-8").newDecoder();
-	private final DateTimeFormatter dtf = DateTimeFormatter.ofPattern(TIME_FIELD_FORMAT);
-	private final ObjectMapper mapper = new ObjectMapper();
+	// Checkpoint after checkpoint.max.records records, checkpoint.max.bytes bytes or checkpoint.interval.millis
+	private final CheckpointPolicy checkpointPolicy = CheckpointPolicy.fromConfig();
+
+	private final TimestampParser timestampParser = new TimestampParser(Config.TIME_FIELD_FORMAT);
+	private final TimeFieldReader timeFieldReader = new TimeFieldReader(Config.TIME_FIELD_NAME);
+	private final PayloadDecoder payloadDecoder = new PayloadDecoder();
+	private final Sink sink = Sinks.defaultSink();
+	private LatencyTracker.ShardLatency shardLatency;
+	private LagTracker.Lag shardLag;
 
 	/**
 	 * {@inheritDoc}
@@ -45,6 +51,8 @@ public class DisplayConsumer implements ShardRecordProcessor {
 	@Override
 	public void initialize(InitializationInput initializationInput) {
 		this.shardId = initializationInput.shardId();
+		this.shardLatency = LatencyTracker.forShard(shardId);
+		this.shardLag = LagTracker.forShard(shardId);
 		LOG.info("Initializing record processor for shard: " + initializationInput.shardId());
 		LOG.info("- Initializing @ Sequence: " + initializationInput.extendedSequenceNumber());
 	}
@@ -56,8 +64,20 @@ public class DisplayConsumer implements ShardRecordProcessor {
 	public void processRecords(ProcessRecordsInput processRecordsInput) {
 
 		try {
-			LOG.info("Processing " + processRecordsInput.records().size() + " records from " + shardId);
-			processRecordsInput.records().forEach(record -> processSingleRecord(record));
+			Long millisBehindLatest = processRecordsInput.millisBehindLatest();
+			LOG.info("Processing " + processRecordsInput.records().size() + " records from " + shardId + ", " + millisBehindLatest
+					+ " milliseconds behind latest");
+			if (millisBehindLatest != null) {
+				shardLag.record(millisBehindLatest);
+			}
+			CheckpointPolicy.Checkpointer checkpoint = processRecordsInput.checkpointer()::checkpoint;
+			for (KinesisClientRecord record : processRecordsInput.records()) {
+				int bytes = record.data().remaining();
+				processSingleRecord(record);
+				// The KCL deaggregates KPL aggregated records into user records, which are checkpointed by sub-sequence number.
+				checkpointPolicy.recordProcessed(record.sequenceNumber(), record.subSequenceNumber(), bytes);
+				checkpointPolicy.checkpointIfDue(shardId, checkpoint);
+			}
 		} catch (Throwable t) {
 			LOG.error("Caught throwable while processing records.  Aborting");
 			Runtime.getRuntime().halt(1);
@@ -70,6 +90,12 @@ public class DisplayConsumer implements ShardRecordProcessor {
 	@Override
 	public void leaseLost(LeaseLostInput leaseLostInput) {
 		LOG.info("Lost lease, so terminating. shardId = " + shardId);
+		if (checkpointPolicy.getPendingRecords() > 0) {
+			LOG.info("Shard " + shardId + " will replay " + checkpointPolicy.describeReplay());
+		}
+		LatencyTracker.remove(shardId);
+		LagTracker.remove(shardId);
+		LocalMetrics.removeShard(shardId);
 	}
 
 	/**
@@ -79,7 +105,11 @@ public class DisplayConsumer implements ShardRecordProcessor {
 	public void shardEnded(ShardEndedInput shardEndedInput) {
 		try {
 			LOG.info("Reached shard end checkpointing. shardId = " + shardId);
+			LatencyTracker.remove(shardId);
+			LagTracker.remove(shardId);
+			LocalMetrics.removeShard(shardId);
 			shardEndedInput.checkpointer().checkpoint();
+			checkpointPolicy.checkpointed();
 		} catch (ShutdownException | InvalidStateException e) {
 			LOG.error("Exception while checkpointing at shard end.  Giving up", e);
 		}
@@ -93,6 +123,7 @@ public class DisplayConsumer implements ShardRecordProcessor {
 		try {
 			LOG.info("Scheduler is shutting down, checkpointing. shardId = " + shardId);
 			shutdownRequestedInput.checkpointer().checkpoint();
+			checkpointPolicy.checkpointed();
 		} catch (ShutdownException | InvalidStateException e) {
 			LOG.error("Exception while checkpointing at requested shutdown.  Giving up", e);
 		}
@@ -105,30 +136,37 @@ public class DisplayConsumer implements ShardRecordProcessor {
 	 *            The record to be processed.
 	 */
 	private void processSingleRecord(KinesisClientRecord record) {
-		String data = null;
+		ByteBuffer data = record.data();
+		String sequenceNumber = record.aggregated() ? record.sequenceNumber() + ", SubSequenceNumber: " + record.subSequenceNumber()
+				: record.sequenceNumber();
 		try {
-			// For this app, we interpret the payload as UTF-8 chars.
-			data = decoder.decode(record.data()).toString();
+			// Decompress the payload if the producer compressed it, and take it as it is otherwise.
+			data = payloadDecoder.decode(data);
 
 			// Assume this record including time field and log its age.
-			JsonNode jsonData = mapper.readTree(data);
 			long approximateArrivalTimestamp = record.approximateArrivalTimestamp().toEpochMilli();
 			long currentTime = System.currentTimeMillis();
 			long ageOfRecordInMillisFromArrival = currentTime - approximateArrivalTimestamp;
-			if (IF_TIME_FIELD_ENABLED) {
-				long recordCreateTime = ZonedDateTime.parse(jsonData.get(TIME_FIELD_NAME).asText(), dtf).toInstant().toEpochMilli();
+			shardLatency.getArrivalToProcessing().record(ageOfRecordInMillisFromArrival);
+			if (Config.IF_TIME_FIELD_ENABLED) {
+				// Read only the time field from the payload bytes, and decode the payload as UTF-8 chars just for printing.
+				long recordCreateTime = timeFieldReader.readEpochMillis(data, timestampParser);
+				if (recordCreateTime == TimeFieldReader.NO_TIME_FIELD) {
+					LOG.info("Record does not have time field. Ignoring record with data; " + TimeFieldReader.toString(data));
+					return;
+				}
 				long ageOfRecordInMillis = currentTime - recordCreateTime;
-				System.out.println("---\nShard: " + shardId + ", PartitionKey: " + record.partitionKey() + ", SequenceNumber: "
-						+ record.sequenceNumber() + "\nCreated " + ageOfRecordInMillis + " milliseconds ago. Arrived "
-						+ ageOfRecordInMillisFromArrival + " milliseconds ago.\n" + data);
+				shardLatency.getProducerToConsumer().record(ageOfRecordInMillis);
+				sink.write("---\nShard: " + shardId + ", PartitionKey: " + record.partitionKey() + ", SequenceNumber: "
+						+ sequenceNumber + "\nCreated " + ageOfRecordInMillis + " milliseconds ago. Arrived "
+						+ ageOfRecordInMillisFromArrival + " milliseconds ago.\n" + TimeFieldReader.toString(data));
 			} else {
-				System.out.println("---\nShard: " + shardId + ", PartitionKey: " + record.partitionKey() + ", SequenceNumber: "
-						+ record.sequenceNumber() + "\nArrived " + ageOfRecordInMillisFromArrival + " milliseconds ago.\n" + data);
+				sink.write("---\nShard: " + shardId + ", PartitionKey: " + record.partitionKey() + ", SequenceNumber: "
+						+ sequenceNumber + "\nArrived " + ageOfRecordInMillisFromArrival + " milliseconds ago.\n"
+						+ TimeFieldReader.toString(data));
 			}
-		} catch (CharacterCodingException e) {
-			LOG.error("Malformed data: " + data, e);
 		} catch (IOException e) {
-			LOG.info("Record does not match sample record format. Ignoring record with data; " + data);
+			LOG.info("Record does not match sample record format. Ignoring record with data; " + TimeFieldReader.toString(data));
 		}
 	}
 }
@@ -3,6 +3,7 @@ package com.example.aws.v2.kinesis.consumer;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.net.URI;
 import java.util.UUID;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
@@ -13,14 +14,26 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.example.aws.util.Config;
+import com.example.aws.v2.kinesis.Util;
+import com.example.aws.v2.kinesis.metrics.LocalMetricsFactory;
 
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
 import software.amazon.awssdk.auth.credentials.ProfileCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.cloudwatch.CloudWatchAsyncClient;
 import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClientBuilder;
 import software.amazon.awssdk.services.kinesis.KinesisAsyncClient;
 import software.amazon.kinesis.common.ConfigsBuilder;
+import software.amazon.kinesis.common.InitialPositionInStream;
+import software.amazon.kinesis.common.InitialPositionInStreamExtended;
 import software.amazon.kinesis.coordinator.Scheduler;
+import software.amazon.kinesis.metrics.MetricsConfig;
+import software.amazon.kinesis.metrics.MetricsLevel;
+import software.amazon.kinesis.metrics.NullMetricsFactory;
+import software.amazon.kinesis.retrieval.RetrievalConfig;
+import software.amazon.kinesis.retrieval.polling.PollingConfig;
 
 public class DisplayConsumerApplication {
 
@@ -33,18 +46,47 @@ public class DisplayConsumerApplication {
 	 */
 	public static void main(String... args) {
 
-		KinesisAsyncClient kinesisClient = KinesisAsyncClient.builder().credentialsProvider(ProfileCredentialsProvider.create())
-				.region(Region.of(Config.REGION)).build();
-		DynamoDbAsyncClient dynamoClient = DynamoDbAsyncClient.builder().credentialsProvider(ProfileCredentialsProvider.create())
-				.region(Region.of(Config.REGION)).build();
+		KinesisAsyncClient kinesisClient = Util.kinesisClient();
+		DynamoDbAsyncClientBuilder dynamoClientBuilder = DynamoDbAsyncClient.builder().region(Region.of(Config.REGION));
+		if (Config.DYNAMODB_ENDPOINT.isEmpty()) {
+			dynamoClientBuilder.credentialsProvider(ProfileCredentialsProvider.create());
+		} else {
+			// DynamoDB Local accepts whatever credentials
+			dynamoClientBuilder.credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create("local", "local")))
+					.endpointOverride(URI.create(Config.DYNAMODB_ENDPOINT));
+		}
+		DynamoDbAsyncClient dynamoClient = dynamoClientBuilder.build();
 		CloudWatchAsyncClient cloudWatchClient = CloudWatchAsyncClient.builder().credentialsProvider(ProfileCredentialsProvider.create())
 				.region(Region.of(Config.REGION)).build();
 		ConfigsBuilder configsBuilder = new ConfigsBuilder(Config.STREAM_NAME, Config.KCL_APPLICATION_NAME, kinesisClient, dynamoClient,
 				cloudWatchClient, UUID.randomUUID().toString(), new DisplayConsumerFactory());
+		// ConfigsBuilder creates a new config on each call, so keep the ones to modify.
+		MetricsConfig metricsConfig = configsBuilder.metricsConfig();
+		RetrievalConfig retrievalConfig = configsBuilder.retrievalConfig();
+		if (Config.KINESIS_LOCAL) {
+			// A local stream serves GetRecords but not SubscribeToShard, starts empty with this JVM, and has no CloudWatch to publish to.
+			retrievalConfig.retrievalSpecificConfig(new PollingConfig(Config.STREAM_NAME, kinesisClient)).initialPositionInStreamExtended(
+					InitialPositionInStreamExtended.newInitialPosition(InitialPositionInStream.TRIM_HORIZON));
+			metricsConfig.metricsLevel(MetricsLevel.NONE);
+		}
+		switch (Config.METRICS_FACTORY) {
+		case "local":
+			// The CloudWatch metrics factory of the config is only created if metrics are forwarded, which a local stream has none to.
+			metricsConfig.metricsFactory(Config.KINESIS_LOCAL || Config.METRICS_CLOUDWATCH_FORWARD.isEmpty() ? new LocalMetricsFactory()
+					: new LocalMetricsFactory(metricsConfig.metricsFactory()));
+			break;
+		case "cloudwatch":
+			break;
+		case "none":
+			metricsConfig.metricsFactory(new NullMetricsFactory());
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown metrics factory: " + Config.METRICS_FACTORY);
+		}
 
 		Scheduler scheduler = new Scheduler(configsBuilder.checkpointConfig(), configsBuilder.coordinatorConfig(),
-				configsBuilder.leaseManagementConfig(), configsBuilder.lifecycleConfig(), configsBuilder.metricsConfig(),
-				configsBuilder.processorConfig(), configsBuilder.retrievalConfig());
+				configsBuilder.leaseManagementConfig(), configsBuilder.lifecycleConfig(), metricsConfig, configsBuilder.processorConfig(),
+				retrievalConfig);
 
 		Thread schedulerThread = new Thread(scheduler);
 		schedulerThread.setDaemon(true);
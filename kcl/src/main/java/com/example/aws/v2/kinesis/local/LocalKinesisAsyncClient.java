@@ -0,0 +1,186 @@
+package com.example.aws.v2.kinesis.local;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+import com.example.aws.util.local.LocalKinesisStream;
+import com.example.aws.util.local.LocalKinesisStream.GetResult;
+import com.example.aws.util.local.LocalKinesisStream.LocalShard;
+import com.example.aws.util.local.LocalKinesisStream.PutResult;
+import com.example.aws.util.local.LocalKinesisStream.StoredRecord;
+import com.example.aws.util.local.LocalKinesisStream.ThroughputExceededException;
+
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.kinesis.KinesisAsyncClient;
+import software.amazon.awssdk.services.kinesis.model.DescribeStreamRequest;
+import software.amazon.awssdk.services.kinesis.model.DescribeStreamResponse;
+import software.amazon.awssdk.services.kinesis.model.GetRecordsRequest;
+import software.amazon.awssdk.services.kinesis.model.GetRecordsResponse;
+import software.amazon.awssdk.services.kinesis.model.GetShardIteratorRequest;
+import software.amazon.awssdk.services.kinesis.model.GetShardIteratorResponse;
+import software.amazon.awssdk.services.kinesis.model.HashKeyRange;
+import software.amazon.awssdk.services.kinesis.model.InvalidArgumentException;
+import software.amazon.awssdk.services.kinesis.model.ListShardsRequest;
+import software.amazon.awssdk.services.kinesis.model.ListShardsResponse;
+import software.amazon.awssdk.services.kinesis.model.ProvisionedThroughputExceededException;
+import software.amazon.awssdk.services.kinesis.model.PutRecordRequest;
+import software.amazon.awssdk.services.kinesis.model.PutRecordResponse;
+import software.amazon.awssdk.services.kinesis.model.PutRecordsRequest;
+import software.amazon.awssdk.services.kinesis.model.PutRecordsRequestEntry;
+import software.amazon.awssdk.services.kinesis.model.PutRecordsResponse;
+import software.amazon.awssdk.services.kinesis.model.PutRecordsResultEntry;
+import software.amazon.awssdk.services.kinesis.model.Record;
+import software.amazon.awssdk.services.kinesis.model.SequenceNumberRange;
+import software.amazon.awssdk.services.kinesis.model.Shard;
+import software.amazon.awssdk.services.kinesis.model.StreamDescription;
+import software.amazon.awssdk.services.kinesis.model.StreamStatus;
+
+/**
+ * KinesisAsyncClient of SDK v2 backed by the in-memory streams of this JVM, which the producers and the KCL 2.x Scheduler can use in
+ * place of the client of Kinesis Data Streams. Calls are served on the calling thread and return completed futures. Like
+ * LocalAmazonKinesis, it serves PutRecord, PutRecords, ListShards, DescribeStream, GetShardIterator and GetRecords, and shards over their
+ * limits fail with ProvisionedThroughputExceededException. SubscribeToShard is not served, so the KCL must poll with GetRecords.
+ */
+public class LocalKinesisAsyncClient implements KinesisAsyncClient {
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String serviceName() {
+		return SERVICE_NAME;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public CompletableFuture<PutRecordResponse> putRecord(PutRecordRequest putRecordRequest) {
+		return call(() -> {
+			PutResult result = LocalKinesisStream.get(putRecordRequest.streamName()).put(putRecordRequest.partitionKey(),
+					putRecordRequest.explicitHashKey(), putRecordRequest.data().asByteArray());
+			return PutRecordResponse.builder().shardId(result.getShardId()).sequenceNumber(result.getSequenceNumber()).build();
+		});
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public CompletableFuture<PutRecordsResponse> putRecords(PutRecordsRequest putRecordsRequest) {
+		return call(() -> {
+			LocalKinesisStream stream = LocalKinesisStream.get(putRecordsRequest.streamName());
+			List<PutRecordsResultEntry> resultEntries = new ArrayList<>(putRecordsRequest.records().size());
+			int failedRecordCount = 0;
+			// Like a real stream, records over the limits of their shards fail one by one while the others are put.
+			for (PutRecordsRequestEntry entry : putRecordsRequest.records()) {
+				try {
+					PutResult result = stream.put(entry.partitionKey(), entry.explicitHashKey(), entry.data().asByteArray());
+					resultEntries.add(PutRecordsResultEntry.builder().shardId(result.getShardId())
+							.sequenceNumber(result.getSequenceNumber()).build());
+				} catch (ThroughputExceededException e) {
+					failedRecordCount++;
+					resultEntries.add(PutRecordsResultEntry.builder().errorCode("ProvisionedThroughputExceededException")
+							.errorMessage(e.getMessage()).build());
+				}
+			}
+			return PutRecordsResponse.builder().failedRecordCount(failedRecordCount).records(resultEntries).build();
+		});
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public CompletableFuture<ListShardsResponse> listShards(ListShardsRequest listShardsRequest) {
+		// Every shard is returned in one page, so a next token is never given.
+		return call(() -> ListShardsResponse.builder().shards(shards(LocalKinesisStream.get(listShardsRequest.streamName()))).build());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public CompletableFuture<DescribeStreamResponse> describeStream(DescribeStreamRequest describeStreamRequest) {
+		return call(() -> {
+			LocalKinesisStream stream = LocalKinesisStream.get(describeStreamRequest.streamName());
+			List<Shard> shards = shards(stream);
+			if (describeStreamRequest.exclusiveStartShardId() != null) {
+				shards.removeIf(shard -> shard.shardId().compareTo(describeStreamRequest.exclusiveStartShardId()) <= 0);
+			}
+			return DescribeStreamResponse.builder().streamDescription(StreamDescription.builder().streamName(stream.getStreamName())
+					.streamStatus(StreamStatus.ACTIVE).shards(shards).hasMoreShards(false).retentionPeriodHours(24).build()).build();
+		});
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public CompletableFuture<GetShardIteratorResponse> getShardIterator(GetShardIteratorRequest getShardIteratorRequest) {
+		return call(() -> {
+			Instant timestamp = getShardIteratorRequest.timestamp();
+			String shardIterator = LocalKinesisStream.get(getShardIteratorRequest.streamName()).getShardIterator(
+					getShardIteratorRequest.shardId(), getShardIteratorRequest.shardIteratorTypeAsString(),
+					getShardIteratorRequest.startingSequenceNumber(), timestamp != null ? timestamp.toEpochMilli() : 0L);
+			return GetShardIteratorResponse.builder().shardIterator(shardIterator).build();
+		});
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public CompletableFuture<GetRecordsResponse> getRecords(GetRecordsRequest getRecordsRequest) {
+		return call(() -> {
+			LocalKinesisStream stream = LocalKinesisStream.ofShardIterator(getRecordsRequest.shardIterator());
+			GetResult result = stream.getRecords(getRecordsRequest.shardIterator(),
+					getRecordsRequest.limit() != null ? getRecordsRequest.limit() : 0);
+			List<Record> records = new ArrayList<>(result.getRecords().size());
+			for (StoredRecord storedRecord : result.getRecords()) {
+				records.add(Record.builder().sequenceNumber(storedRecord.getSequenceNumber())
+						.approximateArrivalTimestamp(Instant.ofEpochMilli(storedRecord.getArrivalTimeInMillis()))
+						.partitionKey(storedRecord.getPartitionKey()).data(SdkBytes.fromByteArray(storedRecord.getData())).build());
+			}
+			return GetRecordsResponse.builder().records(records).nextShardIterator(result.getNextShardIterator())
+					.millisBehindLatest(result.getMillisBehindLatest()).build();
+		});
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void close() {
+		// The streams are kept for the other clients of this JVM.
+	}
+
+	// Run a call on the calling thread, failing the future with the exception which the service would return
+	private static <T> CompletableFuture<T> call(Supplier<T> supplier) {
+		CompletableFuture<T> future = new CompletableFuture<>();
+		try {
+			future.complete(supplier.get());
+		} catch (ThroughputExceededException e) {
+			future.completeExceptionally(ProvisionedThroughputExceededException.builder().message(e.getMessage()).statusCode(400).build());
+		} catch (IllegalArgumentException e) {
+			future.completeExceptionally(InvalidArgumentException.builder().message(e.getMessage()).statusCode(400).build());
+		}
+		return future;
+	}
+
+	private static List<Shard> shards(LocalKinesisStream stream) {
+		List<Shard> shards = new ArrayList<>(stream.getShards().size());
+		for (LocalShard localShard : stream.getShards()) {
+			shards.add(Shard.builder().shardId(localShard.getShardId())
+					.hashKeyRange(HashKeyRange.builder().startingHashKey(localShard.getStartingHashKey())
+							.endingHashKey(localShard.getEndingHashKey()).build())
+					.sequenceNumberRange(
+							SequenceNumberRange.builder().startingSequenceNumber(localShard.getStartingSequenceNumber()).build())
+					.build());
+		}
+		return shards;
+	}
+}
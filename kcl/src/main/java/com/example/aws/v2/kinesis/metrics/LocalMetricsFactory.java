@@ -0,0 +1,110 @@
+package com.example.aws.v2.kinesis.metrics;
+
+import java.util.Map;
+
+import com.example.aws.util.metrics.LocalMetrics;
+import com.example.aws.util.metrics.LocalMetricsScope;
+
+import software.amazon.awssdk.services.cloudwatch.model.StandardUnit;
+import software.amazon.kinesis.metrics.MetricsFactory;
+import software.amazon.kinesis.metrics.MetricsLevel;
+import software.amazon.kinesis.metrics.MetricsScope;
+
+/**
+ * MetricsFactory of KCL 2.x which aggregates the metrics in this JVM with LocalMetrics instead of publishing them to CloudWatch. The
+ * metrics selected by metrics.cloudwatch.forward are also passed to a CloudWatch metrics factory if one is given.
+ */
+public class LocalMetricsFactory implements MetricsFactory {
+
+	private final MetricsFactory cloudWatchMetricsFactory;
+
+	/**
+	 * Constructor to keep all the metrics in this JVM.
+	 */
+	public LocalMetricsFactory() {
+		this(null);
+	}
+
+	/**
+	 * Constructor to also publish the metrics selected by metrics.cloudwatch.forward.
+	 * 
+	 * @param cloudWatchMetricsFactory
+	 *            factory of the scopes to forward the selected metrics to, or null to forward none
+	 */
+	public LocalMetricsFactory(MetricsFactory cloudWatchMetricsFactory) {
+		this.cloudWatchMetricsFactory = cloudWatchMetricsFactory;
+		LocalMetrics.startHttpServer();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public MetricsScope createMetrics() {
+		return new Scope();
+	}
+
+	private class Scope implements MetricsScope {
+		private final LocalMetricsScope localScope = new LocalMetricsScope();
+		// Created when the first forwarded metric is added, so that scopes without one cost CloudWatch nothing
+		private MetricsScope cloudWatchScope = null;
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void addData(String name, double value, StandardUnit unit) {
+			localScope.addData(name, value, unit.toString());
+			if (isForwarded(name)) {
+				cloudWatchScope().addData(name, value, unit);
+			}
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void addData(String name, double value, StandardUnit unit, MetricsLevel level) {
+			localScope.addData(name, value, unit.toString());
+			if (isForwarded(name)) {
+				cloudWatchScope().addData(name, value, unit, level);
+			}
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void addDimension(String name, String value) {
+			localScope.addDimension(name, value);
+			if (cloudWatchScope != null) {
+				cloudWatchScope.addDimension(name, value);
+			}
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void end() {
+			localScope.end();
+			if (cloudWatchScope != null) {
+				cloudWatchScope.end();
+			}
+		}
+
+		private boolean isForwarded(String name) {
+			return cloudWatchMetricsFactory != null && LocalMetrics.isForwarded(name);
+		}
+
+		private MetricsScope cloudWatchScope() {
+			if (cloudWatchScope == null) {
+				cloudWatchScope = cloudWatchMetricsFactory.createMetrics();
+				for (Map.Entry<String, String> dimension : localScope.dimensions().entrySet()) {
+					cloudWatchScope.addDimension(dimension.getKey(), dimension.getValue());
+				}
+			}
+			return cloudWatchScope;
+		}
+	}
+}
@@ -0,0 +1,108 @@
+package com.example.aws.v2.kinesis.producer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.example.aws.util.BatchBuilder;
+import com.example.aws.util.Config;
+import com.example.aws.util.RecordObject;
+import com.example.aws.util.RecordObjectSerializer;
+import com.example.aws.util.RetryPolicy;
+import com.example.aws.util.codec.PayloadCodecs;
+import com.example.aws.util.codec.PayloadEncoder;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+
+import software.amazon.awssdk.auth.credentials.ProfileCredentialsProvider;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.firehose.FirehoseAsyncClient;
+import software.amazon.awssdk.services.firehose.model.Record;
+
+/**
+ * Put RecordObject JSON documents to Kinesis Data Firehose, coalescing many newline-delimited documents into each Firehose record of up to
+ * 1000 KB instead of sending one record per document, since Firehose bills ingestion by record in 5 KB increments. A record is closed
+ * when the next document does not fit in it, or producer.linger.millis after its first document. Records are sent by a
+ * PipelinedPutRecordBatchSender, which keeps producer.max.in.flight PutRecordBatch calls in flight and retries the records which fail.
+ * Each document ends with a newline, so that the concatenated records at the destination stay newline-delimited, unless payload.codec
+ * compresses the records.
+ */
+public class CoalescingFirehoseProducer {
+
+	// Firehose accepts records of up to 1000 KB before base64 encoding
+	private static final long MAX_BYTES_PER_RECORD = 1000L * 1024;
+
+	public static void main(String[] args) {
+		final RecordObjectSerializer serializer = new RecordObjectSerializer();
+		final PayloadEncoder encoder = PayloadCodecs.encoderFromConfig();
+		FirehoseAsyncClient firehoseClient = FirehoseAsyncClient.builder().credentialsProvider(ProfileCredentialsProvider.create())
+				.region(Region.of(Config.REGION)).build();
+
+		PipelinedPutRecordBatchSender sender = new PipelinedPutRecordBatchSender(firehoseClient, Config.DELIVERY_STREAM_NAME,
+				Config.PRODUCER_MAX_IN_FLIGHT::get, Config.PRODUCER_QUEUE_SIZE, RetryPolicy.fromConfig(),
+				Config.PRODUCER_REPORT_INTERVAL_MILLIS);
+		// Send the queued records before the JVM exits, e.g. on Ctrl-C.
+		Runtime.getRuntime().addShutdownHook(new Thread(sender::close, "put-record-batch-shutdown"));
+
+		// Coalesce documents into records up to the size limit of a record, with a newline after each document.
+		BatchBuilder<byte[]> coalescer = new BatchBuilder<>(Integer.MAX_VALUE, MAX_BYTES_PER_RECORD, Config.PRODUCER_LINGER_MILLIS,
+				document -> document.length + 1);
+		ByteArrayBuilder buffer = new ByteArrayBuilder((int) MAX_BYTES_PER_RECORD);
+
+		List<RecordObject> recordObjects = new ArrayList<>();
+		for (int i = 0; i < Config.RECORD_COUNT; i++) {
+			RecordObject recordObject = new RecordObject(String.valueOf(i));
+			recordObjects.add(recordObject);
+		}
+
+		long nextRecordTimeInMillis = System.currentTimeMillis();
+		while (true) {
+			if (System.currentTimeMillis() >= nextRecordTimeInMillis) {
+				for (int i = 0; i < Config.RECORD_COUNT; i++) {
+					RecordObject recordObject = recordObjects.get(i);
+					recordObject.incrementRecordCount();
+					recordObject.setTimestampToNow();
+					try {
+						coalescer.add(serializer.serialize(recordObject));
+					} catch (JsonProcessingException e) {
+						e.printStackTrace();
+					}
+				}
+				nextRecordTimeInMillis += Config.RECORD_INTERVAL_MILLIS.get();
+			}
+
+			// Send the records which are ready.
+			List<byte[]> documents;
+			while ((documents = coalescer.poll()) != null) {
+				buffer.reset();
+				for (byte[] document : documents) {
+					buffer.write(document);
+					buffer.write('\n');
+				}
+				try {
+					sender.put(Record.builder().data(SdkBytes.fromByteArray(encoder.encode(buffer.toByteArray()))).build());
+				} catch (InterruptedException e) {
+					System.out.println("Interrupted, assuming shutdown.");
+					sender.close();
+					return;
+				}
+			}
+
+			// Wait for the next documents or the linger time of the current record, whichever comes first.
+			sleep(Math.min(nextRecordTimeInMillis - System.currentTimeMillis(), coalescer.millisUntilReady()));
+		}
+
+	}
+
+	private static void sleep(long millis) {
+		if (millis <= 0L) {
+			return;
+		}
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+	}
+
+}
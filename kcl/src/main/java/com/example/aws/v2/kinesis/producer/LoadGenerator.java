@@ -0,0 +1,224 @@
+package com.example.aws.v2.kinesis.producer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.DoubleSupplier;
+
+import com.example.aws.util.Config;
+import com.example.aws.util.RecordObject;
+import com.example.aws.util.RetryPolicy;
+import com.example.aws.v2.kinesis.Util;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.kinesis.KinesisAsyncClient;
+import software.amazon.awssdk.services.kinesis.model.PutRecordsRequestEntry;
+
+/**
+ * Generate load on a stream to size it before a launch. Sender threads produce records at a target rate in records/s or MB/s, with payload
+ * sizes drawn from a distribution and partition keys drawn from a number of keys with optional skew, and put them through a
+ * PipelinedPutRecordsSender, which reports the achieved throughput and PutRecords latency percentiles every
+ * producer.report.interval.millis. Payloads are RecordObject JSON padded to the drawn size, so the consumers measure end-to-end latency
+ * from them as usual.
+ */
+public class LoadGenerator implements Runnable {
+
+	private static final JsonFactory JSON_FACTORY = new JsonFactory();
+	private static final char[] PADDING = new char[1024 * 1024];
+	static {
+		Arrays.fill(PADDING, 'x');
+	}
+
+	// Pacing falls behind by at most this much before the schedule is reset, so that a stall does not cause an unbounded burst.
+	private static final long MAX_LAG_NANOS = TimeUnit.SECONDS.toNanos(1L);
+
+	// Totals of all the sender threads
+	private static final LongAdder recordsGenerated = new LongAdder();
+	private static final LongAdder bytesGenerated = new LongAdder();
+
+	private final PipelinedPutRecordsSender sender;
+	private final PayloadSizeDistribution payloadSizes;
+	private final PartitionKeySampler partitionKeys;
+	private final DoubleSupplier recordsPerSecond;
+	private final DoubleSupplier bytesPerSecond;
+	private final long endTimeInMillis;
+	private final AtomicBoolean stopped;
+
+	private final RecordObject recordObject = new RecordObject("");
+	private final ByteArrayBuilder buffer = new ByteArrayBuilder(1024);
+
+	/**
+	 * Constructor of a sender thread, which takes its share of the target rates
+	 * 
+	 * @param sender
+	 * @param payloadSizes
+	 * @param partitionKeys
+	 * @param recordsPerSecond
+	 *            Target records/s of this thread, or 0 for no limit
+	 * @param bytesPerSecond
+	 *            Target bytes/s of this thread, or 0 for no limit
+	 * @param endTimeInMillis
+	 *            Time to stop, or Long.MAX_VALUE to run until stopped
+	 * @param stopped
+	 *            Flag to stop all the sender threads
+	 */
+	public LoadGenerator(PipelinedPutRecordsSender sender, PayloadSizeDistribution payloadSizes, PartitionKeySampler partitionKeys,
+			double recordsPerSecond, double bytesPerSecond, long endTimeInMillis, AtomicBoolean stopped) {
+		this(sender, payloadSizes, partitionKeys, () -> recordsPerSecond, () -> bytesPerSecond, endTimeInMillis, stopped);
+	}
+
+	/**
+	 * Constructor of a sender thread, which takes its share of the target rates read before each record is sent
+	 * 
+	 * @param sender
+	 * @param payloadSizes
+	 * @param partitionKeys
+	 * @param recordsPerSecond
+	 *            Target records/s of this thread, or 0 for no limit
+	 * @param bytesPerSecond
+	 *            Target bytes/s of this thread, or 0 for no limit
+	 * @param endTimeInMillis
+	 *            Time to stop, or Long.MAX_VALUE to run until stopped
+	 * @param stopped
+	 *            Flag to stop all the sender threads
+	 */
+	public LoadGenerator(PipelinedPutRecordsSender sender, PayloadSizeDistribution payloadSizes, PartitionKeySampler partitionKeys,
+			DoubleSupplier recordsPerSecond, DoubleSupplier bytesPerSecond, long endTimeInMillis, AtomicBoolean stopped) {
+		super();
+		this.sender = sender;
+		this.payloadSizes = payloadSizes;
+		this.partitionKeys = partitionKeys;
+		this.recordsPerSecond = recordsPerSecond;
+		this.bytesPerSecond = bytesPerSecond;
+		this.endTimeInMillis = endTimeInMillis;
+		this.stopped = stopped;
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		KinesisAsyncClient kinesisClient = Util.kinesisClient();
+		// A single attempt for each record, so that the achieved throughput is what the stream took and not inflated by retries
+		PipelinedPutRecordsSender sender = new PipelinedPutRecordsSender(kinesisClient, Config.STREAM_NAME,
+				Config.PRODUCER_MAX_IN_FLIGHT::get, Config.PRODUCER_QUEUE_SIZE, new RetryPolicy(1, 0L, 0L),
+				Config.PRODUCER_REPORT_INTERVAL_MILLIS);
+
+		PayloadSizeDistribution payloadSizes = PayloadSizeDistribution.parse(Config.LOAD_PAYLOAD_SIZE);
+		PartitionKeySampler partitionKeys = new PartitionKeySampler(Config.LOAD_PARTITION_KEYS, Config.LOAD_PARTITION_KEY_SKEW);
+		int threads = Math.max(1, Config.LOAD_THREADS);
+		long startTimeInMillis = System.currentTimeMillis();
+		long endTimeInMillis = Config.LOAD_DURATION_SECONDS > 0L
+				? startTimeInMillis + TimeUnit.SECONDS.toMillis(Config.LOAD_DURATION_SECONDS) : Long.MAX_VALUE;
+		System.out.println("Generating load on " + Config.STREAM_NAME + " at " + Config.LOAD_RATE_RECORDS_PER_SECOND.get()
+				+ " records/s and " + Config.LOAD_RATE_MB_PER_SECOND.get() + " MB/s (0 for no limit) with " + threads
+				+ " threads, payload sizes " + payloadSizes + " and " + partitionKeys);
+
+		AtomicBoolean stopped = new AtomicBoolean(false);
+		List<Thread> senderThreads = new ArrayList<>();
+		for (int i = 0; i < threads; i++) {
+			// Each thread reads the target rates on every record, so that changes of load.rate.* take effect while running.
+			Thread thread = new Thread(new LoadGenerator(sender, payloadSizes, partitionKeys,
+					() -> Config.LOAD_RATE_RECORDS_PER_SECOND.get() / threads,
+					() -> Config.LOAD_RATE_MB_PER_SECOND.get() * 1024 * 1024 / threads, endTimeInMillis, stopped), "load-generator-" + i);
+			senderThreads.add(thread);
+			thread.start();
+		}
+
+		// On Ctrl-C, stop the threads and send what has been queued, so that the final report is printed. Whichever of the main thread
+		// and the shutdown hook comes second waits for the first to finish.
+		AtomicBoolean finished = new AtomicBoolean(false);
+		Runnable finish = () -> {
+			synchronized (finished) {
+				stopped.set(true);
+				for (Thread thread : senderThreads) {
+					try {
+						thread.join();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+				if (finished.compareAndSet(false, true)) {
+					sender.close();
+					double seconds = Math.max(1L, System.currentTimeMillis() - startTimeInMillis) / 1000.0;
+					System.out.println(String.format("Generated %d records (%d bytes) in %.1f seconds, %.1f records/s, %.1f bytes/s",
+							recordsGenerated.sum(), bytesGenerated.sum(), seconds, recordsGenerated.sum() / seconds,
+							bytesGenerated.sum() / seconds));
+				}
+			}
+		};
+		Runtime.getRuntime().addShutdownHook(new Thread(finish, "load-generator-shutdown"));
+
+		for (Thread thread : senderThreads) {
+			thread.join();
+		}
+		finish.run();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void run() {
+		Random random = ThreadLocalRandom.current();
+		long nextSendTimeInNanos = System.nanoTime();
+		while (!stopped.get() && System.currentTimeMillis() < endTimeInMillis) {
+			String partitionKey = partitionKeys.sample(random);
+			byte[] payload = payload(partitionKey, payloadSizes.sample(random));
+
+			// Pace this thread by whichever of the record and byte rates is slower.
+			double currentRecordsPerSecond = recordsPerSecond.getAsDouble();
+			double currentBytesPerSecond = bytesPerSecond.getAsDouble();
+			double nanosPerRecord = currentRecordsPerSecond > 0.0 ? TimeUnit.SECONDS.toNanos(1L) / currentRecordsPerSecond : 0.0;
+			double nanosPerByte = currentBytesPerSecond > 0.0 ? TimeUnit.SECONDS.toNanos(1L) / currentBytesPerSecond : 0.0;
+			long now = System.nanoTime();
+			nextSendTimeInNanos = Math.max(nextSendTimeInNanos, now - MAX_LAG_NANOS)
+					+ (long) Math.max(nanosPerRecord, (payload.length + partitionKey.length()) * nanosPerByte);
+			if (nextSendTimeInNanos > now) {
+				LockSupport.parkNanos(nextSendTimeInNanos - now);
+			}
+
+			try {
+				sender.put(PutRecordsRequestEntry.builder().data(SdkBytes.fromByteArray(payload)).partitionKey(partitionKey).build());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			recordsGenerated.increment();
+			bytesGenerated.add(payload.length);
+		}
+	}
+
+	// RecordObject JSON with a padding field up to the size, or without padding if the size is smaller than the JSON. The size is capped so
+	// that the payload and the partition key, whose characters are ASCII, fit in a record together.
+	private byte[] payload(String partitionKey, int size) {
+		int maxSize = Math.min(size, PayloadSizeDistribution.MAX_RECORD_SIZE - partitionKey.length());
+		buffer.reset();
+		try (JsonGenerator generator = JSON_FACTORY.createGenerator(buffer)) {
+			recordObject.incrementRecordCount();
+			generator.writeStartObject();
+			generator.writeStringField("partitionKey", partitionKey);
+			generator.writeNumberField("recordCount", recordObject.recordCount);
+			generator.writeStringField("timestampString", recordObject.setTimestampToNow());
+			generator.flush();
+			// The padding field takes its name, quotes and separators, plus the closing brace.
+			int paddingLength = maxSize - buffer.size() - ",\"padding\":\"\"}".length();
+			if (paddingLength > 0) {
+				generator.writeFieldName("padding");
+				generator.writeString(PADDING, 0, Math.min(paddingLength, PADDING.length));
+			}
+			generator.writeEndObject();
+		} catch (IOException e) {
+			// ByteArrayBuilder never throws IOException.
+			throw new IllegalStateException(e);
+		}
+		return buffer.toByteArray();
+	}
+}
@@ -0,0 +1,78 @@
+package com.example.aws.v2.kinesis.producer;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Draw partition keys for the load generator from a fixed number of keys, either uniformly or with Zipf skew, where the key of rank k is
+ * drawn with probability proportional to 1 / k^skew. A skew around 1 reproduces hot keys, which concentrate traffic on a few shards. An
+ * instance is thread safe.
+ */
+public class PartitionKeySampler {
+
+	private final int cardinality;
+	private final double skew;
+
+	// Cumulative probability of each rank, or null when keys are drawn uniformly
+	private final double[] cumulativeProbabilities;
+
+	/**
+	 * Constructor using cardinality and skew fields
+	 * 
+	 * @param cardinality
+	 *            Number of distinct partition keys
+	 * @param skew
+	 *            Zipf exponent, or 0 to draw keys uniformly
+	 */
+	public PartitionKeySampler(int cardinality, double skew) {
+		super();
+		this.cardinality = Math.max(1, cardinality);
+		this.skew = Math.max(0.0, skew);
+		if (this.skew == 0.0) {
+			this.cumulativeProbabilities = null;
+		} else {
+			double[] weights = new double[this.cardinality];
+			double total = 0.0;
+			for (int rank = 1; rank <= this.cardinality; rank++) {
+				total += 1.0 / Math.pow(rank, this.skew);
+				weights[rank - 1] = total;
+			}
+			for (int i = 0; i < weights.length; i++) {
+				weights[i] /= total;
+			}
+			this.cumulativeProbabilities = weights;
+		}
+	}
+
+	/**
+	 * Draw a partition key.
+	 * 
+	 * @param random
+	 * @return partition key
+	 */
+	public String sample(Random random) {
+		return "key-" + sampleIndex(random);
+	}
+
+	/**
+	 * Draw the index of a partition key, where index 0 is the hottest key when keys are skewed.
+	 * 
+	 * @param random
+	 * @return index between 0 and cardinality - 1
+	 */
+	public int sampleIndex(Random random) {
+		if (cumulativeProbabilities == null) {
+			return random.nextInt(cardinality);
+		}
+		int index = Arrays.binarySearch(cumulativeProbabilities, random.nextDouble());
+		return Math.min(cardinality - 1, index >= 0 ? index : -index - 1);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		return cardinality + " keys with skew " + skew;
+	}
+}
@@ -0,0 +1,92 @@
+package com.example.aws.v2.kinesis.producer;
+
+import java.util.Random;
+import java.util.function.ToIntFunction;
+
+/**
+ * Distribution of payload sizes in bytes for the load generator, parsed from a spec:
+ * <ul>
+ * <li>fixed:SIZE, e.g. fixed:1024</li>
+ * <li>uniform:MIN-MAX, e.g. uniform:256-4096</li>
+ * <li>normal:MEAN,STDDEV, e.g. normal:1024,256</li>
+ * <li>exponential:MEAN, e.g. exponential:2048</li>
+ * </ul>
+ * Samples are clipped to between 1 byte and the 1 MiB limit of a record, which the load generator further lowers by the size of the
+ * partition key.
+ */
+public class PayloadSizeDistribution {
+
+	// Limit of the data and partition key of a record together
+	static final int MAX_RECORD_SIZE = 1024 * 1024;
+
+	private final String spec;
+	private final ToIntFunction<Random> sampler;
+
+	private PayloadSizeDistribution(String spec, ToIntFunction<Random> sampler) {
+		this.spec = spec;
+		this.sampler = sampler;
+	}
+
+	/**
+	 * Parse a spec.
+	 * 
+	 * @param spec
+	 *            Distribution spec, e.g. uniform:256-4096
+	 * @return distribution
+	 * @throws IllegalArgumentException
+	 *             if the spec is not valid
+	 */
+	public static PayloadSizeDistribution parse(String spec) {
+		String[] typeAndParameters = spec.trim().split(":", 2);
+		if (typeAndParameters.length != 2) {
+			throw new IllegalArgumentException("Payload size distribution must be TYPE:PARAMETERS, but was " + spec);
+		}
+		String parameters = typeAndParameters[1];
+		try {
+			switch (typeAndParameters[0]) {
+			case "fixed":
+				int size = Integer.parseInt(parameters);
+				return new PayloadSizeDistribution(spec, random -> size);
+			case "uniform":
+				String[] range = parameters.split("-");
+				int min = Integer.parseInt(range[0]);
+				int max = Integer.parseInt(range[1]);
+				if (max < min) {
+					throw new IllegalArgumentException("Maximum of payload size distribution must not be less than minimum: " + spec);
+				}
+				return new PayloadSizeDistribution(spec, random -> min + random.nextInt(max - min + 1));
+			case "normal":
+				String[] meanAndStddev = parameters.split(",");
+				double mean = Double.parseDouble(meanAndStddev[0]);
+				double stddev = Double.parseDouble(meanAndStddev[1]);
+				return new PayloadSizeDistribution(spec, random -> (int) Math.round(mean + random.nextGaussian() * stddev));
+			case "exponential":
+				double exponentialMean = Double.parseDouble(parameters);
+				return new PayloadSizeDistribution(spec,
+						random -> (int) Math.round(-exponentialMean * Math.log(1.0 - random.nextDouble())));
+			default:
+				throw new IllegalArgumentException("Unknown payload size distribution: " + spec);
+			}
+		} catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+			throw new IllegalArgumentException("Invalid payload size distribution: " + spec, e);
+		}
+	}
+
+	/**
+	 * Draw a payload size.
+	 * 
+	 * @param random
+	 * @return size in bytes
+	 */
+	public int sample(Random random) {
+		return Math.max(1, Math.min(MAX_RECORD_SIZE, sampler.applyAsInt(random)));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		return spec;
+	}
+}
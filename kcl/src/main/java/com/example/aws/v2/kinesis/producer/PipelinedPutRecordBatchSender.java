@@ -0,0 +1,95 @@
+package com.example.aws.v2.kinesis.producer;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.IntSupplier;
+
+import com.example.aws.util.RetryPolicy;
+
+import software.amazon.awssdk.services.firehose.FirehoseAsyncClient;
+import software.amazon.awssdk.services.firehose.model.PutRecordBatchRequest;
+import software.amazon.awssdk.services.firehose.model.Record;
+
+/**
+ * Send records with PutRecordBatch keeping a number of requests in flight, like PipelinedPutRecordsSender does with PutRecords. Records
+ * which fail in a request, either one by one in the response or all together with the call, are put back after a backoff and go out
+ * ahead of new records, until they have been tried retry.max.attempts times, unless the failure does not go away by retrying. Achieved
+ * records/s, bytes/s and request latency are reported to the log on a fixed interval.
+ */
+public class PipelinedPutRecordBatchSender implements AutoCloseable {
+
+	// PutRecordBatch accepts up to 500 records and 4 MiB in one call
+	private static final int MAX_RECORDS_PER_REQUEST = 500;
+	private static final long MAX_BYTES_PER_REQUEST = 4L * 1024 * 1024;
+
+	private final PipelinedSender<Record> sender;
+
+	/**
+	 * Constructor using deliveryStreamName, maxInFlight, queueSize and retryPolicy fields
+	 * 
+	 * @param firehoseClient
+	 * @param deliveryStreamName
+	 * @param maxInFlight
+	 *            Maximum number of PutRecordBatch requests in flight
+	 * @param queueSize
+	 *            Maximum number of records waiting to be sent
+	 * @param retryPolicy
+	 *            Number of attempts for each record and backoff before retrying it
+	 * @param reportIntervalMillis
+	 *            Interval to report statistics, or 0 to report only on close
+	 */
+	public PipelinedPutRecordBatchSender(FirehoseAsyncClient firehoseClient, String deliveryStreamName, int maxInFlight, int queueSize,
+			RetryPolicy retryPolicy, long reportIntervalMillis) {
+		this(firehoseClient, deliveryStreamName, () -> maxInFlight, queueSize, retryPolicy, reportIntervalMillis);
+	}
+
+	/**
+	 * Constructor using deliveryStreamName, maxInFlight, queueSize and retryPolicy fields, whose maxInFlight is read before each request
+	 * is sent
+	 * 
+	 * @param firehoseClient
+	 * @param deliveryStreamName
+	 * @param maxInFlight
+	 *            Maximum number of PutRecordBatch requests in flight
+	 * @param queueSize
+	 *            Maximum number of records waiting to be sent
+	 * @param retryPolicy
+	 *            Number of attempts for each record and backoff before retrying it
+	 * @param reportIntervalMillis
+	 *            Interval to report statistics, or 0 to report only on close
+	 */
+	public PipelinedPutRecordBatchSender(FirehoseAsyncClient firehoseClient, String deliveryStreamName, IntSupplier maxInFlight,
+			int queueSize, RetryPolicy retryPolicy, long reportIntervalMillis) {
+		super();
+		this.sender = new PipelinedSender<>("PutRecordBatch", deliveryStreamName,
+				records -> putRecordBatch(firehoseClient, deliveryStreamName, records), record -> record.data().asByteBuffer().remaining(),
+				MAX_RECORDS_PER_REQUEST, MAX_BYTES_PER_REQUEST, maxInFlight, queueSize, retryPolicy, reportIntervalMillis);
+	}
+
+	/**
+	 * Queue a record to be sent, blocking while the queue is full.
+	 * 
+	 * @param record
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for space in the queue
+	 */
+	public void put(Record record) throws InterruptedException {
+		sender.put(record);
+	}
+
+	/**
+	 * Send the queued records, wait until every record has been delivered or dropped and report the statistics. It may be called more
+	 * than once, e.g. by a shutdown hook and the main thread.
+	 */
+	@Override
+	public void close() {
+		sender.close();
+	}
+
+	private static CompletableFuture<List<String>> putRecordBatch(FirehoseAsyncClient firehoseClient, String deliveryStreamName,
+			List<Record> records) {
+		PutRecordBatchRequest request = PutRecordBatchRequest.builder().deliveryStreamName(deliveryStreamName).records(records).build();
+		return firehoseClient.putRecordBatch(request).thenApply(response -> PipelinedSender.errorCodes(records.size(),
+				response.failedPutCount(), i -> response.requestResponses().get(i).errorCode()));
+	}
+}
@@ -0,0 +1,100 @@
+package com.example.aws.v2.kinesis.producer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.IntSupplier;
+
+import com.example.aws.util.RetryPolicy;
+
+import software.amazon.awssdk.services.kinesis.KinesisAsyncClient;
+import software.amazon.awssdk.services.kinesis.model.PutRecordsRequest;
+import software.amazon.awssdk.services.kinesis.model.PutRecordsRequestEntry;
+
+/**
+ * Send records with PutRecords keeping a number of requests in flight, instead of waiting for each response before sending the next
+ * request. Records are queued in a bounded queue and a dispatcher thread packs them into requests, so that callers block when the stream
+ * cannot keep up. Records which fail, e.g. with ProvisionedThroughputExceededException, are put back after a backoff as the retry policy
+ * allows, while a load test which measures the stream passes a policy of a single attempt, so that its throughput is not inflated by
+ * retries. Achieved records/s, bytes/s and request latency are reported to the log on a fixed interval.
+ */
+public class PipelinedPutRecordsSender implements AutoCloseable {
+
+	// PutRecords accepts up to 500 records and 5 MiB including partition keys in one call
+	private static final int MAX_RECORDS_PER_REQUEST = 500;
+	private static final long MAX_BYTES_PER_REQUEST = 5L * 1024 * 1024;
+
+	private final PipelinedSender<PutRecordsRequestEntry> sender;
+
+	/**
+	 * Constructor using streamName, maxInFlight, queueSize and retryPolicy fields
+	 * 
+	 * @param kinesisClient
+	 * @param streamName
+	 * @param maxInFlight
+	 *            Maximum number of PutRecords requests in flight
+	 * @param queueSize
+	 *            Maximum number of records waiting to be sent
+	 * @param retryPolicy
+	 *            Number of attempts for each record and backoff before retrying it
+	 * @param reportIntervalMillis
+	 *            Interval to report statistics, or 0 to report only on close
+	 */
+	public PipelinedPutRecordsSender(KinesisAsyncClient kinesisClient, String streamName, int maxInFlight, int queueSize,
+			RetryPolicy retryPolicy, long reportIntervalMillis) {
+		this(kinesisClient, streamName, () -> maxInFlight, queueSize, retryPolicy, reportIntervalMillis);
+	}
+
+	/**
+	 * Constructor using streamName, maxInFlight, queueSize and retryPolicy fields, whose maxInFlight is read before each request is sent
+	 * 
+	 * @param kinesisClient
+	 * @param streamName
+	 * @param maxInFlight
+	 *            Maximum number of PutRecords requests in flight
+	 * @param queueSize
+	 *            Maximum number of records waiting to be sent
+	 * @param retryPolicy
+	 *            Number of attempts for each record and backoff before retrying it
+	 * @param reportIntervalMillis
+	 *            Interval to report statistics, or 0 to report only on close
+	 */
+	public PipelinedPutRecordsSender(KinesisAsyncClient kinesisClient, String streamName, IntSupplier maxInFlight, int queueSize,
+			RetryPolicy retryPolicy, long reportIntervalMillis) {
+		super();
+		this.sender = new PipelinedSender<>("PutRecords", streamName,
+				entries -> putRecords(kinesisClient, streamName, entries), PipelinedPutRecordsSender::sizeOf, MAX_RECORDS_PER_REQUEST,
+				MAX_BYTES_PER_REQUEST, maxInFlight, queueSize, retryPolicy, reportIntervalMillis);
+	}
+
+	/**
+	 * Queue a record to be sent, blocking while the queue is full.
+	 * 
+	 * @param entry
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for space in the queue
+	 */
+	public void put(PutRecordsRequestEntry entry) throws InterruptedException {
+		sender.put(entry);
+	}
+
+	/**
+	 * Send the queued records, wait for all the requests in flight and report the statistics.
+	 */
+	@Override
+	public void close() {
+		sender.close();
+	}
+
+	private static CompletableFuture<List<String>> putRecords(KinesisAsyncClient kinesisClient, String streamName,
+			List<PutRecordsRequestEntry> entries) {
+		PutRecordsRequest request = PutRecordsRequest.builder().streamName(streamName).records(entries).build();
+		return kinesisClient.putRecords(request).thenApply(response -> PipelinedSender.errorCodes(entries.size(),
+				response.failedRecordCount(), i -> response.records().get(i).errorCode()));
+	}
+
+	// Size of a record counted toward the limit of a request
+	private static long sizeOf(PutRecordsRequestEntry entry) {
+		return entry.data().asByteBuffer().remaining() + entry.partitionKey().getBytes(StandardCharsets.UTF_8).length;
+	}
+}
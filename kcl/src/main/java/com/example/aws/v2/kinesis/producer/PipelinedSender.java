@@ -0,0 +1,324 @@
+package com.example.aws.v2.kinesis.producer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.IntSupplier;
+import java.util.function.ToLongFunction;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.example.aws.util.ResizableSemaphore;
+import com.example.aws.util.Resubmitter;
+import com.example.aws.util.RetryPolicy;
+import com.example.aws.util.metrics.LatencyHistogram;
+import com.example.aws.v2.kinesis.Util;
+
+/**
+ * Send records with a batch call such as PutRecords or PutRecordBatch keeping a number of requests in flight, instead of waiting for each
+ * response before sending the next request. Records are queued in a bounded queue and a dispatcher thread packs them into requests, so
+ * that callers block when the destination cannot keep up. Records which fail, either one by one in the response or all together with the
+ * call, are put back after a backoff and go out ahead of new records, until they have been tried as many times as the retry policy
+ * allows. Failures which do not go away by retrying, i.e. client errors of the call and KMS errors of a record, drop the records at once.
+ * Achieved records/s, bytes/s and request latency are reported to the log on a fixed interval.
+ * 
+ * @param <E>
+ *            Type of the records, e.g. PutRecordsRequestEntry
+ */
+public class PipelinedSender<E> implements AutoCloseable {
+
+	private static final Log LOG = LogFactory.getLog(PipelinedSender.class);
+
+	private final String callName;
+	private final String destinationName;
+	private final Function<List<E>, CompletableFuture<List<String>>> call;
+	private final ToLongFunction<E> sizeOf;
+	private final int maxRecordsPerRequest;
+	private final long maxBytesPerRequest;
+	private final RetryPolicy retryPolicy;
+	private final IntSupplier maxInFlight;
+	private final ResizableSemaphore inFlight;
+	private final BlockingQueue<Attempt<E>> queue;
+	// Records to retry, which their backoff has passed for
+	private final Queue<Attempt<E>> retries = new ConcurrentLinkedQueue<>();
+	// Records put and neither delivered nor dropped yet, including those in flight and those waiting for their backoff
+	private final AtomicInteger unsettled = new AtomicInteger();
+	private final Thread dispatcher;
+	private final ScheduledExecutorService scheduler;
+	private final AtomicBoolean closed = new AtomicBoolean(false);
+
+	// Statistics since the last report
+	private final LongAdder recordsSent = new LongAdder();
+	private final LongAdder bytesSent = new LongAdder();
+	private final LongAdder recordsRetried = new LongAdder();
+	private final LongAdder recordsDropped = new LongAdder();
+	private final LatencyHistogram requestLatency = new LatencyHistogram();
+	private long lastReportTimeInMillis = System.currentTimeMillis();
+
+	/**
+	 * Constructor using all fields, whose maxInFlight is read before each request is sent
+	 * 
+	 * @param callName
+	 *            Name of the call for the log, e.g. PutRecords, also used to name the threads
+	 * @param destinationName
+	 *            Stream or delivery stream which the records are put to
+	 * @param call
+	 *            Sends a request with the records, and completes with the error code of each record in order, null for the records which
+	 *            succeeded
+	 * @param sizeOf
+	 *            Size of a record counted toward the limit of a request
+	 * @param maxRecordsPerRequest
+	 *            Maximum number of records of a request
+	 * @param maxBytesPerRequest
+	 *            Maximum total size of the records of a request
+	 * @param maxInFlight
+	 *            Maximum number of requests in flight
+	 * @param queueSize
+	 *            Maximum number of records waiting to be sent
+	 * @param retryPolicy
+	 *            Number of attempts for each record and backoff before retrying it
+	 * @param reportIntervalMillis
+	 *            Interval to report statistics, or 0 to report only on close
+	 */
+	public PipelinedSender(String callName, String destinationName, Function<List<E>, CompletableFuture<List<String>>> call,
+			ToLongFunction<E> sizeOf, int maxRecordsPerRequest, long maxBytesPerRequest, IntSupplier maxInFlight, int queueSize,
+			RetryPolicy retryPolicy, long reportIntervalMillis) {
+		super();
+		this.callName = callName;
+		this.destinationName = destinationName;
+		this.call = call;
+		this.sizeOf = sizeOf;
+		this.maxRecordsPerRequest = maxRecordsPerRequest;
+		this.maxBytesPerRequest = maxBytesPerRequest;
+		this.retryPolicy = retryPolicy;
+		this.maxInFlight = maxInFlight;
+		this.inFlight = new ResizableSemaphore(Math.max(1, maxInFlight.getAsInt()));
+		this.queue = new ArrayBlockingQueue<>(Math.max(maxRecordsPerRequest, queueSize));
+		String threadName = callName.replaceAll("([a-z])([A-Z])", "$1-$2").toLowerCase();
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, threadName + "-scheduler");
+			thread.setDaemon(true);
+			return thread;
+		});
+		if (reportIntervalMillis > 0L) {
+			this.scheduler.scheduleAtFixedRate(this::report, reportIntervalMillis, reportIntervalMillis, TimeUnit.MILLISECONDS);
+		}
+		this.dispatcher = new Thread(this::dispatch, threadName + "-dispatcher");
+		this.dispatcher.setDaemon(true);
+		this.dispatcher.start();
+	}
+
+	/**
+	 * Queue a record to be sent, blocking while the queue is full.
+	 * 
+	 * @param record
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for space in the queue
+	 */
+	public void put(E record) throws InterruptedException {
+		if (closed.get()) {
+			throw new IllegalStateException("Sender has been closed");
+		}
+		unsettled.incrementAndGet();
+		try {
+			queue.put(new Attempt<>(record));
+		} catch (InterruptedException e) {
+			unsettled.decrementAndGet();
+			throw e;
+		}
+	}
+
+	/**
+	 * Send the queued records, wait until every record has been delivered or dropped and report the statistics. It may be called more
+	 * than once, e.g. by a shutdown hook and the main thread, and reports only once.
+	 */
+	@Override
+	public void close() {
+		boolean closing = closed.compareAndSet(false, true);
+		try {
+			dispatcher.join();
+		} catch (InterruptedException e) {
+			LOG.debug("Interrupted while closing", e);
+			Thread.currentThread().interrupt();
+		}
+		if (closing) {
+			scheduler.shutdown();
+			report();
+		}
+	}
+
+	private void dispatch() {
+		List<Attempt<E>> batch = new ArrayList<>(maxRecordsPerRequest);
+		// Keep running after close until the records in flight and waiting for their backoff have settled.
+		while (!closed.get() || unsettled.get() > 0) {
+			try {
+				Attempt<E> first = retries.poll();
+				if (first == null) {
+					first = queue.poll(100L, TimeUnit.MILLISECONDS);
+					if (first == null) {
+						continue;
+					}
+				}
+				batch.add(first);
+
+				// Take the records to retry first and then the records already queued, without waiting, up to the limits of a request.
+				long bytes = fill(batch, sizeOf.applyAsLong(first.record), retries);
+				fill(batch, bytes, queue);
+
+				// Block the dispatcher, and so the callers through the queue, while the window of requests is full.
+				inFlight.resize(Math.max(1, maxInFlight.getAsInt()));
+				inFlight.acquire();
+				send(new ArrayList<>(batch));
+				batch.clear();
+			} catch (InterruptedException e) {
+				LOG.debug("Interrupted dispatcher", e);
+				Thread.currentThread().interrupt();
+				return;
+			} catch (RuntimeException e) {
+				// Keep dispatching, so that the callers and close() are not blocked forever by records which cannot even be packed.
+				LOG.error("Dropping " + batch.size() + " records which couldn't be sent to " + destinationName, e);
+				for (Attempt<E> attempt : batch) {
+					drop();
+				}
+				batch.clear();
+			}
+		}
+	}
+
+	// Move records from the source to the batch while they fit in a request, and return the size of the batch
+	private long fill(List<Attempt<E>> batch, long bytes, Queue<Attempt<E>> source) {
+		while (batch.size() < maxRecordsPerRequest) {
+			Attempt<E> next = source.peek();
+			if (next == null || bytes + sizeOf.applyAsLong(next.record) > maxBytesPerRequest) {
+				break;
+			}
+			batch.add(source.poll());
+			bytes += sizeOf.applyAsLong(next.record);
+		}
+		return bytes;
+	}
+
+	private void send(List<Attempt<E>> attempts) {
+		List<E> records = new ArrayList<>(attempts.size());
+		for (Attempt<E> attempt : attempts) {
+			attempt.count++;
+			records.add(attempt.record);
+		}
+		long startTimeInNanos = System.nanoTime();
+		CompletableFuture<List<String>> future;
+		try {
+			future = call.apply(records);
+		} catch (RuntimeException e) {
+			// Failed before the request was sent, e.g. on validation of the request, which is settled like a failed call.
+			future = new CompletableFuture<>();
+			future.completeExceptionally(e);
+		}
+		future.whenComplete((errorCodes, t) -> {
+			inFlight.release();
+			requestLatency.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTimeInNanos));
+			if (t != null) {
+				// The client has already retried the call by its own retry policy.
+				Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+				boolean retryable = Util.isRetryable(cause);
+				LOG.error("Couldn't put " + attempts.size() + " records to " + destinationName + (retryable ? "" : ", dropping them"),
+						cause);
+				for (Attempt<E> attempt : attempts) {
+					retryOrDrop(attempt, retryable);
+				}
+			} else {
+				settle(attempts, errorCodes);
+			}
+		});
+	}
+
+	private void settle(List<Attempt<E>> attempts, List<String> errorCodes) {
+		int failed = 0;
+		String errorCode = null;
+		for (int i = 0; i < attempts.size(); i++) {
+			if (errorCodes.get(i) == null) {
+				recordsSent.increment();
+				bytesSent.add(sizeOf.applyAsLong(attempts.get(i).record));
+				unsettled.decrementAndGet();
+			} else {
+				failed++;
+				errorCode = errorCodes.get(i);
+				retryOrDrop(attempts.get(i), !Resubmitter.isPermanent(errorCode));
+			}
+		}
+		if (failed > 0) {
+			LOG.warn(failed + " of " + attempts.size() + " records failed to be put to " + destinationName + ", e.g. " + errorCode);
+		}
+	}
+
+	private void retryOrDrop(Attempt<E> attempt, boolean retryable) {
+		if (!retryable || attempt.count >= retryPolicy.getMaxAttempts()) {
+			drop();
+			return;
+		}
+		recordsRetried.increment();
+		scheduler.schedule(() -> retries.add(attempt), retryPolicy.backoffMillis(attempt.count), TimeUnit.MILLISECONDS);
+	}
+
+	private void drop() {
+		recordsDropped.increment();
+		unsettled.decrementAndGet();
+	}
+
+	private synchronized void report() {
+		long now = System.currentTimeMillis();
+		double seconds = Math.max(1L, now - lastReportTimeInMillis) / 1000.0;
+		lastReportTimeInMillis = now;
+		LOG.info(String.format(
+				"Put %.1f records/s, %.1f bytes/s to %s, %d records retried, %d records dropped, %d requests in flight, %d records queued",
+				recordsSent.sumThenReset() / seconds, bytesSent.sumThenReset() / seconds, destinationName, recordsRetried.sumThenReset(),
+				recordsDropped.sumThenReset(), inFlight.getMaxPermits() - inFlight.availablePermits(), queue.size() + retries.size())
+				+ ". " + callName + " latency in milliseconds: " + requestLatency.snapshotAndReset());
+	}
+
+	/**
+	 * Error codes of a response which reports its failed count, without looking at the entries when none failed.
+	 * 
+	 * @param count
+	 *            Number of records of the request
+	 * @param failedCount
+	 *            Number of records which failed, or null if the response did not report it
+	 * @param entryErrorCodes
+	 *            Error code of each record of the response, read only if some failed
+	 * @return error code of each record in order, null for the records which succeeded
+	 */
+	static List<String> errorCodes(int count, Integer failedCount, IntFunction<String> entryErrorCodes) {
+		if (failedCount == null || failedCount == 0) {
+			return Collections.nCopies(count, null);
+		}
+		List<String> errorCodes = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			errorCodes.add(entryErrorCodes.apply(i));
+		}
+		return errorCodes;
+	}
+
+	// A record with the number of times it has been sent
+	private static class Attempt<E> {
+		private final E record;
+		private int count = 0;
+
+		private Attempt(E record) {
+			this.record = record;
+		}
+	}
+}
@@ -0,0 +1,80 @@
+package com.example.aws.v2.kinesis.producer;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.example.aws.util.RecordAggregator;
+import com.example.aws.util.RecordAggregator.AggregatedRecord;
+import com.example.aws.util.ShardMap;
+
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.kinesis.model.PutRecordsRequestEntry;
+
+/**
+ * Aggregate PutRecords entries bound for the same shard into KPL aggregated records. Entries are grouped by the open shard whose hash key
+ * range contains their explicit hash key or the hash of their partition key, so that the order of records with the same partition key is
+ * kept. An instance is not thread safe.
+ */
+public class PutRecordsEntryAggregator {
+
+	private final ShardMap shardMap;
+	private final int maxBytes;
+	private final int maxRecords;
+
+	/**
+	 * Constructor using shardMap, maxBytes and maxRecords fields
+	 * 
+	 * @param shardMap
+	 *            Open shards of the stream, which the caller keeps refreshed
+	 * @param maxBytes
+	 *            Maximum size of an aggregated record
+	 * @param maxRecords
+	 *            Maximum number of user records in an aggregated record
+	 */
+	public PutRecordsEntryAggregator(ShardMap shardMap, int maxBytes, int maxRecords) {
+		super();
+		this.shardMap = shardMap;
+		this.maxBytes = maxBytes;
+		this.maxRecords = maxRecords;
+	}
+
+	/**
+	 * Aggregate entries. Entries of each shard stay in order.
+	 * 
+	 * @param entries
+	 *            User records
+	 * @return aggregated records to put
+	 */
+	public List<PutRecordsRequestEntry> aggregate(List<PutRecordsRequestEntry> entries) {
+		Map<String, RecordAggregator> aggregators = new LinkedHashMap<>();
+		List<PutRecordsRequestEntry> aggregatedEntries = new ArrayList<>();
+		for (PutRecordsRequestEntry entry : entries) {
+			BigInteger hashKey = entry.explicitHashKey() != null ? new BigInteger(entry.explicitHashKey())
+					: RecordAggregator.hashKey(entry.partitionKey());
+			String shardId = shardMap.shardIdOf(hashKey);
+			// Without the shard, only records with the same hash key can safely share an aggregated record.
+			if (shardId == null) {
+				shardId = hashKey.toString();
+			}
+			RecordAggregator aggregator = aggregators.computeIfAbsent(shardId, id -> new RecordAggregator(maxBytes, maxRecords));
+
+			byte[] data = entry.data().asByteArray();
+			if (!aggregator.add(entry.partitionKey(), entry.explicitHashKey(), data)) {
+				aggregatedEntries.add(toEntry(aggregator.build()));
+				aggregator.add(entry.partitionKey(), entry.explicitHashKey(), data);
+			}
+		}
+		for (RecordAggregator aggregator : aggregators.values()) {
+			aggregatedEntries.add(toEntry(aggregator.build()));
+		}
+		return aggregatedEntries;
+	}
+
+	private static PutRecordsRequestEntry toEntry(AggregatedRecord aggregatedRecord) {
+		return PutRecordsRequestEntry.builder().data(SdkBytes.fromByteArray(aggregatedRecord.getData()))
+				.partitionKey(aggregatedRecord.getPartitionKey()).explicitHashKey(aggregatedRecord.getExplicitHashKey()).build();
+	}
+}
@@ -1,28 +1,67 @@
 package com.example.aws.v2.kinesis.producer;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
 import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
 
+import com.example.aws.util.BatchBuilder;
 import com.example.aws.util.Config;
 import com.example.aws.util.RecordObject;
+import com.example.aws.util.RecordObjectSerializer;
+import com.example.aws.util.Resubmitter;
+import com.example.aws.util.RetryPolicy;
+import com.example.aws.util.ShardMap;
+import com.example.aws.util.codec.PayloadCodecs;
+import com.example.aws.util.codec.PayloadEncoder;
+import com.example.aws.v2.kinesis.Util;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
-import software.amazon.awssdk.auth.credentials.ProfileCredentialsProvider;
 import software.amazon.awssdk.core.SdkBytes;
-import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.kinesis.KinesisAsyncClient;
 import software.amazon.awssdk.services.kinesis.model.PutRecordsRequest;
 import software.amazon.awssdk.services.kinesis.model.PutRecordsRequestEntry;
 import software.amazon.awssdk.services.kinesis.model.PutRecordsResponse;
+import software.amazon.awssdk.services.kinesis.model.PutRecordsResultEntry;
 
 public class SimpleStreamsProducer {
 
+	// PutRecords accepts up to 500 records and 5 MiB including partition keys in one call
+	private static final int MAX_RECORDS_PER_REQUEST = 500;
+	private static final long MAX_BYTES_PER_REQUEST = 5L * 1024 * 1024;
+
 	public static void main(String[] args) {
-		final ObjectMapper mapper = new ObjectMapper();
-		KinesisAsyncClient kinesisClient = KinesisAsyncClient.builder().credentialsProvider(ProfileCredentialsProvider.create())
-				.region(Region.of(Config.REGION)).build();
+		final RecordObjectSerializer serializer = new RecordObjectSerializer();
+		final PayloadEncoder encoder = PayloadCodecs.encoderFromConfig();
+		KinesisAsyncClient kinesisClient = Util.kinesisClient();
+
+		// In pipelined mode, keep PutRecords requests in flight instead of waiting for each response.
+		PipelinedPutRecordsSender sender = null;
+		if ("pipelined".equalsIgnoreCase(Config.PRODUCER_MODE)) {
+			sender = new PipelinedPutRecordsSender(kinesisClient, Config.STREAM_NAME, Config.PRODUCER_MAX_IN_FLIGHT::get,
+					Config.PRODUCER_QUEUE_SIZE, RetryPolicy.fromConfig(), Config.PRODUCER_REPORT_INTERVAL_MILLIS);
+		}
+
+		// Aggregate records for the same shard into KPL aggregated records, which the KCL deaggregates.
+		PutRecordsEntryAggregator aggregator = null;
+		ShardMap shardMap = null;
+		if (Config.AGGREGATION_ENABLED) {
+			// Group records by the open shards, refreshed from ListShards so that splits and merges are followed.
+			shardMap = ShardMap.fromConfig(() -> Util.listShards(kinesisClient, Config.STREAM_NAME));
+			aggregator = new PutRecordsEntryAggregator(shardMap, Config.AGGREGATION_MAX_BYTES, Config.AGGREGATION_MAX_RECORDS);
+		}
+
+		// In simple mode, pack records into requests up to the limits of PutRecords, sending a request when it is full or
+		// producer.linger.millis after its first record.
+		BatchBuilder<PutRecordsRequestEntry> batchBuilder = new BatchBuilder<>(MAX_RECORDS_PER_REQUEST, MAX_BYTES_PER_REQUEST,
+				Config.PRODUCER_LINGER_MILLIS, SimpleStreamsProducer::sizeOf);
+
+		// Resubmit only the records which failed, ahead of new records.
+		Resubmitter<PutRecordsRequestEntry> resubmitter = Resubmitter.fromConfig(PutRecordsRequestEntry::partitionKey,
+				SimpleStreamsProducer::sizeOf);
 
 		List<RecordObject> recordObjects = new ArrayList<>();
 		for (int i = 0; i < Config.RECORD_COUNT; i++) {
@@ -30,40 +69,100 @@ public class SimpleStreamsProducer {
 			recordObjects.add(recordObject);
 		}
 
+		long nextRecordTimeInMillis = System.currentTimeMillis();
 		while (true) {
-			List<PutRecordsRequestEntry> putRecordsRequestEntryList = new ArrayList<>();
-			for (int i = 0; i < Config.RECORD_COUNT; i++) {
-				RecordObject recordObject = recordObjects.get(i);
-				recordObject.incrementRecordCount();
-				recordObject.setTimestampToNow();
-				try {
-					putRecordsRequestEntryList.add(PutRecordsRequestEntry.builder()
-							.data(SdkBytes.fromByteArray(mapper.writeValueAsString(recordObject).getBytes()))
-							.partitionKey(recordObject.partitionKey).build());
-				} catch (JsonProcessingException e) {
-					e.printStackTrace();
+			if (System.currentTimeMillis() >= nextRecordTimeInMillis) {
+				List<PutRecordsRequestEntry> putRecordsRequestEntryList = new ArrayList<>();
+				for (int i = 0; i < Config.RECORD_COUNT; i++) {
+					RecordObject recordObject = recordObjects.get(i);
+					recordObject.incrementRecordCount();
+					recordObject.setTimestampToNow();
+					try {
+						putRecordsRequestEntryList.add(PutRecordsRequestEntry.builder()
+								.data(SdkBytes.fromByteArray(encoder.encode(serializer.serialize(recordObject))))
+								.partitionKey(recordObject.partitionKey).build());
+					} catch (JsonProcessingException e) {
+						e.printStackTrace();
+					}
+				}
+
+				if (aggregator != null) {
+					shardMap.refreshIfStale();
+					putRecordsRequestEntryList = aggregator.aggregate(putRecordsRequestEntryList);
 				}
-			}
 
-			PutRecordsRequest putRecordsRequest = PutRecordsRequest.builder().streamName(Config.STREAM_NAME)
-					.records(putRecordsRequestEntryList).build();
-			PutRecordsResponse putRecordsResponse;
-			try {
-				putRecordsResponse = kinesisClient.putRecords(putRecordsRequest).get();
-				System.out.println("Put Result : " + putRecordsResponse);
-			} catch (InterruptedException e) {
-				System.out.println("Interrupted, assuming shutdown.");
-			} catch (ExecutionException e) {
-				System.err.println("Exception while sending data to Kinesis will try again next cycle");
+				if (sender != null) {
+					try {
+						for (PutRecordsRequestEntry putRecordsRequestEntry : putRecordsRequestEntryList) {
+							sender.put(putRecordsRequestEntry);
+						}
+					} catch (InterruptedException e) {
+						System.out.println("Interrupted, assuming shutdown.");
+						sender.close();
+						return;
+					}
+				} else {
+					for (PutRecordsRequestEntry putRecordsRequestEntry : putRecordsRequestEntryList) {
+						batchBuilder.add(putRecordsRequestEntry);
+					}
+				}
+				nextRecordTimeInMillis += Config.RECORD_INTERVAL_MILLIS.get();
 			}
 
-			try {
-				Thread.sleep(Config.RECORD_INTERVAL_MILLIS);
-			} catch (InterruptedException e) {
-				e.printStackTrace();
+			// In simple mode, send the requests which are ready, with the records to resubmit.
+			List<PutRecordsRequestEntry> ready;
+			while ((ready = batchBuilder.poll()) != null || resubmitter.getQueuedCount() > 0) {
+				List<PutRecordsRequestEntry> batch = resubmitter.nextBatch(ready != null ? ready : Collections.emptyList(),
+						MAX_RECORDS_PER_REQUEST, MAX_BYTES_PER_REQUEST);
+				PutRecordsRequest putRecordsRequest = PutRecordsRequest.builder().streamName(Config.STREAM_NAME).records(batch).build();
+				PutRecordsResponse putRecordsResponse;
+				long backoffMillis;
+				try {
+					putRecordsResponse = kinesisClient.putRecords(putRecordsRequest).get();
+					System.out.println("Put Result : " + putRecordsResponse);
+					List<String> errorCodes = putRecordsResponse.records().stream().map(PutRecordsResultEntry::errorCode)
+							.collect(Collectors.toList());
+					if (shardMap != null && errorCodes.stream().anyMatch(Objects::nonNull)) {
+						// The stream may have been resharded.
+						shardMap.invalidate();
+					}
+					backoffMillis = resubmitter.completed(errorCodes);
+				} catch (InterruptedException e) {
+					System.out.println("Interrupted, assuming shutdown.");
+					return;
+				} catch (ExecutionException e) {
+					System.err.println("Exception while sending data to Kinesis will try again next cycle");
+					if (shardMap != null) {
+						shardMap.invalidate();
+					}
+					// The client has already retried the call by its own retry policy.
+					backoffMillis = resubmitter.failed(e.getCause(), Util.isRetryable(e.getCause()), Util.isThrottling(e.getCause()));
+				}
+				System.out.println("Put Records : " + resubmitter.describe());
+				sleep(backoffMillis);
 			}
+
+			// Wait for the next records or the linger time of the current request, whichever comes first.
+			sleep(Math.min(nextRecordTimeInMillis - System.currentTimeMillis(), batchBuilder.millisUntilReady()));
 		}
 
 	}
 
+	// Size of a record counted toward the limits of a request
+	private static long sizeOf(PutRecordsRequestEntry putRecordsRequestEntry) {
+		return putRecordsRequestEntry.data().asByteBuffer().remaining()
+				+ putRecordsRequestEntry.partitionKey().getBytes(StandardCharsets.UTF_8).length;
+	}
+
+	private static void sleep(long millis) {
+		if (millis <= 0L) {
+			return;
+		}
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+	}
+
 }